@@ -0,0 +1,897 @@
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.UnknownHostException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * A local HTTP server for scripts to drive the editor: it lists, adds
+ * and changes jobs, and runs exports, renders and session plans whose
+ * progress can be followed as server-sent events.
+ *
+ * <pre>
+ * GET   /jobs                    all jobs
+ * POST  /jobs                    add jobs, read as by JobImporter: one JSON object
+ *                                (application/json), JSON lines or CSV (text/csv)
+ * GET   /jobs/{id}               one job
+ * PATCH /jobs/{id}               change the fields given in a JSON object
+ * POST  /batches                 start a batch: {"type": "export", "render" or "plan",
+ *                                "out": path in the output directory, "jobs": [ids],
+ *                                "channels": n}
+ * GET   /batches                 all batches
+ * GET   /batches/{id}            the state of a batch
+ * GET   /batches/{id}/events     the progress of a batch, as server-sent events
+ * </pre>
+ *
+ * Jobs are written with the same names JobImporter reads, so a job that
+ * was fetched can be changed and sent back. A batch works on snapshots
+ * of its jobs (all jobs if none are given) taken when it is started.
+ *
+ * The server binds to the loopback address only, and turns away
+ * requests whose Host or Origin header names another host, so web pages
+ * cannot reach it through a browser either. Every request must also
+ * carry the token of the server, made anew each time it is constructed,
+ * as "Authorization: Bearer token", so only clients it was given to can
+ * use it. Batches only write inside the output directory: "out" is a
+ * path relative to it.
+ *
+ * Every request runs on a virtual thread of its own, so hundreds of
+ * clients can poll or follow a batch at once. Reads go to the
+ * thread-safe {@link JobRepository} and work from job snapshots; only
+ * changes to jobs are handed to the edit executor (for the editor, the
+ * JavaFX thread, where all other edits are made) and waited for.
+ * Batches run one after another on a thread of their own.
+ */
+public class AutomationServer {
+    public static final int DEFAULT_PORT = 8765;
+    private static final int BACKLOG = 512;
+    private static final int MAX_BODY_BYTES = 64 * 1024;
+    private static final int MAX_IDS = 1000;  // listed in the reply to POST /jobs
+    private static final int MAX_FINISHED_BATCHES = 100;
+    private static final long EDIT_TIMEOUT_SECONDS = 10;
+    private static final long KEEP_ALIVE_SECONDS = 15;
+    private static final int TOKEN_BYTES = 32;
+
+    private final JobRepository repository;
+    private final Executor editExecutor;
+    private final OfflineRenderer renderer;
+    private final Path outputDirectory;
+    private final String token;
+    private final HttpServer server;
+    private final ExecutorService requestExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    private final ExecutorService batchExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "automation-batch");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Map<Long, Batch> batches = new ConcurrentHashMap<>();
+    private final AtomicLong nextBatchId = new AtomicLong(1);
+    private volatile boolean stopped;
+
+    /**
+     * Constructs a server and binds it to a port of the loopback address.
+     *
+     * @param repository the jobs to serve
+     * @param editExecutor runs the changes to jobs
+     * @param renderer renders the jobs of render batches
+     * @param outputDirectory the directory batches write to, created
+     *                        if needed
+     * @param port the port, or 0 for any free one
+     * @throws IOException if the port cannot be bound
+     */
+    public AutomationServer(JobRepository repository, Executor editExecutor, OfflineRenderer renderer,
+                            Path outputDirectory, int port) throws IOException {
+        this.repository = repository;
+        this.editExecutor = editExecutor;
+        this.renderer = renderer;
+        Files.createDirectories(outputDirectory);
+        this.outputDirectory = outputDirectory.toRealPath();
+        byte[] secret = new byte[TOKEN_BYTES];
+        new SecureRandom().nextBytes(secret);
+        this.token = Base64.getUrlEncoder().withoutPadding().encodeToString(secret);
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), BACKLOG);
+        this.server.setExecutor(this.requestExecutor);
+        this.server.createContext("/", this::handle);
+    }
+
+    /**
+     * Starts answering requests.
+     */
+    public void start() {
+        this.server.start();
+    }
+
+    /**
+     * Stops the server. Event streams are ended and a running batch is
+     * interrupted.
+     */
+    public void stop() {
+        this.stopped = true;
+        for (Batch batch : this.batches.values()) {
+            batch.wakeUp();
+        }
+        this.server.stop(1);
+        this.batchExecutor.shutdownNow();
+        this.requestExecutor.shutdownNow();
+    }
+
+    /**
+     * Gets the token clients must send, as "Authorization: Bearer token".
+     */
+    public String getToken() {
+        return this.token;
+    }
+
+    /**
+     * Gets the directory batches write to.
+     */
+    public Path getOutputDirectory() {
+        return this.outputDirectory;
+    }
+
+    public int getPort() {
+        return this.server.getAddress().getPort();
+    }
+
+    /**
+     * Gets the address of the server, such as "http://127.0.0.1:8765/".
+     */
+    public String getAddress() {
+        InetSocketAddress address = this.server.getAddress();
+        String host = address.getAddress().getHostAddress();
+        return "http://" + (host.indexOf(':') >= 0 ? "[" + host + "]" : host) + ":" + address.getPort() + "/";
+    }
+
+    /**
+     * A reply other than success, with its HTTP status.
+     */
+    private static class StatusException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        final int status;
+
+        StatusException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    private void handle(HttpExchange exchange) {
+        try {
+            if (!isLocal(exchange.getRequestHeaders())) {
+                throw new StatusException(403, "Only local clients may use this server");
+            }
+            if (!isAuthorized(exchange.getRequestHeaders())) {
+                exchange.getResponseHeaders().set("WWW-Authenticate", "Bearer");
+                throw new StatusException(401, "The server's token is missing or wrong");
+            }
+            route(exchange, exchange.getRequestMethod(), segments(exchange.getRequestURI().getPath()));
+        } catch (StatusException e) {
+            sendError(exchange, e.status, e.getMessage());
+        } catch (IllegalArgumentException e) {
+            sendError(exchange, 400, e.getMessage());
+        } catch (IOException e) {
+            // The client has gone; nothing to answer
+        } catch (RuntimeException e) {
+            sendError(exchange, 500, e.toString());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void route(HttpExchange exchange, String method, List<String> path) throws IOException, StatusException {
+        if (path.size() >= 1 && path.size() <= 2 && path.get(0).equals("jobs")) {
+            if (path.size() == 1) {
+                if (method.equals("GET")) {
+                    listJobs(exchange);
+                } else if (method.equals("POST")) {
+                    addJobs(exchange);
+                } else {
+                    throw notAllowed(method);
+                }
+            } else {
+                UUID id = UUID.fromString(path.get(1));
+                if (method.equals("GET")) {
+                    Job job = this.repository.get(id);
+                    if (job == null) {
+                        throw noJob(id);
+                    }
+                    send(exchange, 200, toJson(job.snapshot()));
+                } else if (method.equals("PATCH")) {
+                    updateJob(exchange, id);
+                } else {
+                    throw notAllowed(method);
+                }
+            }
+        } else if (path.size() >= 1 && path.size() <= 3 && path.get(0).equals("batches")) {
+            if (path.size() == 1) {
+                if (method.equals("GET")) {
+                    listBatches(exchange);
+                } else if (method.equals("POST")) {
+                    startBatch(exchange);
+                } else {
+                    throw notAllowed(method);
+                }
+                return;
+            }
+            if (!method.equals("GET")) {
+                throw notAllowed(method);
+            }
+            Batch batch = null;
+            try {
+                batch = this.batches.get(Long.parseLong(path.get(1)));
+            } catch (NumberFormatException e) {
+                // Reported below
+            }
+            if (batch == null) {
+                throw new StatusException(404, "No batch " + path.get(1));
+            }
+            if (path.size() == 2) {
+                send(exchange, 200, batch.toJson());
+            } else if (path.get(2).equals("events")) {
+                streamEvents(exchange, batch);
+            } else {
+                throw new StatusException(404, "Nothing at " + exchange.getRequestURI().getPath());
+            }
+        } else {
+            throw new StatusException(404, "Nothing at " + exchange.getRequestURI().getPath());
+        }
+    }
+
+    private void listJobs(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(200, 0);
+        // Streamed, so a large repository is not held as one string
+        try (Writer out = new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8)) {
+            out.write("{\"jobs\":[");
+            boolean first = true;
+            for (Job job : this.repository.list()) {
+                if (!first) {
+                    out.write(',');
+                }
+                first = false;
+                out.write(toJson(job.snapshot()));
+            }
+            out.write("]}");
+        }
+    }
+
+    private void addJobs(HttpExchange exchange) throws IOException, StatusException {
+        String contentType = contentType(exchange);
+        JobImporter.Format format = contentType.equals("text/csv") ? JobImporter.Format.CSV
+            : JobImporter.Format.JSON_LINES;
+        InputStream body = exchange.getRequestBody();
+        if (contentType.equals("application/json")) {
+            // One object, which may be spread over lines; JSON strings
+            // hold no raw line breaks, so they can all become spaces
+            String object = readBody(exchange).replace('\n', ' ').replace('\r', ' ');
+            body = new ByteArrayInputStream(object.getBytes(StandardCharsets.UTF_8));
+        }
+
+        List<String> ids = new ArrayList<>();
+        AtomicLong added = new AtomicLong();
+        AtomicLong duplicates = new AtomicLong();
+        JobImporter.Result result;
+        try {
+            result = new JobImporter().importJobs(Channels.newChannel(body), format, (batch, bytesRead) -> {
+                this.repository.addAll(batch);
+                for (Job job : batch) {
+                    if (this.repository.get(job.getId()) != job) {
+                        duplicates.incrementAndGet();
+                    } else if (added.incrementAndGet() <= MAX_IDS) {
+                        ids.add(quote(job.getId().toString()));
+                    }
+                }
+            });
+        } catch (IOException e) {
+            // Such as a CSV file without a name column
+            throw new StatusException(400, e.getMessage());
+        }
+
+        StringBuilder json = new StringBuilder();
+        json.append("{\"added\":").append(added.get())
+            .append(",\"duplicates\":").append(duplicates.get())
+            .append(",\"ids\":[").append(String.join(",", ids))
+            .append("],\"errorCount\":").append(result.getErrorCount())
+            .append(",\"errors\":[");
+        for (int i = 0; i < result.getErrors().size(); i++) {
+            JobImporter.RowError error = result.getErrors().get(i);
+            json.append(i > 0 ? "," : "").append("{\"line\":").append(error.getLine())
+                .append(",\"message\":").append(quote(error.getMessage())).append('}');
+        }
+        json.append("]}");
+        int status = added.get() > 0 ? 201 : result.getErrorCount() > 0 ? 400 : 200;
+        send(exchange, status, json.toString());
+    }
+
+    private void updateJob(HttpExchange exchange, UUID id) throws IOException, StatusException {
+        Map<String, String> changes = new HashMap<>(
+            new JobImporter.JsonObjectReader(JobImporter::column).read(readBody(exchange)));
+        changes.remove("id");
+        JobSnapshot job = edit(() -> {
+            if (!this.repository.update(id, existing -> apply(existing, changes))) {
+                return null;
+            }
+            return this.repository.get(id).snapshot();
+        });
+        if (job == null) {
+            throw noJob(id);
+        }
+        send(exchange, 200, toJson(job));
+    }
+
+    /**
+     * Changes a job, all at once or not at all.
+     */
+    private static void apply(Job job, Map<String, String> changes) {
+        Map<String, String> values = JobImporter.toValues(job.snapshot());
+        values.putAll(changes);
+        // A copy is made from all the values first, so a bad one changes nothing
+        Job checked = JobImporter.toJob(values);
+        if (!checked.getName().equals(job.getName())) {
+            job.setName(checked.getName());
+        }
+        if (checked.getFromNote() != job.getFromNote()) {
+            job.setFromNote(checked.getFromNote());
+        }
+        if (checked.getToNote() != job.getToNote()) {
+            job.setToNote(checked.getToNote());
+        }
+        if (checked.getInterval() != job.getInterval()) {
+            job.setInterval(checked.getInterval());
+        }
+        if (checked.getNoteDuration() != job.getNoteDuration()) {
+            job.setNoteDuration(checked.getNoteDuration());
+        }
+        if (checked.getNoteDecay() != job.getNoteDecay()) {
+            job.setNoteDecay(checked.getNoteDecay());
+        }
+        if (checked.getNoteGap() != job.getNoteGap()) {
+            job.setNoteGap(checked.getNoteGap());
+        }
+        if (checked.getSilenceThreshold() != job.getSilenceThreshold()) {
+            job.setSilenceThreshold(checked.getSilenceThreshold());
+        }
+        if (!checked.getVelocities().equals(job.getVelocities())) {
+            job.setSpecificVelocities(checked.getVelocities());
+        }
+    }
+
+    /**
+     * Runs a change on the edit executor and waits for it. A change that
+     * has not started when the wait times out is cancelled, so a 503
+     * reply means the job was left as it was; one that has started is
+     * waited for to the end.
+     */
+    private <T> T edit(Supplier<T> change) throws StatusException {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        // Taken by whichever comes first, the change or the timeout
+        AtomicBoolean claimed = new AtomicBoolean();
+        this.editExecutor.execute(() -> {
+            if (!claimed.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                result.complete(change.get());
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        });
+        try {
+            try {
+                return result.get(EDIT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } catch (TimeoutException e) {
+                if (claimed.compareAndSet(false, true)) {
+                    throw new StatusException(503, "The editor did not make the change in time; nothing was changed");
+                }
+                return result.get();
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            if (claimed.compareAndSet(false, true)) {
+                throw new StatusException(503, "The server is stopping; nothing was changed");
+            }
+            throw new StatusException(503, "The server is stopping; the change may have been made");
+        }
+    }
+
+    private void listBatches(HttpExchange exchange) throws IOException {
+        List<Batch> ordered = new ArrayList<>(this.batches.values());
+        ordered.sort((a, b) -> Long.compare(a.id, b.id));
+        StringBuilder json = new StringBuilder("{\"batches\":[");
+        for (int i = 0; i < ordered.size(); i++) {
+            json.append(i > 0 ? "," : "").append(ordered.get(i).toJson());
+        }
+        send(exchange, 200, json.append("]}").toString());
+    }
+
+    private void startBatch(HttpExchange exchange) throws IOException, StatusException {
+        Map<String, String> values = new HashMap<>(
+            new JobImporter.JsonObjectReader(key -> key).read(readBody(exchange)));
+        String type = values.getOrDefault("type", "");
+        if (!List.of("export", "render", "plan").contains(type)) {
+            throw new IllegalArgumentException("type must be export, render or plan");
+        }
+        if (values.get("out") == null) {
+            throw new IllegalArgumentException("out is missing");
+        }
+        Path out = resolveOut(values.get("out"), type.equals("render"));
+        SessionPlanner planner = null;
+        if (type.equals("plan")) {
+            int channels = SessionPlanner.DEFAULT_CHANNELS;
+            if (values.containsKey("channels")) {
+                try {
+                    channels = Integer.parseInt(values.get("channels"));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("channels is not a whole number: " + values.get("channels"));
+                }
+            }
+            planner = new SessionPlanner(channels);
+        }
+
+        List<JobSnapshot> jobs = new ArrayList<>();
+        if (values.containsKey("jobs")) {
+            for (String id : values.get("jobs").split(" ")) {
+                if (id.isEmpty()) {
+                    continue;
+                }
+                Job job = this.repository.get(UUID.fromString(id));
+                if (job == null) {
+                    throw noJob(UUID.fromString(id));
+                }
+                jobs.add(job.snapshot());
+            }
+        } else {
+            for (Job job : this.repository.list()) {
+                jobs.add(job.snapshot());
+            }
+        }
+
+        Batch batch = new Batch(this.nextBatchId.getAndIncrement(), type, jobs.size());
+        this.batches.put(batch.id, batch);
+        forgetFinishedBatches();
+        SessionPlanner sessionPlanner = planner;
+        this.batchExecutor.execute(() -> runBatch(batch, jobs, out, sessionPlanner));
+
+        String location = "/batches/" + batch.id;
+        exchange.getResponseHeaders().set("Location", location);
+        send(exchange, 202, "{\"id\":" + batch.id + ",\"status\":" + quote(location)
+            + ",\"events\":" + quote(location + "/events") + "}");
+    }
+
+    /**
+     * Resolves the "out" of a batch against the output directory.
+     *
+     * @param directory whether the batch writes a directory of files
+     * @throws IllegalArgumentException if the path leads out of the
+     *         output directory, also through a symbolic link
+     */
+    private Path resolveOut(String value, boolean directory) throws StatusException {
+        Path relative;
+        try {
+            relative = Path.of(value);
+        } catch (InvalidPathException e) {
+            throw new IllegalArgumentException("out is not a path: " + value);
+        }
+        Path out = this.outputDirectory.resolve(relative).normalize();
+        if (relative.isAbsolute() || !out.startsWith(this.outputDirectory) || out.equals(this.outputDirectory)) {
+            throw new IllegalArgumentException("out must be a path inside the output directory "
+                + this.outputDirectory);
+        }
+        Path parent = directory ? out : out.getParent();
+        boolean inside;
+        try {
+            Files.createDirectories(parent);
+            inside = parent.toRealPath().startsWith(this.outputDirectory);
+        } catch (IOException e) {
+            throw new StatusException(500, "Could not create " + parent + ": " + e.getMessage());
+        }
+        if (!inside || (!directory && Files.isSymbolicLink(out))) {
+            throw new IllegalArgumentException("out leads out of the output directory " + this.outputDirectory);
+        }
+        return out;
+    }
+
+    private void runBatch(Batch batch, List<JobSnapshot> jobs, Path out, SessionPlanner planner) {
+        try {
+            switch (batch.type) {
+                case "export":
+                    batch.progress(0, 1, "Exporting " + jobs.size() + " jobs");
+                    new MidiExporter().exportSnapshots(jobs, out);
+                    batch.finish("Exported " + jobs.size() + " jobs to " + out);
+                    break;
+                case "render":
+                    BatchRenderer renderer = new BatchRenderer(this.renderer);
+                    List<BatchRenderer.Result> results = renderer.render(jobs, out, (result, completed, total) ->
+                        batch.progress(completed, total, result.toString()));
+                    long failed = results.stream().filter(result -> result.getError() != null).count();
+                    if (failed > 0) {
+                        batch.fail(failed + " of " + results.size() + " tasks failed");
+                    } else {
+                        batch.finish("Rendered " + jobs.size() + " jobs to " + out);
+                    }
+                    break;
+                default:
+                    batch.progress(0, 1, "Planning " + jobs.size() + " jobs");
+                    SessionPlanner.Plan plan = planner.planSnapshots(jobs);
+                    if (out.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".mid")) {
+                        new MidiExporter().exportPlan(plan, out);
+                    } else {
+                        plan.writeCsv(out);
+                    }
+                    batch.finish(plan.toString());
+            }
+        } catch (IOException | RuntimeException e) {
+            batch.fail(e.getMessage() != null ? e.getMessage() : e.toString());
+        }
+    }
+
+    private void forgetFinishedBatches() {
+        List<Batch> finished = new ArrayList<>();
+        for (Batch batch : this.batches.values()) {
+            if (batch.isFinished()) {
+                finished.add(batch);
+            }
+        }
+        finished.sort((a, b) -> Long.compare(a.id, b.id));
+        for (int i = 0; i < finished.size() - MAX_FINISHED_BATCHES; i++) {
+            this.batches.remove(finished.get(i).id);
+        }
+    }
+
+    /**
+     * Sends the events of a batch as they happen, starting after the
+     * one a reconnecting client saw last, until the batch has finished.
+     */
+    private void streamEvents(HttpExchange exchange, Batch batch) throws IOException {
+        int next = 0;
+        String lastEventId = exchange.getRequestHeaders().getFirst("Last-Event-ID");
+        if (lastEventId != null) {
+            try {
+                next = Integer.parseInt(lastEventId.trim()) + 1;
+            } catch (NumberFormatException e) {
+                // Start from the first event
+            }
+        }
+
+        Headers headers = exchange.getResponseHeaders();
+        headers.set("Content-Type", "text/event-stream; charset=utf-8");
+        headers.set("Cache-Control", "no-cache");
+        exchange.sendResponseHeaders(200, 0);
+        OutputStream out = exchange.getResponseBody();
+        while (!this.stopped) {
+            List<String> events;
+            try {
+                events = batch.awaitEvents(next, KEEP_ALIVE_SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            StringBuilder text = new StringBuilder();
+            if (events.isEmpty()) {
+                // A comment, so idle connections are not dropped
+                text.append(": keep-alive\n\n");
+            }
+            for (String event : events) {
+                text.append("id: ").append(next++).append('\n').append(event).append("\n\n");
+            }
+            out.write(text.toString().getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            if (batch.isFinished() && next >= batch.eventCount()) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * A batch and the events of its progress.
+     */
+    private static final class Batch {
+        final long id;
+        final String type;
+        final int jobCount;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition changed = this.lock.newCondition();
+        // Each event as "event: ...\ndata: ...", by event id
+        private final List<String> events = new ArrayList<>();
+        private String state;
+        private int completed;
+        private int total;
+        private String message = "";
+
+        Batch(long id, String type, int jobCount) {
+            this.id = id;
+            this.type = type;
+            this.jobCount = jobCount;
+            update("queued", 0, 0, "Waiting for earlier batches");
+        }
+
+        void progress(int completed, int total, String message) {
+            update("running", completed, total, message);
+        }
+
+        void finish(String message) {
+            update("done", this.total, this.total, message);
+        }
+
+        void fail(String message) {
+            update("failed", this.completed, this.total, message);
+        }
+
+        boolean isFinished() {
+            this.lock.lock();
+            try {
+                return this.state.equals("done") || this.state.equals("failed");
+            } finally {
+                this.lock.unlock();
+            }
+        }
+
+        int eventCount() {
+            this.lock.lock();
+            try {
+                return this.events.size();
+            } finally {
+                this.lock.unlock();
+            }
+        }
+
+        /**
+         * Waits for events from the given one on, or until the batch
+         * has finished or the time is up.
+         *
+         * @return the events, empty if there were none in time
+         */
+        List<String> awaitEvents(int from, long seconds) throws InterruptedException {
+            this.lock.lock();
+            try {
+                long nanos = TimeUnit.SECONDS.toNanos(seconds);
+                while (this.events.size() <= from && !isFinished() && nanos > 0) {
+                    nanos = this.changed.awaitNanos(nanos);
+                }
+                return from < this.events.size() ? List.copyOf(this.events.subList(from, this.events.size()))
+                    : List.of();
+            } finally {
+                this.lock.unlock();
+            }
+        }
+
+        /**
+         * Wakes up the streams waiting for events, as the server stops.
+         */
+        void wakeUp() {
+            this.lock.lock();
+            try {
+                this.changed.signalAll();
+            } finally {
+                this.lock.unlock();
+            }
+        }
+
+        String toJson() {
+            this.lock.lock();
+            try {
+                return "{\"id\":" + this.id + ",\"type\":" + quote(this.type) + ",\"jobs\":" + this.jobCount
+                    + ",\"state\":" + quote(this.state) + ",\"completed\":" + this.completed
+                    + ",\"total\":" + this.total + ",\"message\":" + quote(this.message) + "}";
+            } finally {
+                this.lock.unlock();
+            }
+        }
+
+        private void update(String state, int completed, int total, String message) {
+            this.lock.lock();
+            try {
+                this.state = state;
+                this.completed = completed;
+                this.total = total;
+                this.message = message;
+                String name = state.equals("running") ? "progress" : state;
+                this.events.add("event: " + name + "\ndata: " + toJson());
+                this.changed.signalAll();
+            } finally {
+                this.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Checks the bearer token of a request against this server's token.
+     */
+    private boolean isAuthorized(Headers headers) {
+        String authorization = headers.getFirst("Authorization");
+        if (authorization == null || !authorization.startsWith("Bearer ")) {
+            return false;
+        }
+        // Compared in constant time, so the token cannot be guessed from timings
+        return MessageDigest.isEqual(authorization.substring(7).trim().getBytes(StandardCharsets.UTF_8),
+            this.token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Checks that a request names this server by a loopback address, and
+     * comes from a local page if from a browser at all. Requests through
+     * a host name that resolves to the loopback address, as web pages
+     * can make, are turned away.
+     */
+    private static boolean isLocal(Headers headers) {
+        String host = headers.getFirst("Host");
+        if (host == null || !isLoopback(host.startsWith("[") ? host.substring(0, host.indexOf(']') + 1)
+                : host.split(":", 2)[0])) {
+            return false;
+        }
+        String origin = headers.getFirst("Origin");
+        if (origin == null) {
+            return true;
+        }
+        try {
+            String originHost = new URI(origin).getHost();
+            return originHost != null && isLoopback(originHost);
+        } catch (URISyntaxException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Checks that a host is "localhost" or a loopback address written as
+     * an IP literal, such as 127.0.0.1 or [::1]. Host names are never
+     * looked up.
+     */
+    private static boolean isLoopback(String host) {
+        if (host.equalsIgnoreCase("localhost")) {
+            return true;
+        }
+        if (host.startsWith("[") && host.endsWith("]")) {
+            String literal = host.substring(1, host.length() - 1);
+            if (!literal.contains(":") || !literal.chars().allMatch(c -> Character.digit(c, 16) >= 0
+                    || c == ':' || c == '.')) {
+                return false;
+            }
+            try {
+                // A literal with a colon is parsed, not looked up
+                return InetAddress.getByName(literal).isLoopbackAddress();
+            } catch (UnknownHostException e) {
+                return false;
+            }
+        }
+        String[] octets = host.split("\\.", -1);
+        if (octets.length != 4) {
+            return false;
+        }
+        for (String octet : octets) {
+            if (octet.isEmpty() || octet.length() > 3 || !octet.chars().allMatch(c -> c >= '0' && c <= '9')
+                    || Integer.parseInt(octet) > 255) {
+                return false;
+            }
+        }
+        return octets[0].equals("127");
+    }
+
+    private static List<String> segments(String path) {
+        List<String> segments = new ArrayList<>();
+        for (String segment : path.split("/")) {
+            if (!segment.isEmpty()) {
+                segments.add(segment);
+            }
+        }
+        return segments;
+    }
+
+    private static String contentType(HttpExchange exchange) {
+        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        if (contentType == null) {
+            return "";
+        }
+        return contentType.split(";", 2)[0].trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static String readBody(HttpExchange exchange) throws IOException, StatusException {
+        byte[] bytes = exchange.getRequestBody().readNBytes(MAX_BODY_BYTES + 1);
+        if (bytes.length > MAX_BODY_BYTES) {
+            throw new StatusException(413, "The request is longer than " + MAX_BODY_BYTES + " bytes");
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static StatusException noJob(UUID id) {
+        return new StatusException(404, "No job " + id);
+    }
+
+    private static StatusException notAllowed(String method) {
+        return new StatusException(405, method + " is not allowed here");
+    }
+
+    private static void send(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) {
+        try {
+            send(exchange, status, "{\"error\":" + quote(message != null ? message : "") + "}");
+        } catch (IOException | IllegalStateException e) {
+            // The client has gone, or the reply was already under way
+        }
+    }
+
+    private static String toJson(JobSnapshot job) {
+        StringBuilder json = new StringBuilder(200);
+        json.append("{\"id\":").append(quote(job.getId().toString()))
+            .append(",\"name\":").append(quote(job.getName()))
+            .append(",\"version\":").append(job.getVersion())
+            .append(",\"fromNote\":").append(job.getFromNote())
+            .append(",\"toNote\":").append(job.getToNote())
+            .append(",\"interval\":").append(job.getInterval().getValue())
+            .append(",\"duration\":").append(job.getNoteDuration())
+            .append(",\"decay\":").append(job.getNoteDecay())
+            .append(",\"gap\":").append(job.getNoteGap())
+            .append(",\"threshold\":").append(job.getSilenceThreshold())
+            .append(",\"velocities\":[");
+        for (int i = 0; i < job.getVelocities().size(); i++) {
+            json.append(i > 0 ? "," : "").append(job.getVelocities().get(i));
+        }
+        return json.append("]}").toString();
+    }
+
+    private static String quote(String value) {
+        StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c == '\n') {
+                quoted.append("\\n");
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
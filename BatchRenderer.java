@@ -0,0 +1,278 @@
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Renders many jobs offline, in parallel across cores.
+ *
+ * The jobs are first cut into tasks: one per job, and large jobs into
+ * several, each covering a range of notes. The tasks are then split
+ * recursively over a fork/join pool. Every task renders with its own
+ * synthesizer (see {@link OfflineRenderer}), so tasks share no state.
+ * Results come back in job and note order, with the time each task took.
+ *
+ * Jobs are rendered from snapshots, so they may be edited meanwhile;
+ * each result tells whether its job had changed by the time the task
+ * finished.
+ */
+public class BatchRenderer {
+    public static final int DEFAULT_ROWS_PER_TASK = 64;
+
+    private final OfflineRenderer renderer;
+    private final int parallelism;
+    private final int rowsPerTask;
+
+    /**
+     * Constructs a batch renderer that uses every core.
+     */
+    public BatchRenderer(OfflineRenderer renderer) {
+        this(renderer, Runtime.getRuntime().availableProcessors(), DEFAULT_ROWS_PER_TASK);
+    }
+
+    /**
+     * Constructs a batch renderer.
+     *
+     * @param renderer renders each task
+     * @param parallelism the number of tasks that render at once
+     * @param rowsPerTask jobs with more notes and velocities than this
+     *                    are split into several tasks by note range
+     */
+    public BatchRenderer(OfflineRenderer renderer, int parallelism, int rowsPerTask) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be one or more");
+        }
+        if (rowsPerTask < 1) {
+            throw new IllegalArgumentException("Rows per task must be one or more");
+        }
+        this.renderer = renderer;
+        this.parallelism = parallelism;
+        this.rowsPerTask = rowsPerTask;
+    }
+
+    /**
+     * Receives progress as tasks finish.
+     */
+    public interface ProgressListener {
+        /**
+         * Called on a worker thread when a task has finished.
+         *
+         * @param result the result of the task
+         * @param completed the number of tasks finished so far
+         * @param total the number of tasks in the batch
+         */
+        void taskFinished(Result result, int completed, int total);
+    }
+
+    /**
+     * The outcome of one task: a job, or a range of its notes.
+     */
+    public static class Result {
+        private final String jobName;
+        private final int fromNote;
+        private final int toNote;
+        private final List<Path> files;
+        private final long nanos;
+        private final Exception error;
+        private final boolean stale;
+
+        Result(String jobName, int fromNote, int toNote, List<Path> files, long nanos, Exception error,
+               boolean stale) {
+            this.jobName = jobName;
+            this.fromNote = fromNote;
+            this.toNote = toNote;
+            this.files = files;
+            this.nanos = nanos;
+            this.error = error;
+            this.stale = stale;
+        }
+
+        public String getJobName() {
+            return this.jobName;
+        }
+
+        /**
+         * Gets the first note rendered by the task.
+         */
+        public int getFromNote() {
+            return this.fromNote;
+        }
+
+        /**
+         * Gets the last note rendered by the task.
+         */
+        public int getToNote() {
+            return this.toNote;
+        }
+
+        /**
+         * Gets the files written, empty if the task failed.
+         */
+        public List<Path> getFiles() {
+            return this.files;
+        }
+
+        /**
+         * Gets how long the task took, in nanoseconds.
+         */
+        public long getNanos() {
+            return this.nanos;
+        }
+
+        /**
+         * Gets the error that made the task fail, or null.
+         */
+        public Exception getError() {
+            return this.error;
+        }
+
+        /**
+         * Checks whether the job was changed while it was rendered, so the
+         * files may no longer match it.
+         */
+        public boolean isStale() {
+            return this.stale;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s %d-%d: %s in %.1f ms%s", this.jobName, this.fromNote, this.toNote,
+                this.error == null ? this.files.size() + " files" : "failed (" + this.error.getMessage() + ")",
+                this.nanos / 1e6, this.stale ? ", job changed since" : "");
+        }
+    }
+
+    /**
+     * Renders jobs. A task that fails does not stop the others; its
+     * result carries the error.
+     *
+     * @param jobs snapshots of the jobs to render
+     * @param directory the directory for the WAV files
+     * @param listener receives progress, or null
+     * @return the results of all tasks, in job and note order
+     * @throws IllegalArgumentException if two notes would be written to
+     *         the same file, see {@link OfflineRenderer#checkFileNames}
+     */
+    public List<Result> render(List<JobSnapshot> jobs, Path directory, ProgressListener listener) {
+        // Checked before any task starts, as tasks writing one file at
+        // once would leave neither note in it
+        OfflineRenderer.checkFileNames(jobs);
+        List<Slice> slices = plan(jobs);
+        if (slices.isEmpty()) {
+            return List.of();
+        }
+        ForkJoinPool pool = new ForkJoinPool(this.parallelism);
+        try {
+            return pool.invoke(new SliceTask(slices, 0, slices.size(), directory, listener, new AtomicInteger()));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Cuts the jobs into slices of whole notes, at most rowsPerTask rows
+     * each unless a single note has more velocity layers than that.
+     */
+    private List<Slice> plan(List<JobSnapshot> jobs) {
+        List<Slice> slices = new ArrayList<>();
+        for (JobSnapshot job : jobs) {
+            NoteSchedule schedule = job.getSchedule();
+            if (schedule.size() == 0) {
+                continue;
+            }
+            int notesPerSlice = Math.max(1, this.rowsPerTask / schedule.getLayerCount());
+            for (int first = 0; first < schedule.getNoteCount(); first += notesPerSlice) {
+                int last = Math.min(first + notesPerSlice, schedule.getNoteCount());
+                slices.add(new Slice(job, schedule, first, last));
+            }
+        }
+        return slices;
+    }
+
+    /**
+     * A range of notes of one job, [firstNote, lastNote) by note index.
+     */
+    private static class Slice {
+        final JobSnapshot job;
+        final String jobName;
+        final NoteSchedule schedule;
+        final int firstNote;
+        final int lastNote;
+
+        Slice(JobSnapshot job, NoteSchedule schedule, int firstNote, int lastNote) {
+            this.job = job;
+            this.jobName = job.getName();
+            this.schedule = schedule;
+            this.firstNote = firstNote;
+            this.lastNote = lastNote;
+        }
+
+        int[] rows() {
+            int from = this.schedule.getFirstRow(this.firstNote);
+            int to = this.schedule.getFirstRow(this.lastNote);
+            int[] rows = new int[to - from];
+            for (int i = 0; i < rows.length; i++) {
+                rows[i] = from + i;
+            }
+            return rows;
+        }
+    }
+
+    @SuppressWarnings("serial")  // Only ever run in this process, never serialized
+    private class SliceTask extends RecursiveTask<List<Result>> {
+        private final List<Slice> slices;
+        private final int from;
+        private final int to;
+        private final Path directory;
+        private final ProgressListener listener;
+        private final AtomicInteger completed;
+
+        SliceTask(List<Slice> slices, int from, int to, Path directory,
+                  ProgressListener listener, AtomicInteger completed) {
+            this.slices = slices;
+            this.from = from;
+            this.to = to;
+            this.directory = directory;
+            this.listener = listener;
+            this.completed = completed;
+        }
+
+        @Override
+        protected List<Result> compute() {
+            if (this.to - this.from == 1) {
+                return List.of(renderSlice(this.slices.get(this.from)));
+            }
+            int middle = (this.from + this.to) >>> 1;
+            SliceTask left = new SliceTask(this.slices, this.from, middle, this.directory, this.listener, this.completed);
+            SliceTask right = new SliceTask(this.slices, middle, this.to, this.directory, this.listener, this.completed);
+            left.fork();
+            List<Result> results = new ArrayList<>(this.to - this.from);
+            List<Result> rightResults = right.compute();
+            results.addAll(left.join());
+            results.addAll(rightResults);
+            return results;
+        }
+
+        private Result renderSlice(Slice slice) {
+            long start = System.nanoTime();
+            int[] rows = slice.rows();
+            int fromNote = slice.schedule.getNote(rows[0]);
+            int toNote = slice.schedule.getNote(rows[rows.length - 1]);
+            Result result;
+            try {
+                List<Path> files = renderer.render(slice.jobName, slice.schedule, rows, this.directory);
+                result = new Result(slice.jobName, fromNote, toNote, files, System.nanoTime() - start, null,
+                                    slice.job.isStale());
+            } catch (Exception e) {
+                result = new Result(slice.jobName, fromNote, toNote, List.of(), System.nanoTime() - start, e,
+                                    slice.job.isStale());
+            }
+            if (this.listener != null) {
+                this.listener.taskFinished(result, this.completed.incrementAndGet(), this.slices.size());
+            }
+            return result;
+        }
+    }
+}
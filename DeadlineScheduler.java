@@ -0,0 +1,59 @@
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Waits for deadlines on the {@link System#nanoTime()} clock.
+ *
+ * Thread.sleep() can wake up milliseconds late. Instead, the waiting
+ * thread parks until shortly before the deadline and spins for the rest,
+ * which keeps it within microseconds of the deadline at the cost of a
+ * little CPU per event.
+ *
+ * Wait on platform threads. A virtual thread that spins keeps its
+ * carrier thread busy for up to the spin time, so other virtual threads
+ * waiting for deadlines of their own start late.
+ */
+public class DeadlineScheduler {
+    private static final long DEFAULT_SPIN_NANOS = 200_000;
+
+    private final long spinNanos;
+
+    public DeadlineScheduler() {
+        this(DEFAULT_SPIN_NANOS);
+    }
+
+    /**
+     * Constructs a scheduler.
+     *
+     * @param spinNanos how long before a deadline to stop parking and spin
+     */
+    public DeadlineScheduler(long spinNanos) {
+        if (spinNanos < 0) {
+            throw new IllegalArgumentException("Spin time must not be negative");
+        }
+        this.spinNanos = spinNanos;
+    }
+
+    /**
+     * Waits until a deadline.
+     *
+     * @param deadline the deadline, in System.nanoTime() nanoseconds
+     * @return how late the deadline was met, in nanoseconds
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public long awaitDeadline(long deadline) throws InterruptedException {
+        while (true) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return -remaining;
+            }
+            if (remaining > this.spinNanos) {
+                LockSupport.parkNanos(remaining - this.spinNanos);
+            } else {
+                Thread.onSpinWait();
+            }
+        }
+    }
+}
@@ -0,0 +1,687 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.zip.CRC32;
+
+/**
+ * Records every edit to the jobs, for undo and redo and to replay the
+ * edits after a crash.
+ *
+ * Each edit holds the value a field had before and after, so undoing
+ * and redoing only set values back and forth. Edits that follow each
+ * other on the same field, such as the steps of a slider drag or the
+ * keystrokes in a name, are merged into one until the journal is
+ * sealed or a second goes by.
+ *
+ * Edits, undos and redos are appended to a file as binary records:
+ *
+ * <pre>
+ * header   magic "MJNL", version u16, reserved u16
+ * record   payload length i32, CRC-32 of the payload i32, payload:
+ *          kind u8 (1 edit, 2 undo, 3 redo), job id (2 x i64),
+ *          field u8, row key i32, value before, value after
+ * value    i32 for numbers and intervals (in semitones),
+ *          u16 length and UTF-8 for names, cut to 65535 bytes,
+ *          i16 count (-1 for none) and one byte each for velocities
+ * </pre>
+ *
+ * The records are written by a background thread. It takes whatever
+ * has been queued, writes it with one call and forces it to disk once
+ * (group commit), so the thread making the edits never waits for the
+ * disk. When a journal is opened, the records it holds are applied
+ * again in order and the undo and redo history is rebuilt; a record
+ * cut short by a crash ends the replay.
+ *
+ * If a record cannot be written, the end of the file is unknown, so the
+ * journal stops writing records until a checkpoint has saved the jobs
+ * and emptied the file. Edits can still be undone meanwhile. Failures
+ * are reported to the {@link FailureListener}.
+ *
+ * Recording, undo and redo must be used from one thread.
+ */
+public class EditJournal implements AutoCloseable {
+    private static final int MAGIC = 0x4D4A4E4C;  // "MJNL"
+    private static final short VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final long MERGE_NANOS = 1_000_000_000L;
+    private static final int MAX_NAME_BYTES = 0xFFFF;
+
+    private static final byte EDIT = 1;
+    private static final byte UNDO = 2;
+    private static final byte REDO = 3;
+
+    // Queued for the writer besides records and checkpoints
+    private static final Object CLOSE = new Object();
+
+    /**
+     * The fields an edit can change.
+     */
+    public enum Field {
+        NAME, FROM_NOTE, TO_NOTE, INTERVAL, NOTE_DURATION, NOTE_DECAY, NOTE_GAP, VELOCITIES,
+        /** The velocities of one row of the notes table, by row key; none for the job's. */
+        NOTE_VELOCITIES,
+        SILENCE_THRESHOLD
+    }
+
+    /**
+     * Applies the values of edits being undone, redone or replayed.
+     */
+    public interface Target {
+        /**
+         * Sets a field of a job.
+         *
+         * @param jobId the job
+         * @param field the field
+         * @param key the row key, for note velocities
+         * @param value the value to set
+         */
+        void apply(UUID jobId, Field field, int key, Object value);
+    }
+
+    /**
+     * A change of one field of a job.
+     */
+    public static final class Edit {
+        private final UUID jobId;
+        private final Field field;
+        private final int key;
+        private final Object before;
+        private final Object after;
+
+        /**
+         * Constructs an edit. Names are strings, intervals are
+         * {@link Job.Interval}s, velocities are {@link VelocityProfile}s
+         * (or null for a row without its own), and the rest are integers.
+         */
+        public Edit(UUID jobId, Field field, int key, Object before, Object after) {
+            this.jobId = jobId;
+            this.field = field;
+            this.key = key;
+            this.before = before;
+            this.after = after;
+        }
+
+        public UUID getJobId() {
+            return this.jobId;
+        }
+
+        public Field getField() {
+            return this.field;
+        }
+
+        public int getKey() {
+            return this.key;
+        }
+
+        public Object getBefore() {
+            return this.before;
+        }
+
+        public Object getAfter() {
+            return this.after;
+        }
+
+        boolean sameTarget(Edit other) {
+            return this.jobId.equals(other.jobId) && this.field == other.field && this.key == other.key;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s %s: %s -> %s", this.jobId, this.field, this.before, this.after);
+        }
+    }
+
+    /**
+     * Saves the jobs for a checkpoint, on the writer thread.
+     */
+    public interface Save {
+        void save() throws IOException;
+    }
+
+    /**
+     * Hears of failures to write the journal or to save a checkpoint.
+     */
+    public interface FailureListener {
+        /**
+         * Called on the writer thread.
+         *
+         * @param message what failed and what it means for the edits
+         * @param error why it failed
+         */
+        void failed(String message, Exception error);
+    }
+
+    /**
+     * A record read from the file.
+     */
+    private static class Record {
+        final byte kind;
+        final Edit edit;
+
+        Record(byte kind, Edit edit) {
+            this.kind = kind;
+            this.edit = edit;
+        }
+    }
+
+    private final Target target;
+    private final Deque<Edit> undoStack = new ArrayDeque<>();
+    private final Deque<Edit> redoStack = new ArrayDeque<>();
+    private final BlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+    private final CompletableFuture<Void> closed = new CompletableFuture<>();
+    private final FileChannel channel;
+    private final Thread writer;
+    private final int replayed;
+    private Edit open;
+    private long openTime;
+    private boolean dirty;
+    private volatile IOException failure;
+    private volatile boolean checkpointFailed;
+    private volatile FailureListener failureListener = (message, error) ->
+        System.out.println(message + ": " + error.getMessage());
+
+    private EditJournal(FileChannel channel, Target target, int replayed) {
+        this.channel = channel;
+        this.target = target;
+        this.replayed = replayed;
+        this.writer = new Thread(this::runWriter, "edit-journal");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Opens a journal, creating it if needed, and replays the records it
+     * already holds.
+     *
+     * @param path the journal file
+     * @param target applies the replayed edits
+     * @return the journal, with the history of the replayed edits
+     */
+    public static EditJournal open(Path path, Target target) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            List<Record> records = new ArrayList<>();
+            long end = read(channel, records);
+            // Drop a record cut short by a crash, then append after the rest
+            channel.truncate(end);
+            channel.position(end);
+
+            EditJournal journal = new EditJournal(channel, target, records.size());
+            for (Record record : records) {
+                journal.replay(record.kind, record.edit);
+            }
+            return journal;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Gets the number of records replayed when the journal was opened.
+     */
+    public int getReplayedCount() {
+        return this.replayed;
+    }
+
+    /**
+     * Sets what hears of failures to write. By default they are printed.
+     */
+    public void setFailureListener(FailureListener listener) {
+        this.failureListener = listener;
+    }
+
+    /**
+     * Records an edit that has been made. It is merged with the edit
+     * before when that one changed the same field, a moment ago, and the
+     * journal has not been sealed since. Velocity edits are never merged.
+     */
+    public void record(Edit edit) {
+        long now = System.nanoTime();
+        if (this.open != null && this.open.sameTarget(edit) && now - this.openTime < MERGE_NANOS
+                && edit.field != Field.VELOCITIES && edit.field != Field.NOTE_VELOCITIES) {
+            this.open = new Edit(edit.jobId, edit.field, edit.key, this.open.before, edit.after);
+        } else {
+            seal();
+            this.open = edit;
+        }
+        this.openTime = now;
+        this.redoStack.clear();
+    }
+
+    /**
+     * Ends merging: the last edit goes into the history and the file, and
+     * the next edit starts a new one. Called when a slider drag ends.
+     */
+    public void seal() {
+        Edit edit = this.open;
+        this.open = null;
+        if (edit != null && !Objects.equals(edit.before, edit.after)) {
+            this.undoStack.push(edit);
+            write(EDIT, edit);
+        }
+    }
+
+    public boolean canUndo() {
+        return this.open != null || !this.undoStack.isEmpty();
+    }
+
+    public boolean canRedo() {
+        return !this.redoStack.isEmpty();
+    }
+
+    /**
+     * Undoes the last edit that has not been undone.
+     *
+     * @return false if there was nothing to undo
+     */
+    public boolean undo() {
+        seal();
+        Edit edit = this.undoStack.poll();
+        if (edit == null) {
+            return false;
+        }
+        this.redoStack.push(edit);
+        write(UNDO, edit);
+        this.target.apply(edit.jobId, edit.field, edit.key, edit.before);
+        return true;
+    }
+
+    /**
+     * Redoes the last edit undone.
+     *
+     * @return false if there was nothing to redo
+     */
+    public boolean redo() {
+        seal();
+        Edit edit = this.redoStack.poll();
+        if (edit == null) {
+            return false;
+        }
+        this.undoStack.push(edit);
+        write(REDO, edit);
+        this.target.apply(edit.jobId, edit.field, edit.key, edit.after);
+        return true;
+    }
+
+    /**
+     * Forgets the edits that can be undone or redone, as when all jobs
+     * are replaced.
+     */
+    public void clearHistory() {
+        this.open = null;
+        this.undoStack.clear();
+        this.redoStack.clear();
+    }
+
+    /**
+     * Checks whether anything has been written since the journal was
+     * opened or the last checkpoint, or the last checkpoint or write
+     * failed.
+     */
+    public boolean isDirty() {
+        return this.dirty || this.open != null || this.checkpointFailed || this.failure != null;
+    }
+
+    /**
+     * Saves the jobs elsewhere and empties the file, both on the writer
+     * thread once everything recorded before has been written, so the
+     * thread making the edits never waits for the save. If the save
+     * fails, the file is kept and the journal stays dirty. The undo
+     * history is kept. After a write failed, a checkpoint that works
+     * starts the journal again.
+     *
+     * Edits recorded while the save runs are written after it, and may
+     * be in the saved jobs too; replaying them sets the same values again.
+     *
+     * @param save saves the jobs as they are when it runs
+     */
+    public void checkpoint(Save save) {
+        seal();
+        this.dirty = false;
+        this.queue.add(save);
+    }
+
+    /**
+     * Writes the last edit and everything queued, and stops the writer.
+     */
+    @Override
+    public void close() throws IOException {
+        seal();
+        this.queue.add(CLOSE);
+        try {
+            this.closed.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while closing the journal", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Could not write the journal", e.getCause());
+        }
+    }
+
+    private void replay(byte kind, Edit edit) {
+        if (kind == EDIT) {
+            this.undoStack.push(edit);
+            this.redoStack.clear();
+            this.target.apply(edit.jobId, edit.field, edit.key, edit.after);
+        } else if (kind == UNDO) {
+            // Undos of edits from before the last checkpoint are not in the history
+            removeFirst(this.undoStack, edit);
+            this.redoStack.push(edit);
+            this.target.apply(edit.jobId, edit.field, edit.key, edit.before);
+        } else {
+            removeFirst(this.redoStack, edit);
+            this.undoStack.push(edit);
+            this.target.apply(edit.jobId, edit.field, edit.key, edit.after);
+        }
+    }
+
+    private static void removeFirst(Deque<Edit> stack, Edit edit) {
+        Edit top = stack.peek();
+        if (top != null && top.sameTarget(edit) && Objects.equals(top.before, edit.before)
+                && Objects.equals(top.after, edit.after)) {
+            stack.pop();
+        }
+    }
+
+    private void write(byte kind, Edit edit) {
+        this.dirty = true;
+        // Not queued while writing is stopped; the next checkpoint saves the edit
+        if (this.failure == null) {
+            this.queue.add(encode(kind, edit));
+        }
+    }
+
+    private void runWriter() {
+        List<Object> batch = new ArrayList<>();
+        List<ByteBuffer> records = new ArrayList<>();
+        try {
+            writeHeaderIfEmpty();
+        } catch (IOException e) {
+            fail(e);
+        }
+        while (true) {
+            try {
+                batch.add(this.queue.take());
+            } catch (InterruptedException e) {
+                this.closed.completeExceptionally(e);
+                return;
+            }
+            this.queue.drainTo(batch);
+            for (Object item : batch) {
+                if (item instanceof ByteBuffer record) {
+                    // Queued before writing stopped
+                    if (this.failure == null) {
+                        records.add(record);
+                    }
+                    continue;
+                }
+                commit(records, false);
+                if (item instanceof Save save) {
+                    runCheckpoint(save);
+                } else if (item == CLOSE) {
+                    close(records);
+                    return;
+                }
+            }
+            commit(records, true);
+            batch.clear();
+        }
+    }
+
+    private void runCheckpoint(Save save) {
+        try {
+            save.save();
+        } catch (IOException | RuntimeException e) {
+            // Keep the edits since the last checkpoint that worked
+            this.checkpointFailed = true;
+            this.failureListener.failed("Could not save the jobs for recovery", e);
+            return;
+        }
+        this.checkpointFailed = false;
+        try {
+            this.channel.truncate(HEADER_SIZE);
+            writeHeaderIfEmpty();
+            this.channel.position(HEADER_SIZE);
+            this.channel.force(false);
+            // The saved jobs hold every edit so far, so records can follow again
+            this.failure = null;
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Writes records, and forces them to disk when asked to.
+     */
+    private void commit(List<ByteBuffer> records, boolean force) {
+        if (this.failure != null) {
+            records.clear();
+            return;
+        }
+        try {
+            if (!records.isEmpty()) {
+                ByteBuffer[] buffers = records.toArray(new ByteBuffer[0]);
+                long remaining = 0;
+                for (ByteBuffer buffer : buffers) {
+                    remaining += buffer.remaining();
+                }
+                while (remaining > 0) {
+                    remaining -= this.channel.write(buffers);
+                }
+            }
+            if (force) {
+                this.channel.force(false);
+            }
+        } catch (IOException e) {
+            fail(e);
+        } finally {
+            records.clear();
+        }
+    }
+
+    private void close(List<ByteBuffer> records) {
+        commit(records, true);
+        try {
+            this.channel.close();
+        } catch (IOException e) {
+            fail(e);
+        }
+        IOException error = this.failure;
+        if (error != null) {
+            this.closed.completeExceptionally(error);
+        } else {
+            this.closed.complete(null);
+        }
+    }
+
+    /**
+     * Stops writing records until the next checkpoint that works.
+     */
+    private void fail(IOException e) {
+        boolean first = this.failure == null;
+        this.failure = e;
+        if (first) {
+            this.failureListener.failed("Could not write the edit journal; edits are not kept for recovery"
+                + " until the jobs are saved again", e);
+        }
+    }
+
+    private void writeHeaderIfEmpty() throws IOException {
+        if (this.channel.size() >= HEADER_SIZE) {
+            return;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putShort(VERSION).putShort((short) 0).flip();
+        this.channel.truncate(0);
+        this.channel.position(0);
+        while (header.hasRemaining()) {
+            this.channel.write(header);
+        }
+    }
+
+    /**
+     * Reads the valid records of a journal.
+     *
+     * @return the end of the last valid record
+     */
+    private static long read(FileChannel channel, List<Record> records) throws IOException {
+        long size = channel.size();
+        if (size < HEADER_SIZE) {
+            return 0;
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Journal is too large");
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) size);
+        while (buffer.hasRemaining() && channel.read(buffer, buffer.position()) >= 0) {
+            // Read it all
+        }
+        buffer.flip();
+        if (buffer.getInt() != MAGIC || buffer.getShort() != VERSION) {
+            throw new IOException("Not an edit journal");
+        }
+        buffer.getShort();
+
+        long end = HEADER_SIZE;
+        CRC32 crc = new CRC32();
+        while (buffer.remaining() >= 8) {
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (length <= 0 || length > buffer.remaining()) {
+                break;
+            }
+            ByteBuffer payload = buffer.slice(buffer.position(), length);
+            crc.reset();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            try {
+                byte kind = payload.get();
+                if (kind < EDIT || kind > REDO) {
+                    break;
+                }
+                records.add(new Record(kind, decodeEdit(payload)));
+            } catch (RuntimeException e) {
+                break;
+            }
+            buffer.position(buffer.position() + length);
+            end = buffer.position();
+        }
+        return end;
+    }
+
+    private static ByteBuffer encode(byte kind, Edit edit) {
+        ByteBuffer payload = ByteBuffer.allocate(64 + size(edit.before) + size(edit.after));
+        payload.put(kind);
+        payload.putLong(edit.jobId.getMostSignificantBits()).putLong(edit.jobId.getLeastSignificantBits());
+        payload.put((byte) edit.field.ordinal());
+        payload.putInt(edit.key);
+        putValue(payload, edit.field, edit.before);
+        putValue(payload, edit.field, edit.after);
+        payload.flip();
+
+        CRC32 crc = new CRC32();
+        crc.update(payload.duplicate());
+        ByteBuffer record = ByteBuffer.allocate(8 + payload.remaining());
+        record.putInt(payload.remaining()).putInt((int) crc.getValue()).put(payload).flip();
+        return record;
+    }
+
+    private static Edit decodeEdit(ByteBuffer payload) {
+        UUID jobId = new UUID(payload.getLong(), payload.getLong());
+        Field field = Field.values()[payload.get()];
+        int key = payload.getInt();
+        Object before = getValue(payload, field);
+        Object after = getValue(payload, field);
+        return new Edit(jobId, field, key, before, after);
+    }
+
+    private static int size(Object value) {
+        if (value instanceof String name) {
+            return (int) Math.min(name.length() * 3L, MAX_NAME_BYTES);
+        }
+        return value instanceof VelocityProfile profile ? profile.size() : 0;
+    }
+
+    private static void putValue(ByteBuffer buffer, Field field, Object value) {
+        switch (field) {
+            case NAME:
+                ByteBuffer name = encodeName((String) value);
+                buffer.putShort((short) name.remaining()).put(name);
+                break;
+            case INTERVAL:
+                buffer.putInt(((Job.Interval) value).getValue());
+                break;
+            case VELOCITIES:
+            case NOTE_VELOCITIES:
+                VelocityProfile profile = (VelocityProfile) value;
+                if (profile == null) {
+                    buffer.putShort((short) -1);
+                    break;
+                }
+                buffer.putShort((short) profile.size());
+                for (int i = 0; i < profile.size(); i++) {
+                    buffer.put((byte) profile.get(i));
+                }
+                break;
+            default:
+                buffer.putInt((Integer) value);
+        }
+    }
+
+    /**
+     * Encodes a name in UTF-8, cut at the last whole character that fits
+     * its length field, so a longer name cannot garble the record.
+     */
+    private static ByteBuffer encodeName(String name) {
+        ByteBuffer bytes = ByteBuffer.allocate(size(name));
+        CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        encoder.encode(CharBuffer.wrap(name), bytes, true);
+        return bytes.flip();
+    }
+
+    private static Object getValue(ByteBuffer buffer, Field field) {
+        switch (field) {
+            case NAME:
+                byte[] name = new byte[Short.toUnsignedInt(buffer.getShort())];
+                buffer.get(name);
+                return new String(name, StandardCharsets.UTF_8);
+            case INTERVAL:
+                return Job.Interval.fromValue(buffer.getInt());
+            case VELOCITIES:
+            case NOTE_VELOCITIES:
+                int count = buffer.getShort();
+                if (count < 0) {
+                    return null;
+                }
+                int[] velocities = new int[count];
+                for (int i = 0; i < count; i++) {
+                    velocities[i] = buffer.get();
+                }
+                return VelocityProfile.of(velocities);
+            default:
+                return buffer.getInt();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+import javafx.animation.AnimationTimer;
+
+/**
+ * Coalesces editor updates to at most one per JavaFX pulse.
+ *
+ * Listeners change the model right away and only request an update.
+ * The first request of a pulse starts a timer; when the pulse comes,
+ * the update runs once for every request made since, and the timer
+ * stops again so an idle editor costs nothing.
+ *
+ * Must only be used from the JavaFX application thread.
+ */
+public class EditScheduler {
+    private final Runnable update;
+    private final AnimationTimer timer;
+    private boolean dirty;
+    private long requestCount;
+    private long updateCount;
+    private long requestsAtUpdate;
+
+    /**
+     * Constructs a scheduler.
+     *
+     * @param update the update to run, at most once per pulse
+     */
+    public EditScheduler(Runnable update) {
+        this.update = update;
+        this.timer = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                flush();
+            }
+        };
+    }
+
+    /**
+     * Requests an update on the next pulse.
+     */
+    public void requestUpdate() {
+        this.requestCount++;
+        if (!this.dirty) {
+            this.dirty = true;
+            this.timer.start();
+        }
+    }
+
+    /**
+     * Runs a pending update right away instead of waiting for the pulse.
+     */
+    public void flush() {
+        this.timer.stop();
+        if (this.dirty) {
+            EditorEvents.EditUpdate event = new EditorEvents.EditUpdate();
+            event.begin();
+            long start = System.nanoTime();
+            long edits = this.requestCount - this.requestsAtUpdate;
+            this.requestsAtUpdate = this.requestCount;
+            this.dirty = false;
+            this.updateCount++;
+            this.update.run();
+            Metrics.EDIT_UPDATE.record(System.nanoTime() - start, edits);
+            event.edits = edits;
+            event.commit();
+        }
+    }
+
+    /**
+     * Gets the number of updates requested.
+     */
+    public long getRequestCount() {
+        return this.requestCount;
+    }
+
+    /**
+     * Gets the number of updates actually run.
+     */
+    public long getUpdateCount() {
+        return this.updateCount;
+    }
+
+    /**
+     * Gets the number of requests that were merged into an update
+     * that was already pending.
+     */
+    public long getMergedCount() {
+        return this.requestCount - this.updateCount - (this.dirty ? 1 : 0);
+    }
+}
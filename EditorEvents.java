@@ -0,0 +1,163 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight recorder events for the hot paths of the editor and the
+ * engines. They cost next to nothing unless a recording is running:
+ *
+ * <pre>
+ * java -XX:StartFlightRecording:filename=editor.jfr ... Main
+ * jfr print --categories "Musical Job Editor" editor.jfr
+ * </pre>
+ *
+ * The same paths add to the totals in {@link Metrics}.
+ */
+public final class EditorEvents {
+    private static final String CATEGORY = "Musical Job Editor";
+
+    private EditorEvents() {
+    }
+
+    @Name("musicaljobeditor.Schedule")
+    @Label("Schedule")
+    @Description("The schedule of a job was worked out")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static class Schedule extends Event {
+        @Label("Notes")
+        int notes;
+
+        @Label("Layers")
+        int layers;
+
+        @Label("Rows")
+        int rows;
+    }
+
+    @Name("musicaljobeditor.JobNotes")
+    @Label("Job Notes")
+    @Description("A list of notes was made from a job")
+    @Category(CATEGORY)
+    public static class JobNotes extends Event {
+        @Label("Job")
+        String job;
+
+        @Label("Notes")
+        int notes;
+    }
+
+    @Name("musicaljobeditor.NotesTableRefresh")
+    @Label("Notes Table Refresh")
+    @Description("The rows of the notes table were laid out again")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static class NotesTableRefresh extends Event {
+        @Label("Job")
+        String job;
+
+        @Label("Rows")
+        int rows;
+
+        @Label("Expanded")
+        boolean expanded;
+    }
+
+    @Name("musicaljobeditor.EditUpdate")
+    @Label("Edit Update")
+    @Description("The editor was brought up to date with the edits of a pulse")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static class EditUpdate extends Event {
+        @Label("Edits")
+        @Description("The update requests merged into this update")
+        long edits;
+    }
+
+    @Name("musicaljobeditor.TimelineTile")
+    @Label("Timeline Tile")
+    @Description("A tile of the timeline was drawn")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static class TimelineTile extends Event {
+        @Label("Milliseconds per Pixel")
+        double millisPerPixel;
+
+        @Label("Index")
+        long index;
+
+        @Label("Rows")
+        int rows;
+    }
+
+    @Name("musicaljobeditor.Validation")
+    @Label("Validation")
+    @Description("Jobs that changed were checked for problems")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static class Validation extends Event {
+        @Label("Jobs")
+        int jobs;
+
+        @Label("Jobs with Problems")
+        int problems;
+    }
+
+    @Name("musicaljobeditor.Render")
+    @Label("Render")
+    @Description("Notes of a job were rendered to WAV files")
+    @Category(CATEGORY)
+    public static class Render extends Event {
+        @Label("Job")
+        String job;
+
+        @Label("Notes")
+        int notes;
+
+        @Label("Cached")
+        @Description("The notes copied from the render cache")
+        int cached;
+    }
+
+    @Name("musicaljobeditor.MidiExport")
+    @Label("MIDI Export")
+    @Description("Jobs were exported to a MIDI file")
+    @Category(CATEGORY)
+    public static class MidiExport extends Event {
+        @Label("Jobs")
+        int jobs;
+
+        @Label("Notes")
+        int notes;
+
+        @Label("Size")
+        @DataAmount
+        long bytes;
+    }
+
+    @Name("musicaljobeditor.Playback")
+    @Label("Playback")
+    @Description("A job was played, with how late its events were sent")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static class Playback extends Event {
+        @Label("Job")
+        String job;
+
+        @Label("Events")
+        long events;
+
+        @Label("Mean Lateness")
+        @Timespan(Timespan.NANOSECONDS)
+        long meanLateness;
+
+        @Label("Max Lateness")
+        @Timespan(Timespan.NANOSECONDS)
+        long maxLateness;
+    }
+}
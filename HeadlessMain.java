@@ -0,0 +1,283 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs the editor's batch work from the command line, without a display.
+ *
+ * Nothing here touches JavaFX: jobs are loaded from libraries and handed
+ * to the exporter and renderers, which work from each job's
+ * {@link NoteSchedule}. {@link Note}, which is built on JavaFX
+ * properties, is never loaded, so the JavaFX toolkit neither starts nor
+ * has to be on the class path.
+ *
+ * <pre>
+ * validate library...                     check the jobs of libraries
+ * export library... --out file.mid        export the jobs as one MIDI file
+ * render library... --out directory       render the jobs to WAV files
+ *        [--parallelism n] [--cache directory] [--cache-size megabytes]
+ * plan library... [--channels n]          plan a session with overlapping
+ *        [--out file.csv|file.mid]        notes and report its length
+ * postprocess library... --out directory  trim and measure the rendered
+ *        [--normalize] [--parallelism n]  samples in place
+ * </pre>
+ *
+ * Post-processing runs on the Vector API when the JVM is started with
+ * {@code --add-modules jdk.incubator.vector}, and one sample at a time
+ * otherwise.
+ *
+ * The exit status is 0 on success, 1 if a job is invalid or fails, and
+ * 2 for a bad command line.
+ */
+public class HeadlessMain {
+    private static final int EXIT_FAILED = 1;
+    private static final int EXIT_USAGE = 2;
+    private static final long DEFAULT_CACHE_MEGABYTES = 2048;
+
+    public static void main(String[] args) {
+        System.exit(run(args));
+    }
+
+    /**
+     * Runs a command.
+     *
+     * @param args the command and its arguments
+     * @return the exit status
+     */
+    public static int run(String[] args) {
+        if (args.length == 0) {
+            return usage("No command given");
+        }
+        if (!List.of("validate", "export", "render", "plan", "postprocess").contains(args[0])) {
+            return usage("Unknown command: " + args[0]);
+        }
+        Options options;
+        try {
+            options = new Options(args);
+        } catch (IllegalArgumentException e) {
+            return usage(e.getMessage());
+        }
+        try {
+            switch (args[0]) {
+                case "validate":
+                    return validate(options);
+                case "export":
+                    return export(options);
+                case "plan":
+                    return plan(options);
+                case "postprocess":
+                    return postProcess(options);
+                default:
+                    return render(options);
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Error: " + e.getMessage());
+            return EXIT_FAILED;
+        }
+    }
+
+    private static int validate(Options options) throws IOException {
+        int jobs = 0;
+        int invalid = 0;
+        int warnings = 0;
+        for (Path path : options.libraries) {
+            JobLibrary library = JobLibrary.open(path);
+            for (int i = 0; i < library.size(); i++) {
+                jobs++;
+                List<String> errors = new ArrayList<>();
+                try {
+                    for (JobValidator.Problem problem : JobValidator.check(library.load(i).snapshot())) {
+                        if (problem.getSeverity() == JobValidator.Severity.ERROR) {
+                            errors.add(problem.getMessage());
+                        } else {
+                            warnings++;
+                            System.out.printf("%s: job %d (%s): warning: %s%n", path, i, library.getName(i),
+                                problem.getMessage());
+                        }
+                    }
+                } catch (IllegalArgumentException e) {
+                    errors.add(e.getMessage());
+                }
+                if (!errors.isEmpty()) {
+                    invalid++;
+                    for (String error : errors) {
+                        System.out.printf("%s: job %d (%s): %s%n", path, i, library.getName(i), error);
+                    }
+                }
+            }
+        }
+        System.out.printf("%d jobs, %d invalid, %d warnings%n", jobs, invalid, warnings);
+        return invalid == 0 ? 0 : EXIT_FAILED;
+    }
+
+    private static int export(Options options) throws IOException {
+        List<Job> jobs = loadAll(options.libraries);
+        new MidiExporter().export(jobs, options.out);
+        System.out.printf("Exported %d jobs to %s%n", jobs.size(), options.out);
+        return 0;
+    }
+
+    private static int plan(Options options) throws IOException {
+        List<Job> jobs = loadAll(options.libraries);
+        SessionPlanner.Plan plan = new SessionPlanner(options.channels).plan(jobs);
+        System.out.printf("%d jobs, %d notes%n", jobs.size(), plan.size());
+        System.out.printf("One after another: %s%n", SessionPlanner.formatTime(plan.getSequentialTime()));
+        System.out.printf("On %d channels:     %s%n", plan.getChannels(),
+            SessionPlanner.formatTime(plan.getTotalTime()));
+        if (options.out != null) {
+            if (options.out.getFileName().toString().toLowerCase().endsWith(".mid")) {
+                new MidiExporter().exportPlan(plan, options.out);
+            } else {
+                plan.writeCsv(options.out);
+            }
+            System.out.printf("Wrote the plan to %s%n", options.out);
+        }
+        return 0;
+    }
+
+    private static int render(Options options) throws IOException {
+        RenderCache cache = options.cache != null
+            ? new RenderCache(options.cache, options.cacheMegabytes * 1024 * 1024)
+            : null;
+        OfflineRenderer renderer = new OfflineRenderer(OfflineRenderer.DEFAULT_SAMPLE_RATE, 0, cache);
+        BatchRenderer batch = options.parallelism > 0
+            ? new BatchRenderer(renderer, options.parallelism, BatchRenderer.DEFAULT_ROWS_PER_TASK)
+            : new BatchRenderer(renderer);
+
+        List<Job> jobs = loadAll(options.libraries);
+        long start = System.nanoTime();
+        List<JobSnapshot> snapshots = jobs.stream().map(Job::snapshot).toList();
+        List<BatchRenderer.Result> results = batch.render(snapshots, options.out, (result, completed, total) ->
+            System.out.printf("[%d/%d] %s%n", completed, total, result));
+
+        int files = 0;
+        int failed = 0;
+        for (BatchRenderer.Result result : results) {
+            files += result.getFiles().size();
+            if (result.getError() != null) {
+                failed++;
+            }
+        }
+        System.out.printf("Rendered %d jobs to %d files in %.1f s, %d of %d tasks failed%n",
+            jobs.size(), files, (System.nanoTime() - start) / 1e9, failed, results.size());
+        if (cache != null) {
+            System.out.printf("Cache: %d hits, %d misses%n", cache.getHits(), cache.getMisses());
+        }
+        return failed == 0 ? 0 : EXIT_FAILED;
+    }
+
+    private static int postProcess(Options options) throws IOException {
+        SamplePostProcessor processor = options.parallelism > 0
+            ? new SamplePostProcessor(options.parallelism, SamplePostProcessor.DEFAULT_TARGET_PEAK)
+            : new SamplePostProcessor();
+        List<Job> jobs = loadAll(options.libraries);
+        long start = System.nanoTime();
+        int samples = 0;
+        int failed = 0;
+        for (Job job : jobs) {
+            for (SamplePostProcessor.Result result : processor.process(job.snapshot(), options.out, options.normalize)) {
+                System.out.println(result);
+                samples++;
+                if (result.getError() != null) {
+                    failed++;
+                }
+            }
+        }
+        System.out.printf("Processed %d samples of %d jobs in %.1f s (%s), %d failed%n", samples, jobs.size(),
+            (System.nanoTime() - start) / 1e9, processor.getKernelName(), failed);
+        return failed == 0 ? 0 : EXIT_FAILED;
+    }
+
+    private static List<Job> loadAll(List<Path> libraries) throws IOException {
+        List<Job> jobs = new ArrayList<>();
+        for (Path path : libraries) {
+            jobs.addAll(JobLibrary.open(path).asList());
+        }
+        return jobs;
+    }
+
+    private static int usage(String message) {
+        System.err.println(message);
+        System.err.println("Usage: HeadlessMain validate library...");
+        System.err.println("       HeadlessMain export library... --out file.mid");
+        System.err.println("       HeadlessMain render library... --out directory [--parallelism n]");
+        System.err.println("                    [--cache directory] [--cache-size megabytes]");
+        System.err.println("       HeadlessMain plan library... [--channels n] [--out file.csv|file.mid]");
+        System.err.println("       HeadlessMain postprocess library... --out directory [--normalize]");
+        System.err.println("                    [--parallelism n]");
+        return EXIT_USAGE;
+    }
+
+    /**
+     * The arguments after the command: library files and options.
+     */
+    private static class Options {
+        final List<Path> libraries = new ArrayList<>();
+        Path out;
+        Path cache;
+        long cacheMegabytes = DEFAULT_CACHE_MEGABYTES;
+        int parallelism;
+        int channels = SessionPlanner.DEFAULT_CHANNELS;
+        boolean normalize;
+
+        Options(String[] args) {
+            for (int i = 1; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--out":
+                        this.out = Path.of(value(args, ++i));
+                        break;
+                    case "--cache":
+                        this.cache = Path.of(value(args, ++i));
+                        break;
+                    case "--cache-size":
+                        this.cacheMegabytes = positive(args, ++i);
+                        break;
+                    case "--normalize":
+                        this.normalize = true;
+                        break;
+                    case "--parallelism":
+                        this.parallelism = (int) positive(args, ++i);
+                        break;
+                    case "--channels":
+                        long channels = positive(args, ++i);
+                        if (channels > SessionPlanner.MAX_CHANNELS) {
+                            throw new IllegalArgumentException("--channels needs 1..." + SessionPlanner.MAX_CHANNELS);
+                        }
+                        this.channels = (int) channels;
+                        break;
+                    default:
+                        if (args[i].startsWith("--")) {
+                            throw new IllegalArgumentException("Unknown option: " + args[i]);
+                        }
+                        this.libraries.add(Path.of(args[i]));
+                }
+            }
+            if (this.libraries.isEmpty()) {
+                throw new IllegalArgumentException("No library given");
+            }
+            if (this.out == null && !args[0].equals("validate") && !args[0].equals("plan")) {
+                throw new IllegalArgumentException("--out is required");
+            }
+        }
+
+        private static String value(String[] args, int i) {
+            if (i >= args.length) {
+                throw new IllegalArgumentException(args[i - 1] + " needs a value");
+            }
+            return args[i];
+        }
+
+        private static long positive(String[] args, int i) {
+            try {
+                long value = Long.parseLong(value(args, i));
+                if (value > 0) {
+                    return value;
+                }
+            } catch (NumberFormatException e) {
+                // Reported below
+            }
+            throw new IllegalArgumentException(args[i - 1] + " needs a positive number");
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/**
+ * Summarizes how late scheduled events were sent.
+ *
+ * Written by one playback thread and read by any other, so the
+ * methods are synchronized.
+ */
+public class JitterStats {
+    private long count;
+    private long totalNanos;
+    private long maxNanos;
+    private double sumOfSquares;
+
+    /**
+     * Records the lateness of one event.
+     *
+     * @param latenessNanos how late the event was sent, in nanoseconds
+     */
+    public synchronized void record(long latenessNanos) {
+        this.count++;
+        this.totalNanos += latenessNanos;
+        this.maxNanos = Math.max(this.maxNanos, latenessNanos);
+        this.sumOfSquares += (double) latenessNanos * latenessNanos;
+    }
+
+    public synchronized long getCount() {
+        return this.count;
+    }
+
+    /**
+     * Gets the mean lateness, in nanoseconds.
+     */
+    public synchronized double getMeanNanos() {
+        return this.count == 0 ? 0 : (double) this.totalNanos / this.count;
+    }
+
+    /**
+     * Gets the largest lateness, in nanoseconds.
+     */
+    public synchronized long getMaxNanos() {
+        return this.maxNanos;
+    }
+
+    /**
+     * Gets the root mean square of the lateness, in nanoseconds.
+     */
+    public synchronized double getRmsNanos() {
+        return this.count == 0 ? 0 : Math.sqrt(this.sumOfSquares / this.count);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d events, jitter mean %.1f us, rms %.1f us, max %.1f us",
+            this.count, getMeanNanos() / 1000, getRmsNanos() / 1000, this.maxNanos / 1000.0);
+    }
+}
@@ -1,3 +1,4 @@
+import java.lang.invoke.VarHandle;
 import java.util.UUID;
 import java.util.List;
 import java.util.ArrayList;
@@ -8,8 +9,8 @@ import java.util.Collections;
  */
 public class Job {
     private static final int DEFAULT_VELOCITY = 90; // example default velocity
-    private static final int DEFAULT_START_TIME = 0; // example default start time
-    private static final int DEFAULT_END_TIME = 1000;
+    public static final int DEFAULT_SILENCE_THRESHOLD = -60;  // dBFS
+    public static final int MIN_SILENCE_THRESHOLD = -120;
     private Interval selectedInterval;
 
     /**
@@ -27,14 +28,18 @@ public class Job {
         public int getValue() {
             return value;
         }
-    }
-
-    // Internal count of instances created.
-    // Used to construct the default name for the job.
-    private static int count = 1;
 
-    public Job() {
-        this("Job" + count, 1000, 500, 200);
+        /**
+         * Gets the interval of the given number of semitones.
+         */
+        public static Interval fromValue(int value) {
+            for (Interval interval : values()) {
+                if (interval.value == value) {
+                    return interval;
+                }
+            }
+            throw new IllegalArgumentException("No interval of " + value + " semitones");
+        }
     }
 
     public Job(String name) {
@@ -46,17 +51,24 @@ public class Job {
      * Constructs a job with default values.
      */
     public Job(String name, int noteDuration, int noteDecay, int noteGap) {
+        this(UUID.randomUUID(), name, noteDuration, noteDecay, noteGap);
+    }
+
+    /**
+     * Constructs a job with a known identifier, for example when
+     * loading it from a library.
+     */
+    public Job(UUID id, String name, int noteDuration, int noteDecay, int noteGap) {
         this.name = name;
-        this.id = UUID.randomUUID();
+        this.id = id;
         this.fromNote = 40;
         this.toNote = 120;
         this.interval = Interval.ONE;
         this.noteDuration = noteDuration;
         this.noteDecay = noteDecay;
         this.noteGap = noteGap;
-        this.velocities = new ArrayList<>();
-        this.velocities.add(DEFAULT_VELOCITY); // Default single velocity
-        count++;
+        this.velocities = VelocityProfile.of(DEFAULT_VELOCITY); // Default single velocity
+        this.silenceThreshold = DEFAULT_SILENCE_THRESHOLD;
     }
 
     /**
@@ -65,7 +77,9 @@ public class Job {
      * @param name the new name
      */
     public void setName(String name) {
+        beginChange();
         this.name = name;
+        endChange();
     }
 
     /**
@@ -96,7 +110,9 @@ public class Job {
         if (note < 0 || note > 127) {
             throw new IllegalArgumentException("Note must be 0...127");
         }
+        beginChange();
         this.fromNote = note;
+        endChange();
     }
 
     /**
@@ -113,7 +129,9 @@ public class Job {
         if (note < 0 || note > 127) {
             throw new IllegalArgumentException("Note must be 0...127");
         }
+        beginChange();
         this.toNote = note;
+        endChange();
     }
 
     /**
@@ -127,7 +145,9 @@ public class Job {
      * Sets the interval between the notes.
      */
     public void setInterval(Interval interval) {
+        beginChange();
         this.interval = interval;
+        endChange();
     }
 
     /**
@@ -149,7 +169,9 @@ public class Job {
             throw new IllegalArgumentException("Note duration must be positive");
         }
 
+        beginChange();
         this.noteDuration = duration;
+        endChange();
     }
 
     /**
@@ -171,7 +193,9 @@ public class Job {
             throw new IllegalArgumentException("Note decay time must be positive");
         }
 
+        beginChange();
         this.noteDecay = decay;
+        endChange();
     }
 
     /**
@@ -193,24 +217,122 @@ public class Job {
             throw new IllegalArgumentException("Note gap time must be positive");
         }
 
+        beginChange();
         this.noteGap = gap;
+        endChange();
+    }
+
+    /**
+     * Gets the level below which the end of a sample counts as silence
+     * and is trimmed.
+     *
+     * @return the threshold in dB below full scale
+     */
+    public int getSilenceThreshold() {
+        return this.silenceThreshold;
+    }
+
+    /**
+     * Sets the level below which the end of a sample counts as silence.
+     *
+     * @param threshold the threshold in dB below full scale, -120...0
+     */
+    public void setSilenceThreshold(int threshold) {
+        if (threshold < MIN_SILENCE_THRESHOLD || threshold > 0) {
+            throw new IllegalArgumentException("Silence threshold must be " + MIN_SILENCE_THRESHOLD + "...0 dB");
+        }
+
+        beginChange();
+        this.silenceThreshold = threshold;
+        endChange();
+    }
+
+    /**
+     * Gets the schedule of the job, with the start, release and end
+     * time of every note and velocity layer.
+     */
+    public NoteSchedule getSchedule() {
+        return new NoteSchedule(this);
+    }
+
+    /**
+     * Gets the version of the job, which changes with every change to
+     * the job.
+     */
+    public long getVersion() {
+        return this.version;
     }
 
+    /**
+     * Takes a consistent snapshot of the job. May be called from any
+     * thread while the job is being changed: if a change is made during
+     * the copy, the copy is taken again.
+     */
+    public JobSnapshot snapshot() {
+        while (true) {
+            long start = this.version;
+            if ((start & 1) == 0) {
+                String name = this.name;
+                int fromNote = this.fromNote;
+                int toNote = this.toNote;
+                Interval interval = this.interval;
+                int noteDuration = this.noteDuration;
+                int noteDecay = this.noteDecay;
+                int noteGap = this.noteGap;
+                int silenceThreshold = this.silenceThreshold;
+                VelocityProfile velocities = this.velocities;
+                // Finish the reads before checking that nothing changed
+                VarHandle.loadLoadFence();
+                if (this.version == start) {
+                    return new JobSnapshot(this, start, name, fromNote, toNote, interval,
+                                           noteDuration, noteDecay, noteGap, silenceThreshold, velocities);
+                }
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * Gets the notes of the job. Each note spans from the start of its
+     * first velocity layer to the end of its last one.
+     */
     public List<Note> getNotes() {
-        List<Note> notes = new ArrayList<>();
-        for (int i = this.fromNote; i <= this.toNote; i += this.interval.getValue()) {
-            notes.add(new Note(i, new ArrayList<>(this.velocities), DEFAULT_START_TIME, DEFAULT_END_TIME));
+        EditorEvents.JobNotes event = new EditorEvents.JobNotes();
+        event.begin();
+        long start = System.nanoTime();
+        JobSnapshot snapshot = snapshot();
+        NoteSchedule schedule = snapshot.getSchedule();
+        VelocityProfile layers = snapshot.getVelocities();  // Shared by all the notes
+        List<Note> notes = new ArrayList<>(schedule.getNoteCount());
+        int step = snapshot.getInterval().getValue();
+        for (int n = 0; n < schedule.getNoteCount(); n++) {
+            int note = snapshot.getFromNote() + n * step;
+            if (schedule.getLayerCount() == 0) {
+                notes.add(new Note(note, layers, 0, 0));
+                continue;
+            }
+            int first = schedule.getFirstRow(n);
+            int last = first + schedule.getLayerCount() - 1;
+            notes.add(new Note(note, layers, schedule.getStartTime(first), schedule.getEndTime(last)));
         }
+
+        Metrics.JOB_NOTES.record(System.nanoTime() - start, notes.size());
+        event.job = snapshot.getName();
+        event.notes = notes.size();
+        event.commit();
         return notes;
     }
 
 
     public List<Integer> getVelocities() {
-        List<Integer> clone = new ArrayList<Integer>(this.velocities.size());
-        for (Integer i : this.velocities) {
-            clone.add(i);
-        }
-        return clone;
+        return new ArrayList<Integer>(this.velocities.asList());
+    }
+
+    /**
+     * Gets the velocities as a shared, immutable profile.
+     */
+    public VelocityProfile getVelocityProfile() {
+        return this.velocities;
     }
 
     /**
@@ -224,16 +346,30 @@ public class Job {
             throw new IllegalArgumentException("Velocity must be 1...127");
         }
 
-        this.velocities.clear();
-        this.velocities.add(v);
+        VelocityProfile profile = VelocityProfile.of(v);
+        beginChange();
+        this.velocities = profile;
+        endChange();
     }
 
+    /**
+     * Sets the velocities, one per layer.
+     *
+     * @param vs the velocities, each 1...127
+     */
     public void setSpecificVelocities(List<Integer> vs) {
-        this.velocities.clear();
-        this.velocities.addAll(vs);
+        VelocityProfile profile = VelocityProfile.of(vs);
+        beginChange();
+        this.velocities = profile;
+        endChange();
     }
-    
 
+    /**
+     * Sets velocities spread evenly from first to last, in count steps.
+     *
+     * @throws IllegalArgumentException if the range is too narrow for
+     *         the count, so the steps would be zero
+     */
     public void setDistributedVelocities(int first, int last, int count) {
         if (first <= 0) {
             throw new IllegalArgumentException("First velocity must be positive");
@@ -257,14 +393,24 @@ public class Job {
         List<Integer> result = new ArrayList<Integer>();
 
         int step = (last - first) / count;
-        //System.out.println("step = " + step);
+        if (step == 0 && first < last) {
+            // Would repeat the first velocity forever
+            throw new IllegalArgumentException("Count must be at most " + (last - first)
+                + " for velocities " + first + "..." + last);
+        }
+        if (step == 0) {
+            step = 1;  // A single velocity
+        }
         int vel = first;
         do {
             result.add(vel);
             vel += step;
         } while (vel <= last);
 
-        this.velocities = result;
+        VelocityProfile profile = VelocityProfile.of(result);
+        beginChange();
+        this.velocities = profile;
+        endChange();
     }
 
     public Interval getSelectedInterval() {
@@ -277,13 +423,28 @@ public class Job {
 
 
 
+    /**
+     * Marks the start of a change. The version is odd until the change
+     * ends, which tells snapshot() to wait. Changes to one job must not
+     * be made from two threads at once.
+     */
+    private void beginChange() {
+        this.version++;
+        // Keep the writes of the change after the odd version
+        VarHandle.storeStoreFence();
+    }
+
+    private void endChange() {
+        this.version++;
+    }
+
     /**
      * Gets a string representation of the job.
      */
     @Override
     public String toString() {
         StringBuilder velocitiesString = new StringBuilder();
-        for (int v : this.getVelocities()) {
+        for (int v : this.velocities.asList()) {
             velocitiesString.append(v);
             velocitiesString.append(" ");
         }
@@ -313,5 +474,7 @@ public class Job {
     private int noteDuration;  // milliseconds
     private int noteDecay;  // note decay time in ms
     private int noteGap;  // note gap time in ms
-    private List<Integer> velocities;  // note velocities
+    private int silenceThreshold;  // dBFS
+    private VelocityProfile velocities;  // note velocities
+    private volatile long version;  // odd while a change is being made
 }
\ No newline at end of file
@@ -0,0 +1,888 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Imports job definitions from CSV files or JSON lines, as exported
+ * from a spreadsheet.
+ *
+ * A CSV file starts with a header row naming its columns; in JSON lines
+ * every line is an object with the same names as keys. The names are
+ * matched ignoring case, spaces and punctuation, and unknown ones are
+ * ignored:
+ *
+ * <pre>
+ * name        required, not blank
+ * id          the job's UUID; a new one if missing
+ * fromNote    (or from) first note, 0...127
+ * toNote      (or to) last note, 0...127
+ * interval    1, 3, 6 or 12 semitones, or ONE, THREE, SIX or TWELVE
+ * duration, decay, gap   (or noteDuration...) milliseconds, positive
+ * threshold   (or silenceThreshold) dB below full scale, -120...0
+ * velocities  one velocity ("100"), one per layer ("40 80 120", or a
+ *             JSON array), or spread over a range ("20-120/8": first,
+ *             last and count, as in Job.setDistributedVelocities)
+ * </pre>
+ *
+ * Missing values keep the defaults of a new job. Each record is checked
+ * by the setters of {@link Job}, so it is held to the same rules as an
+ * edit; a record that breaks one is reported as an error with its line
+ * number and skipped, and the import goes on.
+ *
+ * The input is read from a channel through one buffer and decoded one
+ * record at a time, and valid jobs are handed on in batches, so the
+ * memory used does not grow with the size of the file. Records longer
+ * than {@value #MAX_RECORD_CHARS} characters are skipped, and only the
+ * first {@value #MAX_ERRORS} errors are kept.
+ */
+public class JobImporter {
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+    static final int MAX_RECORD_CHARS = 64 * 1024;
+    static final int MAX_ERRORS = 1000;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final Pattern RANGE = Pattern.compile("(\\d+)\\s*-\\s*(\\d+)\\s*/\\s*(\\d+)");
+    private static final Pattern LIST_SEPARATOR = Pattern.compile("[\\s,;]+");
+    private static final Job DEFAULTS = new Job("");
+
+    // Column names, without case and punctuation, and what they stand for
+    private static final Map<String, String> COLUMNS = Map.ofEntries(
+        Map.entry("name", "name"), Map.entry("id", "id"),
+        Map.entry("fromnote", "from"), Map.entry("from", "from"),
+        Map.entry("tonote", "to"), Map.entry("to", "to"),
+        Map.entry("interval", "interval"),
+        Map.entry("noteduration", "duration"), Map.entry("duration", "duration"),
+        Map.entry("notedecay", "decay"), Map.entry("decay", "decay"),
+        Map.entry("notegap", "gap"), Map.entry("gap", "gap"),
+        Map.entry("silencethreshold", "threshold"), Map.entry("threshold", "threshold"),
+        Map.entry("velocities", "velocities"), Map.entry("velocity", "velocities"));
+
+    private final int batchSize;
+
+    /**
+     * The formats that can be imported.
+     */
+    public enum Format {
+        /** Comma separated values with a header row, as in RFC 4180. */
+        CSV,
+        /** One JSON object per line. */
+        JSON_LINES;
+
+        /**
+         * Gets the format of a file from its extension: .jsonl, .ndjson
+         * and .json are JSON lines, anything else CSV.
+         */
+        public static Format of(Path path) {
+            String name = path.getFileName().toString().toLowerCase(Locale.ROOT);
+            if (name.endsWith(".jsonl") || name.endsWith(".ndjson") || name.endsWith(".json")) {
+                return JSON_LINES;
+            }
+            return CSV;
+        }
+    }
+
+    /**
+     * Receives the imported jobs.
+     */
+    public interface Sink {
+        /**
+         * Called on the importing thread with each batch of valid jobs.
+         *
+         * @param batch the jobs, in the order of the input; the list is
+         *        not used by the importer afterwards
+         * @param bytesRead how much of the input has been read so far
+         */
+        void accept(List<Job> batch, long bytesRead);
+    }
+
+    /**
+     * A record that could not be imported.
+     */
+    public static final class RowError {
+        private final long line;
+        private final String message;
+
+        RowError(long line, String message) {
+            this.line = line;
+            this.message = message;
+        }
+
+        /**
+         * Gets the line the record starts on, counting from 1.
+         */
+        public long getLine() {
+            return this.line;
+        }
+
+        public String getMessage() {
+            return this.message;
+        }
+
+        @Override
+        public String toString() {
+            return "Line " + this.line + ": " + this.message;
+        }
+    }
+
+    /**
+     * The outcome of an import.
+     */
+    public static final class Result {
+        private long records;
+        private long imported;
+        private long errorCount;
+        private long bytesRead;
+        private final List<RowError> errors = new ArrayList<>();
+
+        /**
+         * Gets the number of records read, not counting a header.
+         */
+        public long getRecords() {
+            return this.records;
+        }
+
+        /**
+         * Gets the number of jobs handed to the sink.
+         */
+        public long getImported() {
+            return this.imported;
+        }
+
+        /**
+         * Gets the number of records that could not be imported.
+         */
+        public long getErrorCount() {
+            return this.errorCount;
+        }
+
+        /**
+         * Gets the first {@value JobImporter#MAX_ERRORS} errors.
+         */
+        public List<RowError> getErrors() {
+            return Collections.unmodifiableList(this.errors);
+        }
+
+        public long getBytesRead() {
+            return this.bytesRead;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d of %d records imported, %d with errors", this.imported, this.records,
+                this.errorCount);
+        }
+    }
+
+    /**
+     * Constructs an importer that hands on jobs in batches of
+     * {@value #DEFAULT_BATCH_SIZE}.
+     */
+    public JobImporter() {
+        this(DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Constructs an importer.
+     *
+     * @param batchSize the number of jobs handed to the sink at a time
+     */
+    public JobImporter(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be one or more");
+        }
+        this.batchSize = batchSize;
+    }
+
+    public int getBatchSize() {
+        return this.batchSize;
+    }
+
+    /**
+     * Imports the jobs of a file, in the format its extension tells.
+     */
+    public Result importJobs(Path path, Sink sink) throws IOException {
+        try (FileChannel channel = FileChannel.open(path)) {
+            return importJobs(channel, Format.of(path), sink);
+        }
+    }
+
+    /**
+     * Imports jobs from a channel, which is read to the end but not closed.
+     *
+     * @throws IOException if the input cannot be read, or a CSV file has
+     *         no name column
+     */
+    public Result importJobs(ReadableByteChannel channel, Format format, Sink sink) throws IOException {
+        Session session = new Session(sink);
+        Parser parser = format == Format.CSV ? new CsvParser(session) : new JsonLinesParser(session);
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        // Heap buffers, which the decoder reads much faster than direct ones
+        ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+        // A byte decodes to at most one char, so the chars always fit
+        CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+
+        boolean end = false;
+        boolean first = true;
+        while (!end) {
+            int read = channel.read(bytes);
+            if (read < 0) {
+                end = true;
+            } else {
+                session.result.bytesRead += read;
+            }
+            bytes.flip();
+            decoder.decode(bytes, chars, end);
+            if (end) {
+                decoder.flush(chars);
+            }
+            bytes.compact();
+            chars.flip();
+            if (first && chars.hasRemaining()) {
+                first = false;
+                // Spreadsheets start UTF-8 files with a byte order mark
+                if (chars.get(chars.position()) == '\uFEFF') {
+                    chars.get();
+                }
+            }
+            parser.feed(chars);
+            chars.clear();
+        }
+        parser.finish();
+        session.flush();
+        return session.result;
+    }
+
+    /**
+     * The state of one import: the batch being filled and the result.
+     */
+    private final class Session {
+        final Sink sink;
+        final Result result = new Result();
+        List<Job> batch = new ArrayList<>();
+
+        Session(Sink sink) {
+            this.sink = sink;
+        }
+
+        void record(long line, Map<String, String> values) {
+            this.result.records++;
+            Job job;
+            try {
+                job = toJob(values);
+            } catch (IllegalArgumentException e) {
+                error(line, e.getMessage());
+                return;
+            }
+            this.batch.add(job);
+            if (this.batch.size() >= batchSize) {
+                flush();
+            }
+        }
+
+        /**
+         * Counts a record that could not even be read.
+         */
+        void reject(long line, String message) {
+            this.result.records++;
+            error(line, message);
+        }
+
+        void error(long line, String message) {
+            if (this.result.errors.size() < MAX_ERRORS) {
+                this.result.errors.add(new RowError(line, message));
+            }
+            this.result.errorCount++;
+        }
+
+        void flush() {
+            if (this.batch.isEmpty()) {
+                return;
+            }
+            List<Job> jobs = this.batch;
+            this.batch = new ArrayList<>(Math.min(batchSize, DEFAULT_BATCH_SIZE));
+            this.result.imported += jobs.size();
+            this.sink.accept(jobs, this.result.bytesRead);
+        }
+    }
+
+    /**
+     * Makes a job from the values of a record, through the setters that
+     * check edits.
+     *
+     * @param values the values by column
+     * @throws IllegalArgumentException if a value is not allowed
+     */
+    static Job toJob(Map<String, String> values) {
+        String name = values.get("name");
+        // An empty CSV cell is not stored, while JSON can give "" or blanks
+        if (name == null || name.isBlank()) {
+            throw new IllegalArgumentException("Name is missing");
+        }
+        String id = values.get("id");
+        Job job = new Job(id != null ? UUID.fromString(id) : UUID.randomUUID(), name,
+            DEFAULTS.getNoteDuration(), DEFAULTS.getNoteDecay(), DEFAULTS.getNoteGap());
+
+        if (values.containsKey("from")) {
+            job.setFromNote(integer(values, "from"));
+        }
+        if (values.containsKey("to")) {
+            job.setToNote(integer(values, "to"));
+        }
+        if (job.getFromNote() > job.getToNote()) {
+            throw new IllegalArgumentException("From note " + job.getFromNote() + " is above to note "
+                + job.getToNote());
+        }
+        if (values.containsKey("interval")) {
+            job.setInterval(interval(values.get("interval")));
+        }
+        if (values.containsKey("duration")) {
+            job.setNoteDuration(integer(values, "duration"));
+        }
+        if (values.containsKey("decay")) {
+            job.setNoteDecay(integer(values, "decay"));
+        }
+        if (values.containsKey("gap")) {
+            job.setNoteGap(integer(values, "gap"));
+        }
+        if (values.containsKey("threshold")) {
+            job.setSilenceThreshold(integer(values, "threshold"));
+        }
+        if (values.containsKey("velocities")) {
+            setVelocities(job, values.get("velocities"));
+        }
+        return job;
+    }
+
+    /**
+     * Gets the values of a job by column, as {@link #toJob} reads them.
+     */
+    static Map<String, String> toValues(JobSnapshot job) {
+        Map<String, String> values = new HashMap<>();
+        values.put("name", job.getName());
+        values.put("id", job.getId().toString());
+        values.put("from", Integer.toString(job.getFromNote()));
+        values.put("to", Integer.toString(job.getToNote()));
+        values.put("interval", job.getInterval().name());
+        values.put("duration", Integer.toString(job.getNoteDuration()));
+        values.put("decay", Integer.toString(job.getNoteDecay()));
+        values.put("gap", Integer.toString(job.getNoteGap()));
+        values.put("threshold", Integer.toString(job.getSilenceThreshold()));
+        if (job.getVelocities().isEmpty()) {
+            return values;
+        }
+        StringBuilder velocities = new StringBuilder();
+        for (int i = 0; i < job.getVelocities().size(); i++) {
+            if (i > 0) {
+                velocities.append(' ');
+            }
+            velocities.append(job.getVelocities().get(i));
+        }
+        values.put("velocities", velocities.toString());
+        return values;
+    }
+
+    private static void setVelocities(Job job, String value) {
+        Matcher range = RANGE.matcher(value);
+        if (value.indexOf('/') >= 0 && range.matches()) {
+            job.setDistributedVelocities(number(range.group(1), "velocities"), number(range.group(2), "velocities"),
+                number(range.group(3), "velocities"));
+            return;
+        }
+        String[] parts = LIST_SEPARATOR.split(value);
+        if (parts.length == 1) {
+            job.setVelocity(number(parts[0], "velocities"));
+            return;
+        }
+        List<Integer> velocities = new ArrayList<>(parts.length);
+        for (String part : parts) {
+            velocities.add(number(part, "velocities"));
+        }
+        job.setSpecificVelocities(velocities);
+    }
+
+    private static Job.Interval interval(String value) {
+        try {
+            return Job.Interval.valueOf(value.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return Job.Interval.fromValue(number(value, "interval"));
+        }
+    }
+
+    private static int integer(Map<String, String> values, String column) {
+        return number(values.get(column), column);
+    }
+
+    private static int number(String value, String column) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(column + " is not a whole number: " + value);
+        }
+    }
+
+    /**
+     * Gets the column a name stands for.
+     *
+     * @return the column, or null if the name is not known
+     */
+    static String column(String name) {
+        StringBuilder key = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                key.append(Character.toLowerCase(c));
+            }
+        }
+        return COLUMNS.get(key.toString());
+    }
+
+    /**
+     * Splits decoded input into records.
+     */
+    private interface Parser {
+        /**
+         * Reads the chars given, keeping a record that goes on past them.
+         */
+        void feed(CharBuffer chars) throws IOException;
+
+        /**
+         * Ends the last record.
+         */
+        void finish() throws IOException;
+    }
+
+    /**
+     * Reads CSV: fields separated by commas and records by line breaks;
+     * fields in double quotes may hold commas, line breaks and doubled
+     * quotes.
+     */
+    private static final class CsvParser implements Parser {
+        private final Session session;
+        private final List<String> header = new ArrayList<>();
+        private final List<String> fields = new ArrayList<>();
+        private final StringBuilder field = new StringBuilder();
+        private final Map<String, String> values = new HashMap<>();
+        private boolean headerRead;
+        private boolean quoted;
+        private boolean quoteInQuotes;
+        private boolean tooLong;
+        private int recordChars;
+        private long line = 1;
+        private long recordLine = 1;
+
+        CsvParser(Session session) {
+            this.session = session;
+        }
+
+        @Override
+        public void feed(CharBuffer chars) throws IOException {
+            while (chars.hasRemaining()) {
+                char c = chars.get();
+                if (c == '\n') {
+                    this.line++;
+                }
+                // Separators and quotes count too, so no record grows
+                // the fields without bound
+                if (++this.recordChars > MAX_RECORD_CHARS) {
+                    this.tooLong = true;
+                }
+                if (this.quoted) {
+                    if (this.quoteInQuotes) {
+                        this.quoteInQuotes = false;
+                        if (c == '"') {
+                            append(c);
+                            continue;
+                        }
+                        // The quote closed the field
+                        this.quoted = false;
+                    } else {
+                        if (c == '"') {
+                            this.quoteInQuotes = true;
+                        } else {
+                            append(c);
+                        }
+                        continue;
+                    }
+                }
+                if (c == ',') {
+                    endField();
+                } else if (c == '\n') {
+                    endField();
+                    endRecord();
+                } else if (c == '"' && this.field.length() == 0) {
+                    this.quoted = true;
+                } else if (c != '\r') {
+                    append(c);
+                }
+            }
+        }
+
+        @Override
+        public void finish() throws IOException {
+            if (this.quoted && !this.quoteInQuotes) {
+                this.session.reject(this.recordLine, "Quote not closed");
+                return;
+            }
+            this.quoted = false;
+            if (this.field.length() > 0 || !this.fields.isEmpty() || this.tooLong) {
+                endField();
+                endRecord();
+            }
+        }
+
+        private void append(char c) {
+            if (!this.tooLong) {
+                this.field.append(c);
+            }
+        }
+
+        private void endField() {
+            // The fields of a record that is too long are dropped
+            if (!this.tooLong) {
+                this.fields.add(this.field.toString().trim());
+            }
+            this.field.setLength(0);
+        }
+
+        private void endRecord() throws IOException {
+            long start = this.recordLine;
+            this.recordLine = this.line;
+            boolean tooLong = this.tooLong;
+            this.tooLong = false;
+            this.recordChars = 0;
+            if (this.fields.size() == 1 && this.fields.get(0).isEmpty()) {
+                // A blank line
+                this.fields.clear();
+                return;
+            }
+
+            if (tooLong) {
+                this.session.reject(start, "Record is longer than " + MAX_RECORD_CHARS + " characters");
+            } else if (!this.headerRead) {
+                this.headerRead = true;
+                for (String name : this.fields) {
+                    this.header.add(column(name));
+                }
+                if (!this.header.contains("name")) {
+                    throw new IOException("Not a job sheet: no name column in " + this.fields);
+                }
+            } else {
+                this.values.clear();
+                for (int i = 0; i < Math.min(this.fields.size(), this.header.size()); i++) {
+                    String column = this.header.get(i);
+                    if (column != null && !this.fields.get(i).isEmpty()) {
+                        this.values.put(column, this.fields.get(i));
+                    }
+                }
+                this.session.record(start, this.values);
+            }
+            this.fields.clear();
+        }
+    }
+
+    /**
+     * Reads JSON lines. Each line is a flat object, read by a
+     * {@link JsonObjectReader} with its keys taken as column names.
+     */
+    private static final class JsonLinesParser implements Parser {
+        private final Session session;
+        private final StringBuilder text = new StringBuilder();
+        private final JsonObjectReader reader = new JsonObjectReader(JobImporter::column);
+        private boolean tooLong;
+        private long line = 1;
+
+        JsonLinesParser(Session session) {
+            this.session = session;
+        }
+
+        @Override
+        public void feed(CharBuffer chars) {
+            while (chars.hasRemaining()) {
+                char c = chars.get();
+                if (c == '\n') {
+                    endLine();
+                } else if (this.text.length() < MAX_RECORD_CHARS) {
+                    this.text.append(c);
+                } else {
+                    this.tooLong = true;
+                }
+            }
+        }
+
+        @Override
+        public void finish() {
+            if (this.text.length() > 0 || this.tooLong) {
+                endLine();
+            }
+        }
+
+        private void endLine() {
+            long current = this.line++;
+            boolean tooLong = this.tooLong;
+            this.tooLong = false;
+            if (tooLong) {
+                this.text.setLength(0);
+                this.session.reject(current, "Record is longer than " + MAX_RECORD_CHARS + " characters");
+                return;
+            }
+            if (this.text.chars().allMatch(Character::isWhitespace)) {
+                // A blank line
+                this.text.setLength(0);
+                return;
+            }
+
+            Map<String, String> values;
+            try {
+                values = this.reader.read(this.text);
+            } catch (IllegalArgumentException e) {
+                this.text.setLength(0);
+                this.session.reject(current, e.getMessage());
+                return;
+            }
+            this.text.setLength(0);
+            this.session.record(current, values);
+        }
+    }
+
+    /**
+     * Reads a flat JSON object into values by key. Arrays of numbers or
+     * strings are read as lists separated by spaces, and nulls as
+     * missing values. Keys the key mapper has no name for are skipped,
+     * whatever their values hold. A reader is reused for one object
+     * after another, on one thread.
+     */
+    static final class JsonObjectReader {
+        private final Function<String, String> keys;
+        private final Map<String, String> values = new HashMap<>();
+        private CharSequence text;
+        private int position;
+
+        /**
+         * Constructs a reader.
+         *
+         * @param keys gives the name to store the value of a key under,
+         *        or null to skip it
+         */
+        JsonObjectReader(Function<String, String> keys) {
+            this.keys = keys;
+        }
+
+        /**
+         * Reads an object.
+         *
+         * @return the values by name, valid until the next read
+         * @throws IllegalArgumentException if the text is not a flat object
+         */
+        Map<String, String> read(CharSequence text) {
+            this.text = text;
+            this.position = 0;
+            this.values.clear();
+            try {
+                skipSpace();
+                parseObject();
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Invalid JSON at column " + (this.position + 1) + ": "
+                    + e.getMessage());
+            } finally {
+                this.text = null;
+            }
+            return this.values;
+        }
+
+        private void parseObject() {
+            expect('{');
+            skipSpace();
+            if (peek() == '}') {
+                this.position++;
+            } else {
+                do {
+                    skipSpace();
+                    String key = parseString();
+                    skipSpace();
+                    expect(':');
+                    skipSpace();
+                    String name = this.keys.apply(key);
+                    if (name == null) {
+                        skipValue();
+                    } else {
+                        String value = parseValue();
+                        if (value != null) {
+                            this.values.put(name, value);
+                        }
+                    }
+                    skipSpace();
+                } while (next() == ',');
+                this.position--;
+                expect('}');
+            }
+            skipSpace();
+            if (this.position < this.text.length()) {
+                throw new IllegalArgumentException("text after the object");
+            }
+        }
+
+        private String parseValue() {
+            char c = peek();
+            if (c == '"') {
+                return parseString();
+            }
+            if (c == '[') {
+                this.position++;
+                StringBuilder list = new StringBuilder();
+                skipSpace();
+                if (peek() == ']') {
+                    this.position++;
+                    return list.toString();
+                }
+                do {
+                    skipSpace();
+                    String element = parseValue();
+                    if (element == null || element.indexOf(' ') >= 0) {
+                        throw new IllegalArgumentException("arrays may only hold numbers and words");
+                    }
+                    if (list.length() > 0) {
+                        list.append(' ');
+                    }
+                    list.append(element);
+                    skipSpace();
+                } while (next() == ',');
+                this.position--;
+                expect(']');
+                return list.toString();
+            }
+            if (c == '{') {
+                throw new IllegalArgumentException("a number, text or array expected");
+            }
+            return parseLiteral();
+        }
+
+        /**
+         * Skips a value of a key that is not a column, whatever it holds.
+         */
+        private void skipValue() {
+            char c = peek();
+            if (c == '"') {
+                parseString();
+            } else if (c == '[' || c == '{') {
+                int depth = 0;
+                do {
+                    c = peek();
+                    if (c == '"') {
+                        parseString();
+                        continue;
+                    }
+                    if (c == '[' || c == '{') {
+                        depth++;
+                    } else if (c == ']' || c == '}') {
+                        depth--;
+                    }
+                    this.position++;
+                } while (depth > 0);
+            } else {
+                parseLiteral();
+            }
+        }
+
+        private String parseLiteral() {
+            int start = this.position;
+            while (this.position < this.text.length() && "{}[],: \t\r\"".indexOf(this.text.charAt(this.position)) < 0) {
+                this.position++;
+            }
+            String literal = this.text.subSequence(start, this.position).toString();
+            if (literal.isEmpty()) {
+                throw new IllegalArgumentException("value expected");
+            }
+            return literal.equals("null") ? null : literal;
+        }
+
+        private String parseString() {
+            expect('"');
+            StringBuilder string = new StringBuilder();
+            while (true) {
+                char c = next();
+                if (c == '"') {
+                    return string.toString();
+                }
+                if (c != '\\') {
+                    string.append(c);
+                    continue;
+                }
+                c = next();
+                switch (c) {
+                    case 'n':
+                        string.append('\n');
+                        break;
+                    case 't':
+                        string.append('\t');
+                        break;
+                    case 'r':
+                        string.append('\r');
+                        break;
+                    case 'b':
+                        string.append('\b');
+                        break;
+                    case 'f':
+                        string.append('\f');
+                        break;
+                    case 'u':
+                        if (this.position + 4 > this.text.length()) {
+                            throw new IllegalArgumentException("unfinished escape");
+                        }
+                        try {
+                            string.append((char) Integer.parseInt(
+                                this.text, this.position, this.position + 4, 16));
+                        } catch (NumberFormatException e) {
+                            throw new IllegalArgumentException("bad escape");
+                        }
+                        this.position += 4;
+                        break;
+                    default:
+                        string.append(c);
+                }
+            }
+        }
+
+        private void skipSpace() {
+            while (this.position < this.text.length() && Character.isWhitespace(this.text.charAt(this.position))) {
+                this.position++;
+            }
+        }
+
+        private char peek() {
+            if (this.position >= this.text.length()) {
+                throw new IllegalArgumentException("unexpected end of line");
+            }
+            return this.text.charAt(this.position);
+        }
+
+        private char next() {
+            char c = peek();
+            this.position++;
+            return c;
+        }
+
+        private void expect(char expected) {
+            if (next() != expected) {
+                this.position--;
+                throw new IllegalArgumentException("'" + expected + "' expected");
+            }
+        }
+    }
+}
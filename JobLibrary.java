@@ -0,0 +1,479 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.UUID;
+
+/**
+ * A library of jobs stored in a compact binary file.
+ *
+ * The file has a fixed header, one fixed-size record per job, and a
+ * data table holding the names (UTF-8) and velocities (one byte each)
+ * that the records point into:
+ *
+ * <pre>
+ * header   magic "MJOB", version u16, reserved u16, record count i32,
+ *          record size i32, data table offset i64, data table length i64
+ * record   id (2 x i64), name offset i32, velocity offset i32,
+ *          duration i32, decay i32, gap i32, name length u16,
+ *          velocity count u16, from note u8, to note u8,
+ *          interval in semitones u8, silence threshold in -dBFS u8
+ * </pre>
+ *
+ * Version 1 had a reserved byte in place of the silence threshold; its
+ * jobs are loaded with the default threshold.
+ *
+ * A library is opened by mapping the file into memory, and each record
+ * is checked to point inside the data table, without reading the names
+ * or velocities. Jobs are only created from their records when they are
+ * first asked for.
+ */
+public class JobLibrary {
+    private static final int MAGIC = 0x4D4A4F42;  // "MJOB"
+    private static final short VERSION = 2;
+    private static final int HEADER_SIZE = 32;
+    private static final int RECORD_SIZE = 44;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final MappedByteBuffer buffer;
+    private final short version;
+    private final int size;
+    private final long dataOffset;
+
+    private JobLibrary(MappedByteBuffer buffer, short version, int size, long dataOffset) {
+        this.buffer = buffer;
+        this.version = version;
+        this.size = size;
+        this.dataOffset = dataOffset;
+    }
+
+    /**
+     * Opens a library file.
+     *
+     * @param path the library file
+     * @return the library, backed by the mapped file
+     */
+    public static JobLibrary open(Path path) throws IOException {
+        try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (in.size() > Integer.MAX_VALUE) {
+                throw new IOException("Job library is too large: " + path);
+            }
+            if (in.size() < HEADER_SIZE) {
+                throw new IOException("Not a job library: " + path);
+            }
+            MappedByteBuffer buffer = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+            if (buffer.getInt(0) != MAGIC) {
+                throw new IOException("Not a job library: " + path);
+            }
+            short version = buffer.getShort(4);
+            if (version < 1 || version > VERSION) {
+                throw new IOException("Unsupported job library version " + buffer.getShort(4));
+            }
+            int size = buffer.getInt(8);
+            if (buffer.getInt(12) != RECORD_SIZE) {
+                throw new IOException("Unexpected record size " + buffer.getInt(12));
+            }
+            long dataOffset = buffer.getLong(16);
+            long dataLength = buffer.getLong(24);
+            if (size < 0 || dataLength < 0
+                    || HEADER_SIZE + (long) size * RECORD_SIZE > dataOffset || dataOffset + dataLength > in.size()) {
+                throw new IOException("Job library is truncated: " + path);
+            }
+            for (int i = 0; i < size; i++) {
+                checkRecord(buffer, HEADER_SIZE + i * RECORD_SIZE, dataLength, i, path);
+            }
+            return new JobLibrary(buffer, version, size, dataOffset);
+        }
+    }
+
+    /**
+     * Checks that the name and velocities of a record lie in the data
+     * table and its interval exists, so a damaged library fails here
+     * rather than in a getter later.
+     */
+    private static void checkRecord(ByteBuffer buffer, int record, long dataLength, int index, Path path)
+            throws IOException {
+        long nameOffset = buffer.getInt(record + 16);
+        long velocityOffset = buffer.getInt(record + 20);
+        int nameLength = Short.toUnsignedInt(buffer.getShort(record + 36));
+        int velocityCount = Short.toUnsignedInt(buffer.getShort(record + 38));
+        if (nameOffset < 0 || nameOffset + nameLength > dataLength
+                || velocityOffset < 0 || velocityOffset + velocityCount > dataLength) {
+            throw new IOException("Job " + index + " points outside the data table: " + path);
+        }
+        try {
+            Job.Interval.fromValue(Byte.toUnsignedInt(buffer.get(record + 42)));
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Job " + index + " has an unknown interval: " + path, e);
+        }
+    }
+
+    /**
+     * Writes jobs to a library file. The file is written under another
+     * name and then moved over the old one in one step, so a crash never
+     * leaves half a library. Where files can be replaced while mapped, as
+     * on Linux and macOS, a library open on the old file stays readable;
+     * on Windows a file that is open as a library cannot be replaced,
+     * and the move fails.
+     *
+     * @param path the library file
+     * @param jobs the jobs to write
+     */
+    public static void write(Path path, List<Job> jobs) throws IOException {
+        List<Entry> entries = new ArrayList<>(jobs.size());
+        for (Job job : jobs) {
+            entries.add(Entry.of(job.snapshot()));
+        }
+        writeEntries(path, entries);
+    }
+
+    /**
+     * Writes jobs to a library file, as {@link #write} does, from
+     * snapshots and from records of open libraries. Needs nothing from
+     * the thread the jobs are edited on.
+     *
+     * @param path the library file
+     * @param entries the jobs to write
+     */
+    public static void writeEntries(Path path, List<Entry> entries) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        long dataOffset = HEADER_SIZE + (long) entries.size() * RECORD_SIZE;
+
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer records = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            ByteBuffer data = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            long recordPosition = HEADER_SIZE;
+            long dataPosition = dataOffset;
+            int dataLength = 0;
+
+            for (Entry entry : entries) {
+                byte[] name = entry.name();
+                byte[] velocities = entry.velocities();
+                if (name.length > 0xFFFF) {
+                    throw new IllegalArgumentException("Job name is too long: " + entry.displayName());
+                }
+                if (velocities.length > 0xFFFF) {
+                    throw new IllegalArgumentException("Too many velocities in " + entry.displayName());
+                }
+
+                if (records.remaining() < RECORD_SIZE) {
+                    recordPosition += drain(out, records, recordPosition);
+                }
+                UUID id = entry.id();
+                records.putLong(id.getMostSignificantBits());
+                records.putLong(id.getLeastSignificantBits());
+                records.putInt(dataLength);
+                records.putInt(dataLength + name.length);
+                entry.putTimes(records);
+                records.putShort((short) name.length);
+                records.putShort((short) velocities.length);
+                entry.putNotes(records);
+
+                if (dataLength + (long) name.length + velocities.length > Integer.MAX_VALUE) {
+                    throw new IllegalArgumentException("Too much data for one job library");
+                }
+
+                // Names are at most 64 KiB - 1, so they always fit the buffer
+                if (data.remaining() < name.length) {
+                    dataPosition += drain(out, data, dataPosition);
+                }
+                data.put(name);
+                for (byte v : velocities) {
+                    // The range VelocityProfile accepts when the job is loaded
+                    if (v < 1) {
+                        throw new IllegalArgumentException("Velocity must be 1...127 in " + entry.displayName());
+                    }
+                    if (!data.hasRemaining()) {
+                        dataPosition += drain(out, data, dataPosition);
+                    }
+                    data.put(v);
+                }
+                dataLength += name.length + velocities.length;
+            }
+            drain(out, records, recordPosition);
+            drain(out, data, dataPosition);
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC);
+            header.putShort(VERSION);
+            header.putShort((short) 0);
+            header.putInt(entries.size());
+            header.putInt(RECORD_SIZE);
+            header.putLong(dataOffset);
+            header.putLong(dataLength);
+            drain(out, header, 0);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * A job to write: a snapshot, or the record of a job in an open
+     * library, which is copied without creating the job.
+     */
+    public static final class Entry {
+        private final JobSnapshot snapshot;
+        private final JobLibrary library;
+        private final int record;
+
+        private Entry(JobSnapshot snapshot, JobLibrary library, int record) {
+            this.snapshot = snapshot;
+            this.library = library;
+            this.record = record;
+        }
+
+        public static Entry of(JobSnapshot snapshot) {
+            return new Entry(snapshot, null, -1);
+        }
+
+        public static Entry of(JobLibrary library, int index) {
+            return new Entry(null, library, library.recordOffset(index));
+        }
+
+        UUID id() {
+            if (this.snapshot != null) {
+                return this.snapshot.getId();
+            }
+            return new UUID(this.library.buffer.getLong(this.record), this.library.buffer.getLong(this.record + 8));
+        }
+
+        byte[] name() {
+            if (this.snapshot != null) {
+                return this.snapshot.getName().getBytes(StandardCharsets.UTF_8);
+            }
+            int length = Short.toUnsignedInt(this.library.buffer.getShort(this.record + 36));
+            return this.library.bytes(this.record + 16, length);
+        }
+
+        String displayName() {
+            return new String(name(), StandardCharsets.UTF_8);
+        }
+
+        byte[] velocities() {
+            if (this.snapshot != null) {
+                VelocityProfile profile = this.snapshot.getVelocities();
+                byte[] velocities = new byte[profile.size()];
+                for (int i = 0; i < velocities.length; i++) {
+                    velocities[i] = (byte) profile.get(i);
+                }
+                return velocities;
+            }
+            int length = Short.toUnsignedInt(this.library.buffer.getShort(this.record + 38));
+            return this.library.bytes(this.record + 20, length);
+        }
+
+        /** Puts the duration, decay and gap. */
+        void putTimes(ByteBuffer records) {
+            if (this.snapshot != null) {
+                records.putInt(this.snapshot.getNoteDuration());
+                records.putInt(this.snapshot.getNoteDecay());
+                records.putInt(this.snapshot.getNoteGap());
+            } else {
+                records.put(this.library.buffer.slice(this.record + 24, 12));
+            }
+        }
+
+        /** Puts the notes, interval and silence threshold. */
+        void putNotes(ByteBuffer records) {
+            if (this.snapshot != null) {
+                records.put((byte) this.snapshot.getFromNote());
+                records.put((byte) this.snapshot.getToNote());
+                records.put((byte) this.snapshot.getInterval().getValue());
+                records.put((byte) -this.snapshot.getSilenceThreshold());
+            } else {
+                records.put(this.library.buffer.slice(this.record + 40, 3));
+                records.put(this.library.version >= 2 ? this.library.buffer.get(this.record + 43)
+                    : (byte) -Job.DEFAULT_SILENCE_THRESHOLD);
+            }
+        }
+    }
+
+    /**
+     * Gets the number of jobs in the library.
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Gets the name of a job without creating the job.
+     */
+    public String getName(int index) {
+        int record = recordOffset(index);
+        return new String(bytes(record + 16, Short.toUnsignedInt(this.buffer.getShort(record + 36))),
+            StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Gets the identifier of a job without creating the job.
+     */
+    public UUID getId(int index) {
+        int record = recordOffset(index);
+        return new UUID(this.buffer.getLong(record), this.buffer.getLong(record + 8));
+    }
+
+    /**
+     * Gets the first note of a job without creating the job.
+     */
+    public int getFromNote(int index) {
+        return Byte.toUnsignedInt(this.buffer.get(recordOffset(index) + 40));
+    }
+
+    /**
+     * Gets the last note of a job without creating the job.
+     */
+    public int getToNote(int index) {
+        return Byte.toUnsignedInt(this.buffer.get(recordOffset(index) + 41));
+    }
+
+    /**
+     * Gets the interval of a job without creating the job.
+     */
+    public Job.Interval getInterval(int index) {
+        return Job.Interval.fromValue(Byte.toUnsignedInt(this.buffer.get(recordOffset(index) + 42)));
+    }
+
+    public int getNoteDuration(int index) {
+        return this.buffer.getInt(recordOffset(index) + 24);
+    }
+
+    public int getNoteDecay(int index) {
+        return this.buffer.getInt(recordOffset(index) + 28);
+    }
+
+    public int getNoteGap(int index) {
+        return this.buffer.getInt(recordOffset(index) + 32);
+    }
+
+    /**
+     * Gets the velocities of a job without creating the job.
+     */
+    public VelocityProfile getVelocities(int index) {
+        int record = recordOffset(index);
+        int offset = (int) (this.dataOffset + this.buffer.getInt(record + 20));
+        int[] velocities = new int[Short.toUnsignedInt(this.buffer.getShort(record + 38))];
+        for (int i = 0; i < velocities.length; i++) {
+            velocities[i] = this.buffer.get(offset + i);
+        }
+        return VelocityProfile.of(velocities);
+    }
+
+    /**
+     * Creates a job from its record. Every call creates a new job.
+     */
+    public Job load(int index) {
+        int record = recordOffset(index);
+        Job job = new Job(getId(index), getName(index), getNoteDuration(index), getNoteDecay(index),
+            getNoteGap(index));
+        job.setFromNote(getFromNote(index));
+        job.setToNote(getToNote(index));
+        job.setInterval(getInterval(index));
+        if (this.version >= 2) {
+            job.setSilenceThreshold(-Byte.toUnsignedInt(this.buffer.get(record + 43)));
+        }
+        job.setSpecificVelocities(getVelocities(index).asList());
+        return job;
+    }
+
+    /**
+     * Gets the jobs of the library as a list that creates each job the
+     * first time it is asked for and keeps it from then on.
+     *
+     * The list can be changed like any other; jobs that are added, set
+     * or removed do not affect the library file.
+     */
+    public List<Job> asList() {
+        return new JobList(this);
+    }
+
+    /**
+     * Copies bytes of the data table.
+     *
+     * @param field the offset of the record field holding their offset
+     */
+    private byte[] bytes(int field, int length) {
+        byte[] bytes = new byte[length];
+        this.buffer.get((int) (this.dataOffset + this.buffer.getInt(field)), bytes);
+        return bytes;
+    }
+
+    private int recordOffset(int index) {
+        if (index < 0 || index >= this.size) {
+            throw new IndexOutOfBoundsException("Job " + index + " of " + this.size);
+        }
+        return HEADER_SIZE + index * RECORD_SIZE;
+    }
+
+    private static int drain(FileChannel out, ByteBuffer buffer, long position) throws IOException {
+        buffer.flip();
+        int written = 0;
+        while (buffer.hasRemaining()) {
+            written += out.write(buffer, position + written);
+        }
+        buffer.clear();
+        return written;
+    }
+
+    /**
+     * A list of library jobs, holding the record index of each job
+     * until the job has been created.
+     */
+    private static class JobList extends AbstractList<Job> implements RandomAccess {
+        private final JobLibrary library;
+        private final ArrayList<Object> slots;
+
+        JobList(JobLibrary library) {
+            this.library = library;
+            this.slots = new ArrayList<>(library.size());
+            for (int i = 0; i < library.size(); i++) {
+                this.slots.add(i);
+            }
+        }
+
+        @Override
+        public Job get(int index) {
+            Object slot = this.slots.get(index);
+            if (slot instanceof Job) {
+                return (Job) slot;
+            }
+            Job job = this.library.load((Integer) slot);
+            this.slots.set(index, job);
+            return job;
+        }
+
+        @Override
+        public int size() {
+            return this.slots.size();
+        }
+
+        @Override
+        public Job set(int index, Job job) {
+            Job previous = get(index);
+            this.slots.set(index, job);
+            return previous;
+        }
+
+        @Override
+        public void add(int index, Job job) {
+            this.slots.add(index, job);
+            this.modCount++;
+        }
+
+        @Override
+        public Job remove(int index) {
+            Job previous = get(index);
+            this.slots.remove(index);
+            this.modCount++;
+            return previous;
+        }
+    }
+}
@@ -0,0 +1,451 @@
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * The jobs of the editor, by identifier, for use from any thread.
+ *
+ * Jobs are kept in a {@link ConcurrentHashMap}, so lookups do not lock
+ * and writers only contend when they touch the same part of the map.
+ * {@link #update} runs a change while holding the job's entry, so two
+ * threads never change one job at once through the repository.
+ *
+ * Every change is reported to the listeners, in batches: changes are
+ * queued, and the first change of a batch asks the event executor (for
+ * the editor, {@code Platform::runLater}) to deliver everything queued
+ * by the time it runs. Many changes from a worker thread thus cost one
+ * event on the JavaFX thread, and listeners only ever run there.
+ *
+ * Jobs of a library are only created from their records when they are
+ * first asked for, as with {@link JobLibrary#asList()}. Loading a library
+ * fills a new map and then swaps it in, so other threads see either all
+ * the jobs from before or all the jobs of the library.
+ */
+public class JobRepository {
+    private volatile ConcurrentHashMap<UUID, Slot> slots = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+    // Number of the next job created with a default name, guarded by create()
+    private int nextNumber = 1;
+    private final Executor eventExecutor;
+    private final Queue<Change> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean dispatchScheduled = new AtomicBoolean();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Constructs an empty repository.
+     *
+     * @param eventExecutor runs the delivery of change events
+     */
+    public JobRepository(Executor eventExecutor) {
+        this.eventExecutor = eventExecutor;
+    }
+
+    /**
+     * Receives the changes to a repository.
+     */
+    public interface Listener {
+        /**
+         * Called on the event executor with the changes made since the
+         * previous call, in order. A job updated several times is
+         * reported once.
+         */
+        void jobsChanged(List<Change> changes);
+    }
+
+    /**
+     * A change to the repository.
+     */
+    public static class Change {
+        public enum Type {
+            /** A job was added. */
+            ADDED,
+            /** A job was changed through {@link #update}. */
+            UPDATED,
+            /** A job was removed. */
+            REMOVED,
+            /** All jobs were replaced; the changes before this one are dropped. */
+            RESET
+        }
+
+        private final Type type;
+        private final UUID id;
+
+        Change(Type type, UUID id) {
+            this.type = type;
+            this.id = id;
+        }
+
+        public Type getType() {
+            return this.type;
+        }
+
+        /**
+         * Gets the identifier of the job, or null for a reset.
+         */
+        public UUID getId() {
+            return this.id;
+        }
+
+        @Override
+        public String toString() {
+            return this.type + " " + this.id;
+        }
+    }
+
+    public void addListener(Listener listener) {
+        this.listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        this.listeners.remove(listener);
+    }
+
+    /**
+     * Creates a job with a default name and adds it. The name is "Job"
+     * and the next number that no job in the repository has in its name,
+     * so two jobs created at once never get the same one.
+     */
+    public synchronized Job create() {
+        Set<String> names = new HashSet<>();
+        for (Slot slot : this.slots.values()) {
+            names.add(slot.name());
+        }
+        String name;
+        do {
+            name = "Job" + this.nextNumber++;
+        } while (names.contains(name));
+        Job job = new Job(name);
+        add(job);
+        return job;
+    }
+
+    /**
+     * Adds a job.
+     *
+     * @throws IllegalArgumentException if a job with the same
+     *         identifier is in the repository
+     */
+    public void add(Job job) {
+        Slot slot = new Slot(this.sequence.getAndIncrement(), job.getId(), job);
+        if (this.slots.putIfAbsent(job.getId(), slot) != null) {
+            throw new IllegalArgumentException("Job " + job.getId() + " is already in the repository");
+        }
+        fire(Change.Type.ADDED, job.getId());
+    }
+
+    /**
+     * Adds jobs, skipping any whose identifier is already in the
+     * repository.
+     *
+     * @return the number of jobs added
+     */
+    public int addAll(Collection<Job> jobs) {
+        ConcurrentHashMap<UUID, Slot> slots = this.slots;
+        int added = 0;
+        for (Job job : jobs) {
+            Slot slot = new Slot(this.sequence.getAndIncrement(), job.getId(), job);
+            if (slots.putIfAbsent(job.getId(), slot) == null) {
+                fire(Change.Type.ADDED, job.getId());
+                added++;
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Replaces all jobs with the jobs of a library.
+     */
+    public void load(JobLibrary library) {
+        ConcurrentHashMap<UUID, Slot> slots = new ConcurrentHashMap<>(library.size() * 4 / 3 + 1);
+        for (int i = 0; i < library.size(); i++) {
+            UUID id = library.getId(i);
+            slots.put(id, new Slot(this.sequence.getAndIncrement(), id, library, i));
+        }
+        this.slots = slots;
+        fire(Change.Type.RESET, null);
+    }
+
+    /**
+     * Gets a job.
+     *
+     * @return the job, or null if there is none with that identifier
+     */
+    public Job get(UUID id) {
+        Slot slot = this.slots.get(id);
+        return slot != null ? slot.job() : null;
+    }
+
+    /**
+     * Changes a job. No other update of the same job runs at the same
+     * time; the change must not use the repository itself.
+     *
+     * @param id the identifier of the job
+     * @param change makes the change
+     * @return false if there is no job with that identifier
+     */
+    public boolean update(UUID id, Consumer<Job> change) {
+        Slot slot = this.slots.computeIfPresent(id, (key, existing) -> {
+            change.accept(existing.job());
+            return existing;
+        });
+        if (slot == null) {
+            return false;
+        }
+        fire(Change.Type.UPDATED, id);
+        return true;
+    }
+
+    /**
+     * Removes a job.
+     *
+     * @return the job, or null if there was none with that identifier
+     */
+    public Job remove(UUID id) {
+        Slot slot = this.slots.remove(id);
+        if (slot == null) {
+            return null;
+        }
+        fire(Change.Type.REMOVED, id);
+        return slot.job();
+    }
+
+    public int size() {
+        return this.slots.size();
+    }
+
+    /**
+     * Gets the jobs as they are now, in the order they were added, as a
+     * list for the user interface.
+     *
+     * The list is a copy: it can be changed, and changes to the
+     * repository do not show in it. Jobs of a library are created as the
+     * list is read.
+     */
+    public JobList list() {
+        List<Slot> ordered = new ArrayList<>(this.slots.values());
+        ordered.sort(Comparator.comparingLong(slot -> slot.sequence));
+        return new JobList(ordered);
+    }
+
+    /**
+     * Gets what is needed to save every job, in the order they were
+     * added: a snapshot of each job that has been created, and the
+     * library record of each that has not, without creating it. Can be
+     * called from any thread; jobs added, removed or changed meanwhile
+     * may or may not be seen.
+     */
+    public List<JobLibrary.Entry> entries() {
+        List<Slot> ordered = new ArrayList<>(this.slots.values());
+        ordered.sort(Comparator.comparingLong(slot -> slot.sequence));
+        List<JobLibrary.Entry> entries = new ArrayList<>(ordered.size());
+        for (Slot slot : ordered) {
+            entries.add(slot.entry());
+        }
+        return entries;
+    }
+
+    /**
+     * Runs an action on every job that has been created, and another on
+     * the library record of every job that has not, without creating it,
+     * in no particular order and without copying or sorting the jobs as
+     * {@link #list()} does. Jobs added or removed meanwhile may or may
+     * not be seen.
+     *
+     * @param jobs the action for a job that has been created
+     * @param records the action for a library and the index of a record
+     */
+    public void forEach(Consumer<Job> jobs, ObjIntConsumer<JobLibrary> records) {
+        for (Slot slot : this.slots.values()) {
+            Job loaded = slot.job;
+            if (loaded != null) {
+                jobs.accept(loaded);
+            } else {
+                // A job is only changed after it has been created, so
+                // until then its record holds its values
+                records.accept(slot.library, slot.index);
+            }
+        }
+    }
+
+    private void fire(Change.Type type, UUID id) {
+        this.pending.add(new Change(type, id));
+        if (this.dispatchScheduled.compareAndSet(false, true)) {
+            this.eventExecutor.execute(this::dispatch);
+        }
+    }
+
+    private void dispatch() {
+        // Cleared first, so a change queued while this runs schedules another dispatch
+        this.dispatchScheduled.set(false);
+        List<Change> batch = new ArrayList<>();
+        Set<UUID> reported = new HashSet<>();  // added or updated in this batch
+        Change change;
+        while ((change = this.pending.poll()) != null) {
+            switch (change.type) {
+                case RESET:
+                    batch.clear();
+                    reported.clear();
+                    batch.add(change);
+                    break;
+                case UPDATED:
+                    if (reported.add(change.id)) {
+                        batch.add(change);
+                    }
+                    break;
+                case ADDED:
+                    reported.add(change.id);
+                    batch.add(change);
+                    break;
+                default:
+                    reported.remove(change.id);
+                    batch.add(change);
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<Change> changes = List.copyOf(batch);
+        for (Listener listener : this.listeners) {
+            listener.jobsChanged(changes);
+        }
+    }
+
+    /**
+     * A job in the repository, or a record of a library to create it from.
+     */
+    private static class Slot {
+        final long sequence;
+        final UUID id;
+        private final JobLibrary library;
+        private final int index;
+        private volatile Job job;
+
+        Slot(long sequence, UUID id, Job job) {
+            this(sequence, id, null, -1);
+            this.job = job;
+        }
+
+        Slot(long sequence, UUID id, JobLibrary library, int index) {
+            this.sequence = sequence;
+            this.id = id;
+            this.library = library;
+            this.index = index;
+        }
+
+        JobLibrary.Entry entry() {
+            Job loaded = this.job;
+            // A job is only changed after it has been created, so until
+            // then its record holds its values
+            return loaded != null
+                ? JobLibrary.Entry.of(loaded.snapshot())
+                : JobLibrary.Entry.of(this.library, this.index);
+        }
+
+        String name() {
+            Job loaded = this.job;
+            return loaded != null ? loaded.getName() : this.library.getName(this.index);
+        }
+
+        Job job() {
+            Job loaded = this.job;
+            if (loaded == null) {
+                synchronized (this) {
+                    loaded = this.job;
+                    if (loaded == null) {
+                        loaded = this.library.load(this.index);
+                        this.job = loaded;
+                    }
+                }
+            }
+            return loaded;
+        }
+    }
+
+    /**
+     * A list of jobs that creates each job of a library when it is first
+     * read, and can find jobs by identifier without creating them.
+     */
+    public static class JobList extends AbstractList<Job> implements RandomAccess {
+        private final List<Slot> slots;
+        private final Set<UUID> ids = new HashSet<>();
+
+        private JobList(List<Slot> slots) {
+            this.slots = slots;
+            for (Slot slot : slots) {
+                this.ids.add(slot.id);
+            }
+        }
+
+        @Override
+        public Job get(int index) {
+            return this.slots.get(index).job();
+        }
+
+        @Override
+        public int size() {
+            return this.slots.size();
+        }
+
+        @Override
+        public Job set(int index, Job job) {
+            Slot previous = this.slots.set(index, new Slot(-1, job.getId(), job));
+            this.ids.remove(previous.id);
+            this.ids.add(job.getId());
+            return previous.job();
+        }
+
+        @Override
+        public void add(int index, Job job) {
+            this.slots.add(index, new Slot(-1, job.getId(), job));
+            this.ids.add(job.getId());
+            this.modCount++;
+        }
+
+        @Override
+        public Job remove(int index) {
+            Slot removed = this.slots.remove(index);
+            this.ids.remove(removed.id);
+            this.modCount++;
+            return removed.job();
+        }
+
+        /**
+         * Checks for a job without creating any.
+         */
+        public boolean contains(UUID id) {
+            return this.ids.contains(id);
+        }
+
+        /**
+         * Finds a job without creating any.
+         *
+         * @return the index of the job, or -1
+         */
+        public int indexOf(UUID id) {
+            if (!this.ids.contains(id)) {
+                return -1;
+            }
+            for (int i = 0; i < this.slots.size(); i++) {
+                if (this.slots.get(i).id.equals(id)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+}
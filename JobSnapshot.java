@@ -0,0 +1,120 @@
+import java.util.UUID;
+
+/**
+ * An immutable copy of a job's values at one moment, for work that
+ * runs while the job is being edited.
+ *
+ * Taking a snapshot copies a few fields; the velocities are a shared,
+ * immutable {@link VelocityProfile}. The snapshot carries the job's
+ * version, so whoever works from it can tell when the job has changed
+ * since, without locking the job.
+ */
+public final class JobSnapshot {
+    private final Job job;
+    private final long version;
+    private final UUID id;
+    private final String name;
+    private final int fromNote;
+    private final int toNote;
+    private final Job.Interval interval;
+    private final int noteDuration;
+    private final int noteDecay;
+    private final int noteGap;
+    private final int silenceThreshold;
+    private final VelocityProfile velocities;
+
+    JobSnapshot(Job job, long version, String name, int fromNote, int toNote, Job.Interval interval,
+                int noteDuration, int noteDecay, int noteGap, int silenceThreshold, VelocityProfile velocities) {
+        this.job = job;
+        this.version = version;
+        this.id = job.getId();
+        this.name = name;
+        this.fromNote = fromNote;
+        this.toNote = toNote;
+        this.interval = interval;
+        this.noteDuration = noteDuration;
+        this.noteDecay = noteDecay;
+        this.noteGap = noteGap;
+        this.silenceThreshold = silenceThreshold;
+        this.velocities = velocities;
+    }
+
+    /**
+     * Gets the version of the job the snapshot was taken at.
+     */
+    public long getVersion() {
+        return this.version;
+    }
+
+    /**
+     * Checks whether the job has changed since the snapshot was taken.
+     */
+    public boolean isStale() {
+        return this.job.getVersion() != this.version;
+    }
+
+    public UUID getId() {
+        return this.id;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public int getFromNote() {
+        return this.fromNote;
+    }
+
+    public int getToNote() {
+        return this.toNote;
+    }
+
+    public Job.Interval getInterval() {
+        return this.interval;
+    }
+
+    /**
+     * Gets the note duration in milliseconds.
+     */
+    public int getNoteDuration() {
+        return this.noteDuration;
+    }
+
+    /**
+     * Gets the note decay time in milliseconds.
+     */
+    public int getNoteDecay() {
+        return this.noteDecay;
+    }
+
+    /**
+     * Gets the gap time between notes in milliseconds.
+     */
+    public int getNoteGap() {
+        return this.noteGap;
+    }
+
+    /**
+     * Gets the level below which the end of a sample is trimmed, in dB
+     * below full scale.
+     */
+    public int getSilenceThreshold() {
+        return this.silenceThreshold;
+    }
+
+    public VelocityProfile getVelocities() {
+        return this.velocities;
+    }
+
+    /**
+     * Gets the schedule of the job as it was in the snapshot.
+     */
+    public NoteSchedule getSchedule() {
+        return new NoteSchedule(this);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s (version %d)", this.name, this.version);
+    }
+}
@@ -0,0 +1,600 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Checks the jobs of a repository against a set of {@link Rule}s on a
+ * thread of its own, and keeps the problems it finds by job.
+ *
+ * The model accepts values that only make sense together, such as a
+ * first note above the last one, so the checks are made here rather
+ * than in the setters. After the first pass over all jobs only jobs
+ * that changed are checked again: the validator keeps the values the
+ * rules read of each job as last checked, finds the fields that differ
+ * and runs only the rules that read them. Jobs changed through the
+ * repository are picked up from its events; the editor submits the jobs
+ * it edits directly. Jobs of a library that have not been created yet
+ * are checked from their records, without creating them.
+ *
+ * Jobs sharing a name are found through an index of names, so renaming
+ * a job rechecks at most the jobs with its old and new name.
+ *
+ * Listeners hear of jobs whose problems changed once per pass, on the
+ * event executor.
+ */
+public final class JobValidator {
+    // Asks the worker to check every job again, as after a reset
+    private static final UUID ALL = new UUID(0, 0);
+    private static final UUID STOP = new UUID(0, 1);
+    private static final Rule[] RULES = Rule.values();
+
+    /**
+     * How much a problem matters.
+     */
+    public enum Severity {
+        /** The job cannot be played, exported or rendered as it is. */
+        ERROR,
+        /** The job works, but probably not as meant. */
+        WARNING
+    }
+
+    /**
+     * A check of a job, with the fields it reads.
+     */
+    public enum Rule {
+        EMPTY_NAME(Severity.WARNING, EditJournal.Field.NAME) {
+            @Override
+            String check(Checked job) {
+                return job.name.isBlank() ? "The job has no name" : null;
+            }
+        },
+        DUPLICATE_NAME(Severity.WARNING, EditJournal.Field.NAME) {
+            @Override
+            String check(Checked job) {
+                // Needs the other jobs, see JobValidator.duplicateName()
+                return null;
+            }
+        },
+        NOTE_RANGE(Severity.ERROR, EditJournal.Field.FROM_NOTE, EditJournal.Field.TO_NOTE) {
+            @Override
+            String check(Checked job) {
+                if (job.fromNote > job.toNote) {
+                    return "First note " + job.fromNote + " is above last note " + job.toNote;
+                }
+                return null;
+            }
+        },
+        LAST_NOTE_MISSED(Severity.WARNING, EditJournal.Field.FROM_NOTE, EditJournal.Field.TO_NOTE,
+                         EditJournal.Field.INTERVAL) {
+            @Override
+            String check(Checked job) {
+                int span = job.toNote - job.fromNote;
+                int step = job.step;
+                if (span > 0 && span % step != 0) {
+                    return "Last note " + job.toNote + " is not reached in steps of " + step
+                        + "; the job ends at " + (job.toNote - span % step);
+                }
+                return null;
+            }
+        },
+        NO_VELOCITIES(Severity.ERROR, EditJournal.Field.VELOCITIES) {
+            @Override
+            String check(Checked job) {
+                return job.velocities.isEmpty() ? "The job has no velocities" : null;
+            }
+        },
+        REPEATED_VELOCITY(Severity.WARNING, EditJournal.Field.VELOCITIES) {
+            @Override
+            String check(Checked job) {
+                VelocityProfile velocities = job.velocities;
+                long seen0 = 0;
+                long seen1 = 0;
+                for (int i = 0; i < velocities.size(); i++) {
+                    int velocity = velocities.get(i);
+                    long bit = 1L << (velocity & 63);
+                    if (velocity < 64 ? (seen0 & bit) != 0 : (seen1 & bit) != 0) {
+                        return "Velocity " + velocity + " is played more than once";
+                    }
+                    if (velocity < 64) {
+                        seen0 |= bit;
+                    } else {
+                        seen1 |= bit;
+                    }
+                }
+                return null;
+            }
+        },
+        TIMING(Severity.ERROR, EditJournal.Field.NOTE_DURATION, EditJournal.Field.NOTE_DECAY,
+               EditJournal.Field.NOTE_GAP) {
+            @Override
+            String check(Checked job) {
+                if (job.duration <= 0 || job.decay <= 0 || job.gap <= 0) {
+                    return "Duration, decay and gap must be positive";
+                }
+                return null;
+            }
+        },
+        TOO_LONG(Severity.ERROR, EditJournal.Field.FROM_NOTE, EditJournal.Field.TO_NOTE,
+                 EditJournal.Field.INTERVAL, EditJournal.Field.VELOCITIES, EditJournal.Field.NOTE_DURATION,
+                 EditJournal.Field.NOTE_DECAY, EditJournal.Field.NOTE_GAP) {
+            @Override
+            String check(Checked job) {
+                if (job.fromNote > job.toNote) {
+                    return null;
+                }
+                long rowTime = (long) job.duration + job.decay + job.gap;
+                long rows = (long) ((job.toNote - job.fromNote) / job.step + 1)
+                    * job.velocities.size();
+                if (rowTime * rows > Integer.MAX_VALUE) {
+                    return "The job is longer than " + SessionPlanner.formatTime(Integer.MAX_VALUE);
+                }
+                return null;
+            }
+        };
+
+        private final Severity severity;
+        private final int fields;
+
+        Rule(Severity severity, EditJournal.Field... fields) {
+            this.severity = severity;
+            this.fields = mask(fields);
+        }
+
+        public Severity getSeverity() {
+            return this.severity;
+        }
+
+        /**
+         * Checks a job.
+         *
+         * @return the problem, or null if there is none
+         */
+        abstract String check(Checked job);
+    }
+
+    /**
+     * A problem found in a job.
+     */
+    public static final class Problem {
+        private final Rule rule;
+        private final String message;
+
+        Problem(Rule rule, String message) {
+            this.rule = rule;
+            this.message = message;
+        }
+
+        public Rule getRule() {
+            return this.rule;
+        }
+
+        public Severity getSeverity() {
+            return this.rule.getSeverity();
+        }
+
+        public String getMessage() {
+            return this.message;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Problem problem && problem.rule == this.rule
+                && problem.message.equals(this.message);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.rule.hashCode() * 31 + this.message.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return this.rule.getSeverity() + ": " + this.message;
+        }
+    }
+
+    /**
+     * Receives the jobs whose problems changed.
+     */
+    public interface Listener {
+        /**
+         * Called on the event executor after each pass.
+         *
+         * @param jobs the jobs whose problems changed, including removed jobs
+         */
+        void problemsChanged(Set<UUID> jobs);
+    }
+
+    private final JobRepository repository;
+    private final Executor eventExecutor;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final Set<UUID> pending = ConcurrentHashMap.newKeySet();
+    private final LinkedBlockingQueue<UUID> queue = new LinkedBlockingQueue<>();
+    private final Map<UUID, List<Problem>> problems = new ConcurrentHashMap<>();
+    private final JobRepository.Listener repositoryListener = this::jobsChanged;
+    private final Thread worker;
+
+    // Used by the worker only
+    private final Map<UUID, Checked> checked = new HashMap<>();
+    // The job with a name, or the set of jobs when several share it
+    private final Map<String, Object> names = new HashMap<>();
+
+    /**
+     * Constructs a validator that checks all jobs of a repository, and
+     * from then on the jobs that change.
+     *
+     * @param repository the jobs
+     * @param eventExecutor runs the delivery of changes to the listeners
+     */
+    public JobValidator(JobRepository repository, Executor eventExecutor) {
+        this.repository = repository;
+        this.eventExecutor = eventExecutor;
+        this.worker = new Thread(this::run, "job-validator");
+        this.worker.setDaemon(true);
+        repository.addListener(this.repositoryListener);
+        submit(ALL);
+        this.worker.start();
+    }
+
+    public void addListener(Listener listener) {
+        this.listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        this.listeners.remove(listener);
+    }
+
+    /**
+     * Asks for a job to be checked again, after it was changed other
+     * than through the repository. Cheap enough to call on every edit.
+     */
+    public void submit(UUID id) {
+        if (this.pending.add(id)) {
+            this.queue.add(id);
+        }
+    }
+
+    /**
+     * Gets the problems of a job as of the last check.
+     *
+     * @return the problems, by rule, empty if there are none
+     */
+    public List<Problem> getProblems(UUID id) {
+        return this.problems.getOrDefault(id, List.of());
+    }
+
+    /**
+     * Gets the number of jobs with problems.
+     */
+    public int getJobsWithProblems() {
+        return this.problems.size();
+    }
+
+    /**
+     * Stops checking jobs.
+     */
+    public void close() {
+        this.repository.removeListener(this.repositoryListener);
+        this.queue.add(STOP);
+    }
+
+    /**
+     * Checks one job against every rule but those that need other jobs.
+     *
+     * @return the problems, by rule, empty if there are none
+     */
+    public static List<Problem> check(JobSnapshot job) {
+        Checked values = Checked.of(job);
+        List<Problem> found = new ArrayList<>();
+        for (Rule rule : RULES) {
+            String message = rule.check(values);
+            if (message != null) {
+                found.add(new Problem(rule, message));
+            }
+        }
+        return found;
+    }
+
+    private void jobsChanged(List<JobRepository.Change> changes) {
+        for (JobRepository.Change change : changes) {
+            submit(change.getType() == JobRepository.Change.Type.RESET ? ALL : change.getId());
+        }
+    }
+
+    private void run() {
+        List<UUID> ids = new ArrayList<>();
+        Set<UUID> changed = new HashSet<>();
+        while (true) {
+            try {
+                ids.add(this.queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            this.queue.drainTo(ids);
+            EditorEvents.Validation event = new EditorEvents.Validation();
+            event.begin();
+            long start = System.nanoTime();
+            int jobs = 0;
+            for (UUID id : ids) {
+                if (id.equals(STOP)) {
+                    return;
+                }
+                // Removed first, so a change made while the job is checked asks again
+                this.pending.remove(id);
+                if (id.equals(ALL)) {
+                    jobs += checkAll(changed);
+                } else {
+                    checkJob(id, this.repository.get(id), changed);
+                    jobs++;
+                }
+            }
+            ids.clear();
+
+            Metrics.VALIDATION.record(System.nanoTime() - start, jobs);
+            event.jobs = jobs;
+            event.problems = this.problems.size();
+            event.commit();
+            if (!changed.isEmpty()) {
+                Set<UUID> jobsChanged = Set.copyOf(changed);
+                changed.clear();
+                this.eventExecutor.execute(() -> {
+                    for (Listener listener : this.listeners) {
+                        listener.problemsChanged(jobsChanged);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Checks every job from scratch.
+     *
+     * @return the number of jobs checked
+     */
+    private int checkAll(Set<UUID> changed) {
+        // The problems found before are kept until each job is checked,
+        // so only jobs whose problems differ are reported
+        this.checked.clear();
+        this.names.clear();
+        int[] jobs = new int[1];
+        this.repository.forEach(job -> {
+            checkJob(job.getId(), job, changed);
+            jobs[0]++;
+        }, (library, index) -> {
+            // Checked from its record, so opening a library creates no jobs
+            check(library.getId(index), Checked.of(library, index), changed);
+            jobs[0]++;
+        });
+        for (UUID id : List.copyOf(this.problems.keySet())) {
+            if (!this.checked.containsKey(id)) {
+                publish(id, List.of(), changed);
+            }
+        }
+        return jobs[0];
+    }
+
+    /**
+     * Checks a job again, running only the rules that read fields
+     * changed since it was last checked.
+     *
+     * @param job the job, or null if it was removed
+     */
+    private void checkJob(UUID id, Job job, Set<UUID> changed) {
+        if (job == null) {
+            Checked before = this.checked.remove(id);
+            if (before != null) {
+                rename(id, before.name, null, changed);
+                publish(id, List.of(), changed);
+            }
+            return;
+        }
+        Checked before = this.checked.get(id);
+        if (before != null && before.version == job.getVersion()) {
+            return;
+        }
+        check(id, Checked.of(job.snapshot()), changed);
+    }
+
+    private void check(UUID id, Checked after, Set<UUID> changed) {
+        Checked before = this.checked.get(id);
+        int fields = before != null ? changedFields(before, after) : -1;
+        this.checked.put(id, after);
+        if (fields == 0) {
+            return;
+        }
+        if ((fields & Rule.DUPLICATE_NAME.fields) != 0) {
+            rename(id, before != null ? before.name : null, after.name, changed);
+        }
+        List<Problem> found = null;
+        List<Problem> previous = getProblems(id);
+        for (Rule rule : RULES) {
+            String message;
+            if ((rule.fields & fields) == 0) {
+                Problem kept = find(previous, rule);
+                message = kept != null ? kept.message : null;
+            } else if (rule == Rule.DUPLICATE_NAME) {
+                message = duplicateName(after.name);
+            } else {
+                message = rule.check(after);
+            }
+            if (message != null) {
+                if (found == null) {
+                    found = new ArrayList<>(2);
+                }
+                found.add(new Problem(rule, message));
+            }
+        }
+        publish(id, found != null ? found : List.of(), changed);
+    }
+
+    /**
+     * Moves a job from one name to another in the index, and marks the
+     * one other job that now has or no longer has a twin.
+     */
+    @SuppressWarnings("unchecked")
+    private void rename(UUID id, String oldName, String newName, Set<UUID> changed) {
+        if (oldName != null) {
+            Object namesake = this.names.get(oldName);
+            if (namesake instanceof Set) {
+                Set<UUID> ids = (Set<UUID>) namesake;
+                ids.remove(id);
+                if (ids.size() == 1) {
+                    UUID other = ids.iterator().next();
+                    this.names.put(oldName, other);
+                    setDuplicateName(other, null, changed);
+                }
+            } else {
+                this.names.remove(oldName);
+            }
+        }
+        if (newName != null) {
+            Object namesake = this.names.putIfAbsent(newName, id);
+            if (namesake instanceof UUID other) {
+                Set<UUID> ids = new HashSet<>();
+                ids.add(other);
+                ids.add(id);
+                this.names.put(newName, ids);
+                setDuplicateName(other, duplicateName(newName), changed);
+            } else if (namesake != null) {
+                ((Set<UUID>) namesake).add(id);
+            }
+        }
+    }
+
+    private String duplicateName(String name) {
+        return this.names.get(name) instanceof Set ? "Another job is also named \"" + name + "\"" : null;
+    }
+
+    private void setDuplicateName(UUID id, String message, Set<UUID> changed) {
+        List<Problem> previous = getProblems(id);
+        List<Problem> found = new ArrayList<>(previous.size() + 1);
+        for (Rule rule : RULES) {
+            if (rule == Rule.DUPLICATE_NAME) {
+                if (message != null) {
+                    found.add(new Problem(rule, message));
+                }
+            } else {
+                Problem kept = find(previous, rule);
+                if (kept != null) {
+                    found.add(kept);
+                }
+            }
+        }
+        publish(id, found, changed);
+    }
+
+    private void publish(UUID id, List<Problem> found, Set<UUID> changed) {
+        List<Problem> previous = getProblems(id);
+        if (previous.equals(found)) {
+            return;
+        }
+        if (found.isEmpty()) {
+            this.problems.remove(id);
+        } else {
+            this.problems.put(id, Collections.unmodifiableList(found));
+        }
+        changed.add(id);
+    }
+
+    private static Problem find(List<Problem> problems, Rule rule) {
+        for (Problem problem : problems) {
+            if (problem.rule == rule) {
+                return problem;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets the fields that differ between two checks of a job, as a mask
+     * of {@link EditJournal.Field} ordinals. Only fields a rule reads
+     * are compared.
+     */
+    private static int changedFields(Checked before, Checked after) {
+        int fields = 0;
+        if (!before.name.equals(after.name)) {
+            fields |= mask(EditJournal.Field.NAME);
+        }
+        if (before.fromNote != after.fromNote) {
+            fields |= mask(EditJournal.Field.FROM_NOTE);
+        }
+        if (before.toNote != after.toNote) {
+            fields |= mask(EditJournal.Field.TO_NOTE);
+        }
+        if (before.step != after.step) {
+            fields |= mask(EditJournal.Field.INTERVAL);
+        }
+        if (before.duration != after.duration) {
+            fields |= mask(EditJournal.Field.NOTE_DURATION);
+        }
+        if (before.decay != after.decay) {
+            fields |= mask(EditJournal.Field.NOTE_DECAY);
+        }
+        if (before.gap != after.gap) {
+            fields |= mask(EditJournal.Field.NOTE_GAP);
+        }
+        if (!before.velocities.equals(after.velocities)) {
+            fields |= mask(EditJournal.Field.VELOCITIES);
+        }
+        return fields;
+    }
+
+    private static int mask(EditJournal.Field... fields) {
+        int mask = 0;
+        for (EditJournal.Field field : fields) {
+            mask |= 1 << field.ordinal();
+        }
+        return mask;
+    }
+
+    /**
+     * The values of a job that the rules read, as last checked. The
+     * velocities are the shared profile, so this is a few words a job.
+     */
+    static final class Checked {
+        // Of the snapshot, or -1 when read from a library record
+        final long version;
+        final String name;
+        final int fromNote;
+        final int toNote;
+        final int step;
+        final int duration;
+        final int decay;
+        final int gap;
+        final VelocityProfile velocities;
+
+        private Checked(long version, String name, int fromNote, int toNote, int step, int duration,
+                        int decay, int gap, VelocityProfile velocities) {
+            this.version = version;
+            this.name = name;
+            this.fromNote = fromNote;
+            this.toNote = toNote;
+            this.step = step;
+            this.duration = duration;
+            this.decay = decay;
+            this.gap = gap;
+            this.velocities = velocities;
+        }
+
+        static Checked of(JobSnapshot job) {
+            return new Checked(job.getVersion(), job.getName(), job.getFromNote(), job.getToNote(),
+                job.getInterval().getValue(), job.getNoteDuration(), job.getNoteDecay(), job.getNoteGap(),
+                job.getVelocities());
+        }
+
+        static Checked of(JobLibrary library, int index) {
+            return new Checked(-1, library.getName(index), library.getFromNote(index), library.getToNote(index),
+                library.getInterval(index).getValue(), library.getNoteDuration(index),
+                library.getNoteDecay(index), library.getNoteGap(index), library.getVelocities(index));
+        }
+    }
+}
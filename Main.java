@@ -1,44 +1,120 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.AclEntry;
+import java.nio.file.attribute.AclEntryPermission;
+import java.nio.file.attribute.AclEntryType;
+import java.nio.file.attribute.AclFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import javafx.animation.Animation;
+import javafx.animation.KeyFrame;
+import javafx.animation.PauseTransition;
+import javafx.animation.Timeline;
 import javafx.application.Application;
-import javafx.beans.property.SimpleObjectProperty;
+import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.beans.value.ChangeListener;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
+import javafx.concurrent.Task;
+import javafx.concurrent.Worker;
 import javafx.geometry.Insets;
 import javafx.geometry.Orientation;
 import javafx.geometry.Pos;
 import javafx.scene.Scene;
-import javafx.scene.canvas.Canvas;
-import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.control.*;
-import javafx.scene.control.cell.PropertyValueFactory;
 import javafx.scene.control.cell.TextFieldTableCell;
+import javafx.scene.input.KeyCombination;
 import javafx.scene.layout.*;
+import javafx.stage.DirectoryChooser;
+import javafx.stage.FileChooser;
 import javafx.stage.Stage;
-import javafx.util.StringConverter;
+import javafx.util.Duration;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.MidiUnavailableException;
+import javax.sound.midi.Synthesizer;
 
 public class Main extends Application {
-
-    private ObservableList<Job> jobs = FXCollections.observableArrayList();
+    private static final long RENDER_CACHE_BYTES = 2L << 30;  // 2 GiB
+    private static final Path APP_DIRECTORY = Path.of(System.getProperty("user.home"), ".musical-job-editor");
+    // The jobs as of the last checkpoint; the journal holds the edits since
+    private static final Path AUTOSAVE_PATH = APP_DIRECTORY.resolve("autosave.mjl");
+    private static final Path RECOVERED_PATH = APP_DIRECTORY.resolve("recovered.mjl");
+    private static final Path JOURNAL_PATH = APP_DIRECTORY.resolve("journal.bin");
+    // Starts the automation server on this port when set, as with -Dmusicaljobeditor.automation.port=8765
+    private static final String AUTOMATION_PORT_PROPERTY = "musicaljobeditor.automation.port";
+    // Batches of the automation server write here, or under -Dmusicaljobeditor.automation.out=directory
+    private static final String AUTOMATION_OUT_PROPERTY = "musicaljobeditor.automation.out";
+    private static final Path AUTOMATION_TOKEN_PATH = APP_DIRECTORY.resolve("automation.token");
+    // Prints the metrics on exit when true, as with -Dmusicaljobeditor.metrics=true
+    private static final String METRICS_PROPERTY = "musicaljobeditor.metrics";
+
+    private final JobRepository repository = new JobRepository(Platform::runLater);
+    private JobRepository.JobList jobView;
+    private ObservableList<Job> jobs;
     private Job currentJob;
     private ListView<Job> jobsList;
     private Slider durationSlider, decaySlider, gapSlider;
     private Label durationValueLabel, decayValueLabel, gapValueLabel;
-    private Canvas canvas;
+    private TimelineView timeline;
     private TextField nameField;
-    private Spinner<Integer> startNoteSpinner, endNoteSpinner;
+    private Spinner<Integer> startNoteSpinner, endNoteSpinner, thresholdSpinner;
     private ToggleGroup intervalGroup;
     private TableView<Note> notesTable;
+    private WaveformView waveformView;
+    // Where each job was last rendered to, for its waveforms
+    private final Map<UUID, Path> sampleDirectories = new HashMap<>();
+    private final NotesListModel notesModel = new NotesListModel();
+    private EditScheduler editScheduler;
+    private Synthesizer synthesizer;
+    private PlaybackEngine playbackEngine;
+    private final List<PlaybackEngine.Playback> playbacks = new ArrayList<>();
+    private int nextChannel;
+    private RenderCache renderCache;
+    private EditJournal journal;
+    // Ends merging of edits once the user pauses
+    private final PauseTransition sealTimer = new PauseTransition(Duration.seconds(1));
+    private Timeline checkpointTimer;
+    private BorderPane root;
+    private MetricsPanel metricsPanel;
+    private AutomationServer automationServer;
+    private JobValidator validator;
+    // Jobs were added or changed through the repository since the last checkpoint
+    private boolean externalChanges;
+    // Set while loadJobDetails() puts a job on the sliders
+    private boolean showingJob;
+    private final Label statusLabel = new Label();
+    private final ProgressBar statusProgress = new ProgressBar(0);
+    // The task the progress bar follows, if any
+    private Task<?> progressTask;
 
     @Override
     public void start(Stage primaryStage) {
         initializeComponents();
-        jobs.addAll(new Job("Job 1", 1000, 500, 200), new Job("Job 2", 1200, 400, 300), new Job("Job 3", 1500, 600, 100));
+        int recovered = openSession();
+        jobView = repository.list();
+        jobs = FXCollections.observableList(jobView);
         currentJob = jobs.get(0);
+        repository.addListener(this::applyJobChanges);
 
         jobsList = new ListView<>(jobs);
+        jobsList.setCellFactory(list -> createJobCell());
+        // Checks every job once, then the jobs that change, off this thread
+        validator = new JobValidator(repository, Platform::runLater);
+        validator.addListener(changedJobs -> jobsList.refresh());
         jobsList.setPrefWidth(200);
         jobsList.getSelectionModel().selectedItemProperty().addListener((obs, oldJob, newJob) -> {
             if (newJob != null) {
@@ -47,26 +123,50 @@ public class Main extends Application {
                     saveJobDetails(oldJob);
                 }
                 currentJob = newJob;
+                // A different job is zoomed to fit when it is shown
+                timeline.setSchedule(null);
                 loadJobDetails(newJob);
+                showSamples();
             }
         });
-        notesTable = createNotesTableView();
+        editScheduler = new EditScheduler(this::updateJobAndNotesTable);
 
+        // Controls set from a job, as on selection or undo, hold the job's
+        // values already, so only the user's changes are recorded
         nameField.textProperty().addListener((obs, oldVal, newVal) -> {
             // Name change doesn't affect notes table
+            if (currentJob != null && !currentJob.getName().equals(newVal)) {
+                String before = currentJob.getName();
+                currentJob.setName(newVal);
+                recordEdit(EditJournal.Field.NAME, before, newVal);
+                jobsList.refresh();
+            }
         });
 
         startNoteSpinner.getValueFactory().valueProperty().addListener((obs, oldVal, newVal) -> {
-            if (currentJob != null && !oldVal.equals(newVal)) {
+            if (currentJob != null && currentJob.getFromNote() != newVal) {
+                int before = currentJob.getFromNote();
                 currentJob.setFromNote(newVal);
-                updateNotesTable(currentJob);
+                recordEdit(EditJournal.Field.FROM_NOTE, before, newVal);
+                editScheduler.requestUpdate();
             }
         });
 
         endNoteSpinner.getValueFactory().valueProperty().addListener((obs, oldVal, newVal) -> {
-            if (currentJob != null && !oldVal.equals(newVal)) {
+            if (currentJob != null && currentJob.getToNote() != newVal) {
+                int before = currentJob.getToNote();
                 currentJob.setToNote(newVal);
-                updateNotesTable(currentJob);
+                recordEdit(EditJournal.Field.TO_NOTE, before, newVal);
+                editScheduler.requestUpdate();
+            }
+        });
+
+        // Only used when the samples are post-processed, so the notes stay as they are
+        thresholdSpinner.getValueFactory().valueProperty().addListener((obs, oldVal, newVal) -> {
+            if (currentJob != null && currentJob.getSilenceThreshold() != newVal) {
+                int before = currentJob.getSilenceThreshold();
+                currentJob.setSilenceThreshold(newVal);
+                recordEdit(EditJournal.Field.SILENCE_THRESHOLD, before, newVal);
             }
         });
 
@@ -75,43 +175,884 @@ public class Main extends Application {
             if (newToggle != null && currentJob != null) {
                 Job.Interval selectedInterval = (Job.Interval) newToggle.getUserData();
                 if (currentJob.getInterval() != selectedInterval) {
+                    Job.Interval before = currentJob.getInterval();
                     currentJob.setInterval(selectedInterval);
-                    updateJobAndNotesTable();
+                    recordEdit(EditJournal.Field.INTERVAL, before, selectedInterval);
+                    editScheduler.requestUpdate();
                 }
             }
         });
 
-        durationSlider.valueProperty().addListener((obs, oldVal, newVal) -> {
-            if (currentJob != null && !oldVal.equals(newVal)) {
-                currentJob.setNoteDuration(newVal.intValue());
-                updateJobAndNotesTable();
+        Integer automationPort = Integer.getInteger(AUTOMATION_PORT_PROPERTY);
+        if (automationPort != null) {
+            startAutomationServer(automationPort);
+        }
+
+        // Slider listeners are added in setupSlider()
+        SplitPane mainSplitPane = new SplitPane(jobsList, createJobEditorPane());
+        mainSplitPane.setDividerPositions(0.25);
+
+        root = new BorderPane(mainSplitPane);
+        root.setTop(createMenuBar(primaryStage));
+        root.setBottom(createStatusBar());
+
+        Scene scene = new Scene(root, 1024, 768);
+        primaryStage.setTitle("Job Editor");
+        primaryStage.setScene(scene);
+        primaryStage.show();
+
+        loadJobDetails(currentJob);
+        if (recovered > 0) {
+            statusLabel.setText("Recovered " + recovered + " edits from the last session");
+        }
+    }
+
+    /**
+     * Starts the automation server. Jobs are changed through it on the
+     * FX thread, like every other edit. Its token is written to a file
+     * only the user can read, for scripts to send.
+     */
+    private void startAutomationServer(int port) {
+        Path out = Path.of(System.getProperty(AUTOMATION_OUT_PROPERTY, APP_DIRECTORY.resolve("automation").toString()));
+        try {
+            automationServer = new AutomationServer(repository, Platform::runLater, createRenderer(), out, port);
+            automationServer.start();
+            writeToken(automationServer.getToken());
+            statusLabel.setText("Automation server at " + automationServer.getAddress() + ", token in "
+                + AUTOMATION_TOKEN_PATH + ", writing to " + automationServer.getOutputDirectory());
+        } catch (IOException e) {
+            if (automationServer != null) {
+                automationServer.stop();
+            }
+            automationServer = null;
+            showError("Could not start the automation server on port " + port, e);
+        }
+    }
+
+    /**
+     * Writes the automation token to a file only its owner can read, or
+     * not at all if the file system cannot keep other users out.
+     */
+    private static void writeToken(String token) throws IOException {
+        Files.createDirectories(APP_DIRECTORY);
+        Files.deleteIfExists(AUTOMATION_TOKEN_PATH);
+        Set<String> views = FileSystems.getDefault().supportedFileAttributeViews();
+        if (views.contains("posix")) {
+            Files.createFile(AUTOMATION_TOKEN_PATH,
+                PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } else if (views.contains("acl")) {
+            // Created empty, and the token written only once the owner alone has access
+            Files.createFile(AUTOMATION_TOKEN_PATH);
+            AclFileAttributeView acl = Files.getFileAttributeView(AUTOMATION_TOKEN_PATH, AclFileAttributeView.class);
+            acl.setAcl(List.of(AclEntry.newBuilder()
+                .setType(AclEntryType.ALLOW)
+                .setPrincipal(acl.getOwner())
+                .setPermissions(EnumSet.allOf(AclEntryPermission.class))
+                .build()));
+        } else {
+            throw new IOException("Cannot keep the automation token from other users on this file system");
+        }
+        Files.writeString(AUTOMATION_TOKEN_PATH, token);
+    }
+
+    private void stopAutomationServer() {
+        if (automationServer != null) {
+            automationServer.stop();
+            automationServer = null;
+            statusLabel.setText("Automation server stopped");
+            try {
+                Files.deleteIfExists(AUTOMATION_TOKEN_PATH);
+            } catch (IOException e) {
+                System.out.println("Could not remove the automation token: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Gets the jobs of the last session back if it did not end cleanly,
+     * or starts with the default jobs, and opens the edit journal.
+     *
+     * @return the number of edits replayed from the journal
+     */
+    private int openSession() {
+        int replayed = 0;
+        try {
+            Files.createDirectories(APP_DIRECTORY);
+            if (Files.exists(AUTOSAVE_PATH)) {
+                // Jobs are read from a copy, as a library that is open
+                // cannot be replaced on every system, and checkpoints
+                // replace the autosave
+                Files.copy(AUTOSAVE_PATH, RECOVERED_PATH, StandardCopyOption.REPLACE_EXISTING);
+                repository.load(JobLibrary.open(RECOVERED_PATH));
+                journal = EditJournal.open(JOURNAL_PATH, this::applyEdit);
+                replayed = journal.getReplayedCount();
+            }
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Could not recover the last session: " + e.getMessage());
+        }
+        if (repository.size() == 0) {
+            repository.add(new Job("Job 1", 1000, 500, 200));
+            repository.add(new Job("Job 2", 1200, 400, 300));
+            repository.add(new Job("Job 3", 1500, 600, 100));
+        }
+        boolean recovering = journal != null;
+        if (!recovering) {
+            try {
+                Files.deleteIfExists(JOURNAL_PATH);
+                journal = EditJournal.open(JOURNAL_PATH, this::applyEdit);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not open the edit journal", e);
+            }
+        }
+        // Shown until a checkpoint works again, which the timer below retries
+        journal.setFailureListener((message, error) ->
+            Platform.runLater(() -> statusLabel.setText(message + ": " + error.getMessage())));
+        if (!recovering) {
+            checkpoint();
+        }
+
+        sealTimer.setOnFinished(event -> journal.seal());
+        checkpointTimer = new Timeline(new KeyFrame(Duration.minutes(1), event -> {
+            if (journal.isDirty() || externalChanges) {
+                checkpoint();
+            }
+        }));
+        checkpointTimer.setCycleCount(Animation.INDEFINITE);
+        checkpointTimer.play();
+        return replayed;
+    }
+
+    /**
+     * Saves all jobs as the base to recover from and empties the journal,
+     * both on the journal's writer thread. Jobs of a library that have
+     * not been created are copied from their records.
+     */
+    private void checkpoint() {
+        externalChanges = false;
+        journal.checkpoint(() -> JobLibrary.writeEntries(AUTOSAVE_PATH, repository.entries()));
+    }
+
+    private void recordEdit(EditJournal.Field field, Object before, Object after) {
+        journal.record(new EditJournal.Edit(currentJob.getId(), field, 0, before, after));
+        sealTimer.playFromStart();
+        validator.submit(currentJob.getId());
+    }
+
+    /**
+     * Sets a field of a job from the journal, for undo and redo and when
+     * replaying the last session before the window is built.
+     */
+    private void applyEdit(UUID jobId, EditJournal.Field field, int key, Object value) {
+        Job job = repository.get(jobId);
+        if (job == null) {
+            return;
+        }
+        switch (field) {
+            case NAME:
+                job.setName((String) value);
+                break;
+            case FROM_NOTE:
+                job.setFromNote((Integer) value);
+                break;
+            case TO_NOTE:
+                job.setToNote((Integer) value);
+                break;
+            case INTERVAL:
+                job.setInterval((Job.Interval) value);
+                break;
+            case NOTE_DURATION:
+                job.setNoteDuration((Integer) value);
+                break;
+            case NOTE_DECAY:
+                job.setNoteDecay((Integer) value);
+                break;
+            case NOTE_GAP:
+                job.setNoteGap((Integer) value);
+                break;
+            case VELOCITIES:
+                job.setSpecificVelocities(((VelocityProfile) value).asList());
+                break;
+            case SILENCE_THRESHOLD:
+                job.setSilenceThreshold((Integer) value);
+                break;
+            default:
+                // Edited rows belong to the notes table, not to the job
+                if (notesModel.getJob() == job) {
+                    notesModel.setEditedVelocities(key, (VelocityProfile) value);
+                }
+        }
+        if (jobsList == null) {
+            return;
+        }
+        validator.submit(jobId);
+        if (job != currentJob) {
+            // Show the job the edit was made to
+            int index = jobView.indexOf(jobId);
+            if (index >= 0) {
+                jobsList.getSelectionModel().select(index);
+            }
+        } else {
+            loadJobDetails(job);
+        }
+        jobsList.refresh();
+    }
+
+    private MenuBar createMenuBar(Stage stage) {
+        MenuItem openItem = new MenuItem("Open Library...");
+        openItem.setOnAction(event -> openLibrary(stage));
+
+        MenuItem saveItem = new MenuItem("Save Library...");
+        saveItem.setOnAction(event -> saveLibrary(stage));
+
+        MenuItem importItem = new MenuItem("Import Jobs...");
+        importItem.setOnAction(event -> importJobs(stage));
+
+        MenuItem exportJobItem = new MenuItem("Export Job as MIDI...");
+        exportJobItem.setOnAction(event -> {
+            if (currentJob != null) {
+                Job job = currentJob;
+                exportMidi(stage, job.getName(), () -> List.of(job));
             }
         });
 
-        decaySlider.valueProperty().addListener((obs, oldVal, newVal) -> {
-            if (currentJob != null && !oldVal.equals(newVal)) {
-                currentJob.setNoteDecay(newVal.intValue());
-                updateJobAndNotesTable();
+        MenuItem exportAllItem = new MenuItem("Export All Jobs as MIDI...");
+        exportAllItem.setOnAction(event -> exportMidi(stage, "Jobs", () -> List.copyOf(jobs)));
+
+        MenuItem planItem = new MenuItem("Plan Session...");
+        planItem.setOnAction(event -> planSession(stage));
+
+        Menu fileMenu = new Menu("File");
+        fileMenu.getItems().addAll(openItem, saveItem, importItem, new SeparatorMenuItem(), exportJobItem,
+            exportAllItem, planItem);
+
+        MenuItem playItem = new MenuItem("Play Job");
+        playItem.setOnAction(event -> playCurrentJob());
+
+        MenuItem stopItem = new MenuItem("Stop All");
+        stopItem.setOnAction(event -> stopPlayback());
+
+        MenuItem renderItem = new MenuItem("Render Job to WAV...");
+        renderItem.setOnAction(event -> renderCurrentJob(stage));
+
+        MenuItem renderAllItem = new MenuItem("Render All Jobs to WAV...");
+        renderAllItem.setOnAction(event -> renderAllJobs(stage));
+
+        MenuItem samplesItem = new MenuItem("Show Samples From...");
+        samplesItem.setOnAction(event -> chooseSampleDirectory(stage));
+
+        MenuItem postProcessItem = new MenuItem("Post-Process Samples...");
+        postProcessItem.setOnAction(event -> postProcessSamples(stage));
+
+        MenuItem undoItem = new MenuItem("Undo");
+        undoItem.setAccelerator(KeyCombination.keyCombination("Shortcut+Z"));
+        undoItem.setOnAction(event -> journal.undo());
+
+        MenuItem redoItem = new MenuItem("Redo");
+        redoItem.setAccelerator(KeyCombination.keyCombination("Shortcut+Shift+Z"));
+        redoItem.setOnAction(event -> journal.redo());
+
+        Menu editMenu = new Menu("Edit");
+        editMenu.getItems().addAll(undoItem, redoItem);
+        editMenu.setOnShowing(event -> {
+            undoItem.setDisable(!journal.canUndo());
+            redoItem.setDisable(!journal.canRedo());
+        });
+
+        Menu playbackMenu = new Menu("Playback");
+        playbackMenu.getItems().addAll(playItem, stopItem, new SeparatorMenuItem(), renderItem, renderAllItem,
+            samplesItem, postProcessItem);
+
+        CheckMenuItem metricsItem = new CheckMenuItem("Show Metrics");
+        metricsItem.setAccelerator(KeyCombination.keyCombination("Shortcut+M"));
+        metricsItem.selectedProperty().addListener((obs, oldVal, newVal) -> {
+            if (metricsPanel == null) {
+                metricsPanel = new MetricsPanel();
             }
+            root.setRight(newVal ? metricsPanel : null);
         });
 
-        gapSlider.valueProperty().addListener((obs, oldVal, newVal) -> {
-            if (currentJob != null && !oldVal.equals(newVal)) {
-                currentJob.setNoteGap(newVal.intValue());
-                updateJobAndNotesTable();
+        Menu viewMenu = new Menu("View");
+        viewMenu.getItems().add(metricsItem);
+
+        CheckMenuItem serverItem = new CheckMenuItem("Automation Server");
+        serverItem.setSelected(automationServer != null);
+        serverItem.setOnAction(event -> {
+            if (serverItem.isSelected()) {
+                startAutomationServer(Integer.getInteger(AUTOMATION_PORT_PROPERTY, AutomationServer.DEFAULT_PORT));
+                serverItem.setSelected(automationServer != null);
+            } else {
+                stopAutomationServer();
             }
         });
 
-        initializeComponents();
-        SplitPane mainSplitPane = new SplitPane(jobsList, createJobEditorPane());
-        mainSplitPane.setDividerPositions(0.25);
+        Menu toolsMenu = new Menu("Tools");
+        toolsMenu.getItems().add(serverItem);
 
-        Scene scene = new Scene(mainSplitPane, 1024, 768);
-        primaryStage.setTitle("Job Editor");
-        primaryStage.setScene(scene);
-        primaryStage.show();
+        return new MenuBar(fileMenu, editMenu, viewMenu, playbackMenu, toolsMenu);
+    }
 
-        loadJobDetails(currentJob);
+    private void playCurrentJob() {
+        if (currentJob == null) {
+            return;
+        }
+
+        try {
+            if (playbackEngine == null) {
+                synthesizer = MidiSystem.getSynthesizer();
+                synthesizer.open();
+                playbackEngine = new PlaybackEngine(synthesizer.getReceiver());
+            }
+        } catch (MidiUnavailableException e) {
+            showError("No synthesizer available", e);
+            return;
+        }
+
+        // Every job that plays at the same time gets its own channel,
+        // skipping channel 10 which is for drums
+        int channel = nextChannel;
+        nextChannel = (nextChannel + 1) % 16;
+        if (nextChannel == 9) {
+            nextChannel++;
+        }
+
+        String name = currentJob.getName();
+        PlaybackEngine.Playback playback = playbackEngine.play(currentJob, channel);
+        playbacks.add(playback);
+        playback.completion().whenComplete((jitter, error) -> Platform.runLater(() -> {
+            playbacks.remove(playback);
+            if (error != null) {
+                showError("Playback of " + name + " failed", error);
+            } else {
+                statusLabel.setText(name + ": " + jitter);
+            }
+        }));
+    }
+
+    private void renderCurrentJob(Stage stage) {
+        if (currentJob == null) {
+            return;
+        }
+        DirectoryChooser chooser = new DirectoryChooser();
+        chooser.setTitle("Render " + currentJob.getName());
+        File directory = chooser.showDialog(stage);
+        if (directory == null) {
+            return;
+        }
+
+        // Render the job as it is now; it may be edited while this runs
+        JobSnapshot job = currentJob.snapshot();
+        OfflineRenderer renderer = createRenderer();
+        long hits = cacheHits(renderer);
+        long misses = cacheMisses(renderer);
+        Task<List<Path>> task = new Task<>() {
+            @Override
+            protected List<Path> call() throws Exception {
+                return renderer.render(job, directory.toPath());
+            }
+        };
+        task.setOnSucceeded(event -> {
+            statusLabel.setText(String.format(
+                "%s: wrote %d files to %s, %d from the cache, %d rendered%s", job.getName(), task.getValue().size(),
+                directory, cacheHits(renderer) - hits, cacheMisses(renderer) - misses,
+                job.isStale() ? " (the job has changed since)" : ""));
+            samplesRendered(List.of(job), directory.toPath());
+        });
+        task.setOnFailed(event -> showError("Rendering " + job.getName() + " failed", task.getException()));
+        Thread thread = new Thread(task, "render");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void renderAllJobs(Stage stage) {
+        DirectoryChooser chooser = new DirectoryChooser();
+        chooser.setTitle("Render All Jobs");
+        File directory = chooser.showDialog(stage);
+        if (directory == null) {
+            return;
+        }
+
+        saveJobDetails(currentJob);
+        List<JobSnapshot> rendered = jobs.stream().map(Job::snapshot).toList();
+        OfflineRenderer renderer = createRenderer();
+        long hits = cacheHits(renderer);
+        long misses = cacheMisses(renderer);
+        Task<List<BatchRenderer.Result>> task = new Task<>() {
+            @Override
+            protected List<BatchRenderer.Result> call() {
+                BatchRenderer batch = new BatchRenderer(renderer);
+                // Task.updateProgress() hands the progress to the FX thread
+                return batch.render(rendered, directory.toPath(), (result, completed, total) -> {
+                    updateProgress(completed, total);
+                    updateMessage("Rendered " + result);
+                });
+            }
+        };
+        task.setOnSucceeded(event -> {
+            long failed = task.getValue().stream().filter(result -> result.getError() != null).count();
+            long stale = task.getValue().stream().filter(BatchRenderer.Result::isStale).count();
+            statusLabel.setText(String.format("Rendered %d jobs, %d of %d tasks failed, %d notes from the cache, %d rendered%s",
+                rendered.size(), failed, task.getValue().size(),
+                cacheHits(renderer) - hits, cacheMisses(renderer) - misses,
+                stale > 0 ? ", " + stale + " tasks from jobs changed since" : ""));
+            samplesRendered(rendered, directory.toPath());
+        });
+        task.setOnFailed(event -> showError("Rendering failed", task.getException()));
+        showProgress(task);
+
+        Thread thread = new Thread(task, "batch-render");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Shows the messages and progress of a task in the status bar until
+     * it ends. The label follows the task through a listener rather than
+     * a binding, so other status messages can still be set meanwhile.
+     */
+    private void showProgress(Task<?> task) {
+        ChangeListener<String> message = (obs, oldText, text) -> statusLabel.setText(text);
+        task.messageProperty().addListener(message);
+        statusProgress.progressProperty().bind(task.progressProperty());
+        progressTask = task;
+        task.runningProperty().addListener((obs, wasRunning, running) -> {
+            if (!running) {
+                task.messageProperty().removeListener(message);
+                // A task started since has the progress bar now
+                if (progressTask == task) {
+                    statusProgress.progressProperty().unbind();
+                    statusProgress.setProgress(task.getState() == Worker.State.SUCCEEDED ? 1 : 0);
+                    progressTask = null;
+                }
+            }
+        });
+    }
+
+    private void chooseSampleDirectory(Stage stage) {
+        if (currentJob == null) {
+            return;
+        }
+        DirectoryChooser chooser = new DirectoryChooser();
+        chooser.setTitle("Samples of " + currentJob.getName());
+        Path previous = sampleDirectories.get(currentJob.getId());
+        if (previous != null && Files.isDirectory(previous)) {
+            chooser.setInitialDirectory(previous.toFile());
+        }
+        File directory = chooser.showDialog(stage);
+        if (directory != null) {
+            samplesRendered(List.of(currentJob.snapshot()), directory.toPath());
+        }
+    }
+
+    /**
+     * Remembers where jobs were rendered to and shows the new waveforms.
+     */
+    private void samplesRendered(List<JobSnapshot> rendered, Path directory) {
+        for (JobSnapshot job : rendered) {
+            sampleDirectories.put(job.getId(), directory);
+        }
+        waveformView.reload();
+        showSamples();
+    }
+
+    /**
+     * Shows the samples of the selected row of the notes table under it,
+     * one lane per velocity, from where the job was last rendered to.
+     */
+    private void showSamples() {
+        Note note = notesTable.getSelectionModel().getSelectedItem();
+        Path directory = currentJob != null ? sampleDirectories.get(currentJob.getId()) : null;
+        if (note == null || directory == null) {
+            waveformView.setSamples(List.of());
+            return;
+        }
+        List<Path> files = new ArrayList<>();
+        for (int velocity : note.getVelocity()) {
+            files.add(directory.resolve(OfflineRenderer.fileName(currentJob.getName(), note.getNote(), velocity)));
+        }
+        waveformView.setSamples(files);
+    }
+
+    private OfflineRenderer createRenderer() {
+        if (renderCache == null) {
+            Path directory = APP_DIRECTORY.resolve("render-cache");
+            try {
+                renderCache = new RenderCache(directory, RENDER_CACHE_BYTES);
+            } catch (IOException e) {
+                System.out.println("Rendering without a cache: " + e.getMessage());
+            }
+        }
+        return new OfflineRenderer(OfflineRenderer.DEFAULT_SAMPLE_RATE, 0, renderCache);
+    }
+
+    private static long cacheHits(OfflineRenderer renderer) {
+        return renderer.getCache() != null ? renderer.getCache().getHits() : 0;
+    }
+
+    private static long cacheMisses(OfflineRenderer renderer) {
+        return renderer.getCache() != null ? renderer.getCache().getMisses() : 0;
+    }
+
+    /**
+     * Makes a cell of the jobs list, with a badge counting the problems
+     * of its job and a tooltip listing them.
+     */
+    private ListCell<Job> createJobCell() {
+        Label badge = new Label();
+        Tooltip tooltip = new Tooltip();
+        return new ListCell<>() {
+            @Override
+            protected void updateItem(Job job, boolean empty) {
+                super.updateItem(job, empty);
+                List<JobValidator.Problem> problems = empty || job == null ? List.of()
+                    : validator.getProblems(job.getId());
+                setText(empty || job == null ? null : job.toString());
+                if (problems.isEmpty()) {
+                    setGraphic(null);
+                    setTooltip(null);
+                    return;
+                }
+                boolean error = false;
+                StringBuilder text = new StringBuilder();
+                for (JobValidator.Problem problem : problems) {
+                    error |= problem.getSeverity() == JobValidator.Severity.ERROR;
+                    text.append(text.length() > 0 ? "\n" : "").append(problem);
+                }
+                badge.setText(Integer.toString(problems.size()));
+                badge.setStyle("-fx-background-color: " + (error ? "#c62828" : "#ef6c00") + "; -fx-text-fill: white;"
+                    + " -fx-font-weight: bold; -fx-background-radius: 8; -fx-padding: 0 5 0 5;");
+                tooltip.setText(text.toString());
+                setGraphic(badge);
+                setTooltip(tooltip);
+            }
+        };
+    }
+
+    private HBox createStatusBar() {
+        HBox statusBar = new HBox(10, statusProgress, statusLabel);
+        statusBar.setAlignment(Pos.CENTER_LEFT);
+        statusBar.setPadding(new Insets(4, 10, 4, 10));
+        return statusBar;
+    }
+
+    private void stopPlayback() {
+        for (PlaybackEngine.Playback playback : playbacks) {
+            playback.stop();
+        }
+    }
+
+    @Override
+    public void stop() {
+        stopAutomationServer();
+        validator.close();
+        stopPlayback();
+        if (synthesizer != null) {
+            synthesizer.close();
+        }
+        if (Boolean.getBoolean(METRICS_PROPERTY)) {
+            System.out.print(Metrics.report());
+        }
+        // A clean exit leaves nothing to recover
+        checkpointTimer.stop();
+        try {
+            journal.close();
+            Files.deleteIfExists(JOURNAL_PATH);
+            Files.deleteIfExists(AUTOSAVE_PATH);
+        } catch (IOException e) {
+            System.out.println("Could not close the edit journal: " + e.getMessage());
+        }
+        try {
+            Files.deleteIfExists(RECOVERED_PATH);
+        } catch (IOException e) {
+            // Still open on Windows; replaced by the next recovery
+        }
+    }
+
+    private FileChooser createLibraryChooser(String title) {
+        FileChooser chooser = new FileChooser();
+        chooser.setTitle(title);
+        chooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("Job libraries", "*.mjl"));
+        return chooser;
+    }
+
+    private void openLibrary(Stage stage) {
+        File file = createLibraryChooser("Open Library").showOpenDialog(stage);
+        if (file == null) {
+            return;
+        }
+
+        try {
+            // Jobs are only created as the list shows or edits them; the
+            // list is replaced when the repository reports the reset
+            JobLibrary library = JobLibrary.open(file.toPath());
+            saveJobDetails(currentJob);
+            repository.load(library);
+        } catch (IOException e) {
+            showError("Could not open " + file.getName(), e);
+            return;
+        }
+
+        // The library is the new base to recover from
+        journal.clearHistory();
+        externalChanges = false;
+        journal.checkpoint(() -> {
+            Path copy = Files.createTempFile(APP_DIRECTORY, "autosave", ".tmp");
+            Files.copy(file.toPath(), copy, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(copy, AUTOSAVE_PATH, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        });
+    }
+
+    /**
+     * Brings the jobs list up to date with changes to the repository,
+     * which may come from other threads.
+     */
+    private void applyJobChanges(List<JobRepository.Change> changes) {
+        boolean updated = false;
+        // Jobs added one after another go into the list as one change
+        List<Job> added = new ArrayList<>();
+        for (JobRepository.Change change : changes) {
+            switch (change.getType()) {
+                case RESET:
+                    added.clear();
+                    jobView = repository.list();
+                    jobs = FXCollections.observableList(jobView);
+                    jobsList.setItems(jobs);
+                    if (!jobs.isEmpty()) {
+                        jobsList.getSelectionModel().selectFirst();
+                    }
+                    break;
+                case ADDED:
+                    externalChanges = true;
+                    // Jobs already in the list were added before it was made
+                    Job job = repository.get(change.getId());
+                    if (job != null && !jobView.contains(change.getId())) {
+                        added.add(job);
+                    }
+                    break;
+                case REMOVED:
+                    externalChanges = true;
+                    addJobs(added);
+                    int index = jobView.indexOf(change.getId());
+                    if (index >= 0) {
+                        jobs.remove(index);
+                    }
+                    break;
+                default:
+                    updated = true;
+                    externalChanges = true;
+                    if (currentJob != null && currentJob.getId().equals(change.getId())) {
+                        loadJobDetails(currentJob);
+                    }
+            }
+        }
+        addJobs(added);
+        if (updated) {
+            jobsList.refresh();
+        }
+    }
+
+    private void addJobs(List<Job> added) {
+        if (!added.isEmpty()) {
+            jobs.addAll(added);
+            added.clear();
+        }
+    }
+
+    private void importJobs(Stage stage) {
+        FileChooser chooser = new FileChooser();
+        chooser.setTitle("Import Jobs");
+        chooser.getExtensionFilters().add(
+            new FileChooser.ExtensionFilter("Job sheets", "*.csv", "*.jsonl", "*.ndjson", "*.json"));
+        File file = chooser.showOpenDialog(stage);
+        if (file == null) {
+            return;
+        }
+
+        long size = file.length();
+        AtomicLong duplicates = new AtomicLong();
+        Task<JobImporter.Result> task = new Task<>() {
+            @Override
+            protected JobImporter.Result call() throws IOException {
+                // The repository takes the jobs on this thread and hands
+                // them to the list in batches on the FX thread
+                return new JobImporter().importJobs(file.toPath(), (batch, bytesRead) -> {
+                    duplicates.addAndGet(batch.size() - repository.addAll(batch));
+                    updateProgress(bytesRead, size);
+                    updateMessage(String.format("Importing %s: %d%%", file.getName(), bytesRead * 100 / Math.max(1, size)));
+                });
+            }
+        };
+        task.setOnSucceeded(event -> {
+            JobImporter.Result result = task.getValue();
+            statusLabel.setText(String.format("Imported %d jobs from %s, %d rows with errors%s",
+                result.getImported() - duplicates.get(), file.getName(), result.getErrorCount(),
+                duplicates.get() > 0 ? ", " + duplicates.get() + " already in the list" : ""));
+            if (result.getErrorCount() > 0) {
+                showImportErrors(file.getName(), result);
+            }
+            // Imported jobs are not in the journal, so save them for recovery now
+            checkpoint();
+        });
+        task.setOnFailed(event -> showError("Could not import " + file.getName(), task.getException()));
+        showProgress(task);
+
+        Thread thread = new Thread(task, "job-import");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void showImportErrors(String fileName, JobImporter.Result result) {
+        StringBuilder text = new StringBuilder();
+        for (JobImporter.RowError error : result.getErrors()) {
+            text.append(error).append('\n');
+        }
+        if (result.getErrorCount() > result.getErrors().size()) {
+            text.append("... and ").append(result.getErrorCount() - result.getErrors().size()).append(" more\n");
+        }
+        TextArea errors = new TextArea(text.toString());
+        errors.setEditable(false);
+
+        Alert alert = new Alert(Alert.AlertType.WARNING);
+        alert.setHeaderText(result.getErrorCount() + " rows of " + fileName + " could not be imported");
+        alert.getDialogPane().setContent(errors);
+        alert.show();
+    }
+
+    private void saveLibrary(Stage stage) {
+        FileChooser chooser = createLibraryChooser("Save Library");
+        chooser.setInitialFileName("Jobs.mjl");
+        File file = chooser.showSaveDialog(stage);
+        if (file == null) {
+            return;
+        }
+
+        try {
+            saveJobDetails(currentJob);
+            JobLibrary.write(file.toPath(), jobs);
+        } catch (IOException | IllegalArgumentException e) {
+            showError("Could not save " + file.getName(), e);
+        }
+    }
+
+    private void exportMidi(Stage stage, String name, Supplier<List<Job>> jobsToExport) {
+        FileChooser chooser = new FileChooser();
+        chooser.setTitle("Export MIDI");
+        chooser.setInitialFileName(name + ".mid");
+        chooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("MIDI files", "*.mid"));
+        File file = chooser.showSaveDialog(stage);
+        if (file == null) {
+            return;
+        }
+
+        List<JobSnapshot> exported = jobsToExport.get().stream().map(Job::snapshot).toList();
+        Task<Void> task = new Task<>() {
+            @Override
+            protected Void call() throws IOException {
+                new MidiExporter().exportSnapshots(exported, file.toPath());
+                return null;
+            }
+        };
+        task.setOnFailed(event -> showError("Export failed", task.getException()));
+        Thread thread = new Thread(task, "midi-export");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void planSession(Stage stage) {
+        List<Integer> choices = new ArrayList<>();
+        for (int channels = 1; channels <= SessionPlanner.MAX_CHANNELS; channels++) {
+            choices.add(channels);
+        }
+        ChoiceDialog<Integer> dialog = new ChoiceDialog<>(SessionPlanner.DEFAULT_CHANNELS, choices);
+        dialog.setTitle("Plan Session");
+        dialog.setHeaderText("Play all jobs with the decay and gap of each note overlapping the next ones");
+        dialog.setContentText("MIDI channels:");
+        Integer channels = dialog.showAndWait().orElse(null);
+        if (channels == null) {
+            return;
+        }
+
+        FileChooser chooser = new FileChooser();
+        chooser.setTitle("Export Session Plan");
+        chooser.setInitialFileName("Session.csv");
+        chooser.getExtensionFilters().addAll(new FileChooser.ExtensionFilter("CSV files", "*.csv"),
+            new FileChooser.ExtensionFilter("MIDI files", "*.mid"));
+        File file = chooser.showSaveDialog(stage);
+        if (file == null) {
+            return;
+        }
+
+        List<JobSnapshot> planned = jobs.stream().map(Job::snapshot).toList();
+        Task<SessionPlanner.Plan> task = new Task<>() {
+            @Override
+            protected SessionPlanner.Plan call() throws IOException {
+                SessionPlanner.Plan plan = new SessionPlanner(channels).planSnapshots(planned);
+                if (file.getName().toLowerCase().endsWith(".mid")) {
+                    new MidiExporter().exportPlan(plan, file.toPath());
+                } else {
+                    plan.writeCsv(file.toPath());
+                }
+                return plan;
+            }
+        };
+        task.setOnSucceeded(event -> statusLabel.setText("Session plan: " + task.getValue()));
+        task.setOnFailed(event -> showError("Planning the session failed", task.getException()));
+        Thread thread = new Thread(task, "session-plan");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void postProcessSamples(Stage stage) {
+        if (currentJob == null) {
+            return;
+        }
+        Path directory = sampleDirectories.get(currentJob.getId());
+        if (directory == null) {
+            chooseSampleDirectory(stage);
+            directory = sampleDirectories.get(currentJob.getId());
+            if (directory == null) {
+                return;
+            }
+        }
+
+        String trim = "Trim and measure";
+        String normalize = String.format("Trim, measure and normalize to %.0f dBFS",
+            SamplePostProcessor.DEFAULT_TARGET_PEAK);
+        ChoiceDialog<String> dialog = new ChoiceDialog<>(trim, trim, normalize);
+        dialog.setTitle("Post-Process Samples");
+        dialog.setHeaderText(String.format("Trim the samples of %s below %d dB, in place",
+            currentJob.getName(), currentJob.getSilenceThreshold()));
+        dialog.setContentText("Processing:");
+        String choice = dialog.showAndWait().orElse(null);
+        if (choice == null) {
+            return;
+        }
+
+        saveJobDetails(currentJob);
+        JobSnapshot job = currentJob.snapshot();
+        Path samples = directory;
+        Task<List<SamplePostProcessor.Result>> task = new Task<>() {
+            @Override
+            protected List<SamplePostProcessor.Result> call() throws IOException {
+                return new SamplePostProcessor().process(job, samples, choice.equals(normalize));
+            }
+        };
+        task.setOnSucceeded(event -> {
+            long failed = task.getValue().stream().filter(result -> result.getError() != null).count();
+            statusLabel.setText(String.format("%s: processed %d samples, %d failed; see %s", job.getName(),
+                task.getValue().size() - failed, failed, SamplePostProcessor.reportFileName(job.getName())));
+            waveformView.reload();
+        });
+        task.setOnFailed(event -> showError("Post-processing " + job.getName() + " failed", task.getException()));
+        Thread thread = new Thread(task, "post-process");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void showError(String header, Throwable error) {
+        Alert alert = new Alert(Alert.AlertType.ERROR);
+        alert.setHeaderText(header);
+        alert.setContentText(error.getMessage());
+        alert.show();
     }
 
     private void saveJobDetails(Job job) {
@@ -120,38 +1061,42 @@ public class Main extends Application {
             job.setFromNote(startNoteSpinner.getValue());
             job.setToNote(endNoteSpinner.getValue());
             job.setInterval((Job.Interval) intervalGroup.getSelectedToggle().getUserData());
-            job.setNoteDuration((int) durationSlider.getValue());
-            job.setNoteDecay((int) decaySlider.getValue());
-            job.setNoteGap((int) gapSlider.getValue());
+            // The sliders change the job as they are moved; a value they
+            // clamped when the job was shown is not written back
+            job.setSilenceThreshold(thresholdSpinner.getValue());
         }
     }
 
     private void initializeComponents() {
-        canvas = new Canvas(500, 50);
-        durationSlider = new Slider(0, 5000, 1000);
-        decaySlider = new Slider(0, 4500, 500);
-        gapSlider = new Slider(0, 500, 100);
+        timeline = new TimelineView();
+        waveformView = new WaveformView();
+        // Jobs refuse timings of zero, so the sliders start at 1 ms
+        durationSlider = new Slider(1, 5000, 1000);
+        decaySlider = new Slider(1, 4500, 500);
+        gapSlider = new Slider(1, 500, 100);
         durationValueLabel = new Label();
         decayValueLabel = new Label();
         gapValueLabel = new Label();
         nameField = new TextField();
         startNoteSpinner = new Spinner<>(0, 127, 0);
         endNoteSpinner = new Spinner<>(0, 127, 127);
+        thresholdSpinner = new Spinner<>(Job.MIN_SILENCE_THRESHOLD, 0, Job.DEFAULT_SILENCE_THRESHOLD);
         intervalGroup = new ToggleGroup();
     }
 
     private void updateJobAndNotesTable() {
-        if (currentJob != null && notesTable != null) {
-            notesTable.getItems().clear();
-            notesTable.getItems().addAll(createNotesList(currentJob));
+        updateNotesTable(currentJob);
+        if (currentJob != null && timeline != null) {
+            // Only the tiles from the first changed note on are drawn again
+            timeline.setSchedule(currentJob.getSchedule());
         }
     }
 
 
     private void updateNotesTable(Job job) {
         if (job != null && notesTable != null) {
-            notesTable.getItems().clear();
-            notesTable.getItems().addAll(createNotesList(job));
+            // Rows are worked out on demand, see NotesListModel
+            notesModel.setJob(job);
         }
     }
 
@@ -164,10 +1109,17 @@ public class Main extends Application {
         nameField.setText(job.getName());
         startNoteSpinner.getValueFactory().setValue(job.getFromNote());
         endNoteSpinner.getValueFactory().setValue(job.getToNote());
-
-        durationSlider.setValue(job.getNoteDuration());
-        decaySlider.setValue(job.getNoteDecay());
-        gapSlider.setValue(job.getNoteGap());
+        thresholdSpinner.getValueFactory().setValue(job.getSilenceThreshold());
+
+        // A slider clamps a value outside its range, which must not change the job
+        showingJob = true;
+        try {
+            durationSlider.setValue(job.getNoteDuration());
+            decaySlider.setValue(job.getNoteDecay());
+            gapSlider.setValue(job.getNoteGap());
+        } finally {
+            showingJob = false;
+        }
 
         durationValueLabel.setText(job.getNoteDuration() + " ms");
         decayValueLabel.setText(job.getNoteDecay() + " ms");
@@ -177,7 +1129,7 @@ public class Main extends Application {
         job.setSelectedInterval(job.getInterval());
 
         currentJob.setInterval(job.getInterval());
-        drawTiming();
+        editScheduler.requestUpdate();
     }
 
     private SplitPane createJobEditorPane() {
@@ -187,8 +1139,9 @@ public class Main extends Application {
 
         SplitPane jobEditorSplitPane = new SplitPane();
         jobEditorSplitPane.setOrientation(Orientation.VERTICAL);
-        jobEditorSplitPane.getItems().addAll(jobDetailsAndTimingEditor, notesTable);
-        jobEditorSplitPane.setDividerPositions(0.7);
+        jobEditorSplitPane.getItems().addAll(jobDetailsAndTimingEditor, notesTable, waveformView);
+        jobEditorSplitPane.setDividerPositions(0.55, 0.8);
+        notesTable.getSelectionModel().selectedItemProperty().addListener((obs, oldNote, newNote) -> showSamples());
 
         VBox.setVgrow(notesTable, Priority.ALWAYS);
 
@@ -221,11 +1174,16 @@ public class Main extends Application {
         gridPane.add(endNoteLabel, 0, 2);
         gridPane.add(endNoteSpinner, 1, 2);
 
+        Label thresholdLabel = new Label("Silence Below (dB):");
+        thresholdLabel.setStyle("-fx-font-weight: bold;");
+        gridPane.add(thresholdLabel, 0, 3);
+        gridPane.add(thresholdSpinner, 1, 3);
+
         HBox intervalBox = createIntervalBox();
         TitledPane intervalPane = new TitledPane("Interval", intervalBox);
         intervalPane.setStyle("-fx-font-weight: bold;");
         intervalPane.setExpanded(true);
-        gridPane.add(intervalPane, 0, 3, 2, 1);
+        gridPane.add(intervalPane, 0, 4, 2, 1);
 
         ColumnConstraints cc = new ColumnConstraints();
         cc.setHgrow(Priority.ALWAYS);
@@ -269,11 +1227,11 @@ public class Main extends Application {
 
     private VBox createJobTimingEditor() {
         VBox editor = new VBox(
-            createSliderSection("Duration", 100, 5000, durationSlider, durationValueLabel),
-            createSliderSection("Decay", 100, 4500, decaySlider, decayValueLabel),
-            createSliderSection("Gap", 100, 500, gapSlider, gapValueLabel)
+            createSliderSection("Duration", 1, 5000, durationSlider, durationValueLabel),
+            createSliderSection("Decay", 1, 4500, decaySlider, decayValueLabel),
+            createSliderSection("Gap", 1, 500, gapSlider, gapValueLabel)
         );
-        editor.getChildren().add(canvas);
+        editor.getChildren().add(timeline);
         editor.setSpacing(20);
         editor.setPadding(new Insets(20, 40, 20, 40));
         return editor;
@@ -288,6 +1246,8 @@ public class Main extends Application {
         HBox labelBox = new HBox(5, label, valueLabel);
         labelBox.setPadding(new Insets(0, 20, 0, 20));
 
+        slider.setMin(min);
+        slider.setMax(max);
         slider.setPadding(new Insets(0, 20, 0, 20));
         setupSlider(slider, valueLabel);
 
@@ -303,37 +1263,36 @@ public class Main extends Application {
         slider.valueProperty().addListener((obs, oldVal, newVal) -> {
             valueLabel.setText(String.format("%.0f ms", newVal.doubleValue()));
             updateJobBasedOnSlider(slider);
-            drawTiming();
-            if (slider == durationSlider || slider == decaySlider || slider == gapSlider) {
-                updateJobAndNotesTable(); // Update notes table when relevant sliders change
+            // The table and the timing are redrawn once per pulse
+            editScheduler.requestUpdate();
+        });
+        // A drag is one edit
+        slider.valueChangingProperty().addListener((obs, wasChanging, changing) -> {
+            if (!changing) {
+                journal.seal();
             }
         });
     }
 
     private void updateJobBasedOnSlider(Slider slider) {
-        if (slider == durationSlider) {
-            currentJob.setNoteDuration((int) slider.getValue());
-        } else if (slider == decaySlider) {
-            currentJob.setNoteDecay((int) slider.getValue());
-        } else if (slider == gapSlider) {
-            currentJob.setNoteGap((int) slider.getValue());
+        if (currentJob == null || showingJob) {
+            return;
+        }
+        int value = (int) slider.getValue();
+        // The job is changed first, so values it refuses are not recorded
+        if (slider == durationSlider && currentJob.getNoteDuration() != value) {
+            int before = currentJob.getNoteDuration();
+            currentJob.setNoteDuration(value);
+            recordEdit(EditJournal.Field.NOTE_DURATION, before, value);
+        } else if (slider == decaySlider && currentJob.getNoteDecay() != value) {
+            int before = currentJob.getNoteDecay();
+            currentJob.setNoteDecay(value);
+            recordEdit(EditJournal.Field.NOTE_DECAY, before, value);
+        } else if (slider == gapSlider && currentJob.getNoteGap() != value) {
+            int before = currentJob.getNoteGap();
+            currentJob.setNoteGap(value);
+            recordEdit(EditJournal.Field.NOTE_GAP, before, value);
         }
-    }
-
-    private void drawTiming() {
-        GraphicsContext gc = canvas.getGraphicsContext2D();
-        gc.clearRect(0, 0, canvas.getWidth(), canvas.getHeight());
-        double total = currentJob.getNoteDuration() + currentJob.getNoteDecay() + currentJob.getNoteGap();
-        double durationWidth = (currentJob.getNoteDuration() / total) * canvas.getWidth();
-        double decayWidth = (currentJob.getNoteDecay() / total) * canvas.getWidth();
-        double gapWidth = (currentJob.getNoteGap() / total) * canvas.getWidth();
-
-        gc.setFill(javafx.scene.paint.Color.RED);
-        gc.fillRect(0, 10, durationWidth, 30);
-        gc.setFill(javafx.scene.paint.Color.GREEN);
-        gc.fillRect(durationWidth, 10, decayWidth, 30);
-        gc.setFill(javafx.scene.paint.Color.BLUE);
-        gc.fillRect(durationWidth + decayWidth, 10, gapWidth, 30);
     }
 
     private TableView<Note> createNotesTableView() {
@@ -341,37 +1300,40 @@ public class Main extends Application {
         table.setColumnResizePolicy(TableView.CONSTRAINED_RESIZE_POLICY);
 
         // Add columns to the table
+        // The cells read the notes' values directly; the model reports
+        // changed rows as updates, and the table then reads them again
         TableColumn<Note, Integer> noteColumn = new TableColumn<>("Note");
-        noteColumn.setCellValueFactory(new PropertyValueFactory<>("note"));
+        noteColumn.setCellValueFactory(cellData -> new ReadOnlyObjectWrapper<>(cellData.getValue().getNote()));
 
         TableColumn<Note, List<Integer>> velocityColumn = new TableColumn<>("Velocity");
-        velocityColumn.setCellValueFactory(cellData -> new SimpleObjectProperty<>(cellData.getValue().getVelocity()));
-        velocityColumn.setCellFactory(TextFieldTableCell.forTableColumn(new StringConverter<List<Integer>>() {
-            @Override
-            public String toString(List<Integer> velocities) {
-                return velocities.stream().map(Object::toString).collect(Collectors.joining(", "));
-            }
-
-            @Override
-            public List<Integer> fromString(String string) {
-                return Arrays.stream(string.split(",")).map(Integer::parseInt).collect(Collectors.toList());
-            }
-        }));
+        velocityColumn.setCellValueFactory(cellData -> new ReadOnlyObjectWrapper<>(cellData.getValue().getVelocity()));
+        velocityColumn.setCellFactory(TextFieldTableCell.forTableColumn(new VelocityStringConverter()));
 
         // Set the column editable
         velocityColumn.setEditable(true);
 
         // Add setOnEditCommit for editing
         velocityColumn.setOnEditCommit(event -> {
-            Note note = event.getRowValue();
-            note.setVelocity(event.getNewValue());
+            int key = notesModel.getKey(event.getTablePosition().getRow());
+            VelocityProfile before = notesModel.getEditedVelocities(key);
+            try {
+                notesModel.setVelocities(event.getTablePosition().getRow(), event.getNewValue());
+            } catch (IllegalArgumentException e) {
+                // Nothing was changed; show the row's velocities again
+                statusLabel.setText(e.getMessage());
+                event.getTableView().refresh();
+                return;
+            }
+            journal.record(new EditJournal.Edit(notesModel.getJob().getId(), EditJournal.Field.NOTE_VELOCITIES,
+                key, before, notesModel.getEditedVelocities(key)));
+            journal.seal();
         });
 
         TableColumn<Note, Integer> startTimeColumn = new TableColumn<>("Start (ms)");
-        startTimeColumn.setCellValueFactory(new PropertyValueFactory<>("startTime"));
+        startTimeColumn.setCellValueFactory(cellData -> new ReadOnlyObjectWrapper<>(cellData.getValue().getStartTime()));
 
         TableColumn<Note, Integer> endTimeColumn = new TableColumn<>("End (ms)");
-        endTimeColumn.setCellValueFactory(new PropertyValueFactory<>("endTime"));
+        endTimeColumn.setCellValueFactory(cellData -> new ReadOnlyObjectWrapper<>(cellData.getValue().getEndTime()));
 
         // Set columns editable
         table.setEditable(true);
@@ -379,17 +1341,17 @@ public class Main extends Application {
         // Add columns to the table
         table.getColumns().addAll(noteColumn, velocityColumn, startTimeColumn, endTimeColumn);
 
-        return table;
-    }
-
-    private ObservableList<Note> createNotesList(Job job) {
-        List<Note> list = new ArrayList<>();
-        // Generate notes based on job details
-        // Example implementation, you should modify this based on your logic
-        for (int i = job.getFromNote(); i <= job.getToNote(); i++) {
-            list.add(new Note(i, new ArrayList<>(Arrays.asList(60)), i * 100, i * 100 + 1000));
+        // Rows are computed in note order, so the table is not sortable
+        for (TableColumn<Note, ?> column : table.getColumns()) {
+            column.setSortable(false);
         }
-        return FXCollections.observableArrayList(list);
+        table.setItems(notesModel);
+
+        CheckMenuItem expandItem = new CheckMenuItem("Expand Velocity Layers");
+        expandItem.selectedProperty().addListener((obs, oldVal, newVal) -> notesModel.setExpanded(newVal));
+        table.setContextMenu(new ContextMenu(expandItem));
+
+        return table;
     }
 
     public static void main(String[] args) {
@@ -0,0 +1,166 @@
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts and times the hot paths of the editor and the engines, for
+ * the metrics panel and the report printed on exit.
+ *
+ * Recording only adds to a few {@link LongAdder}s, so it is cheap
+ * enough to stay on all the time and may be done from any thread. For
+ * a timeline of single calls, record a flight recording instead; the
+ * same paths commit the events in {@link EditorEvents}.
+ */
+public final class Metrics {
+    private static final List<Metric> metrics = new CopyOnWriteArrayList<>();
+
+    /** Schedules worked out from jobs, with the rows of each. */
+    public static final Metric SCHEDULE = register("Schedule", "rows");
+    /** Notes lists made by {@link Job#getNotes()}. */
+    public static final Metric JOB_NOTES = register("Job notes", "notes");
+    /** Updates of the notes table rows, with the rows laid out. */
+    public static final Metric NOTES_TABLE = register("Notes table refresh", "rows");
+    /** Editor updates, with the edits merged into each. */
+    public static final Metric EDIT_UPDATE = register("Edit update", "edits");
+    /** Timeline tiles drawn, with the rows in each. */
+    public static final Metric TIMELINE_TILE = register("Timeline tile", "rows");
+    /** Timeline repaints on the FX thread, with the tiles copied. */
+    public static final Metric TIMELINE_PAINT = register("Timeline paint", "tiles");
+    /** Offline renders, with the notes rendered or copied from the cache. */
+    public static final Metric RENDER = register("Render", "notes");
+    /** Peak pyramids built from WAV files, with the frames read. */
+    public static final Metric PEAK_PYRAMID = register("Peak pyramid", "frames");
+    /** Waveform repaints, with the columns drawn. */
+    public static final Metric WAVEFORM_PAINT = register("Waveform paint", "columns");
+    /** MIDI exports, with the notes written. */
+    public static final Metric MIDI_EXPORT = register("MIDI export", "notes");
+    /** Samples trimmed, measured or normalized, with their frames. */
+    public static final Metric POST_PROCESS = register("Post-process", "frames");
+    /** Passes of the job validator, with the jobs checked. */
+    public static final Metric VALIDATION = register("Validation", "jobs");
+    /** How late playback events were sent. */
+    public static final Metric PLAYBACK_LATENESS = register("Playback lateness", "events");
+
+    private Metrics() {
+    }
+
+    /**
+     * A timed path: how often it ran, how long it took and how much
+     * work it did.
+     */
+    public static final class Metric {
+        private final String name;
+        private final String unit;
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+        private final LongAdder units = new LongAdder();
+
+        private Metric(String name, String unit) {
+            this.name = name;
+            this.unit = unit;
+        }
+
+        /**
+         * Records one run.
+         *
+         * @param nanos how long it took
+         * @param units how much work it did, in the metric's unit
+         */
+        public void record(long nanos, long units) {
+            this.count.increment();
+            this.totalNanos.add(nanos);
+            this.maxNanos.accumulate(nanos);
+            this.units.add(units);
+        }
+
+        public String getName() {
+            return this.name;
+        }
+
+        /**
+         * Gets the unit the work is counted in, such as "rows".
+         */
+        public String getUnit() {
+            return this.unit;
+        }
+
+        public long getCount() {
+            return this.count.sum();
+        }
+
+        public long getTotalNanos() {
+            return this.totalNanos.sum();
+        }
+
+        public double getMeanNanos() {
+            long count = getCount();
+            return count == 0 ? 0 : (double) getTotalNanos() / count;
+        }
+
+        public long getMaxNanos() {
+            return this.maxNanos.get();
+        }
+
+        public long getUnits() {
+            return this.units.sum();
+        }
+
+        /**
+         * Gets the work done per second of time spent.
+         */
+        public double getThroughput() {
+            long nanos = getTotalNanos();
+            return nanos == 0 ? 0 : getUnits() * 1e9 / nanos;
+        }
+
+        void reset() {
+            this.count.reset();
+            this.totalNanos.reset();
+            this.maxNanos.reset();
+            this.units.reset();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d calls, mean %.3f ms, max %.3f ms, %d %s (%.0f/s)", this.name, getCount(),
+                getMeanNanos() / 1e6, getMaxNanos() / 1e6, getUnits(), this.unit, getThroughput());
+        }
+    }
+
+    /**
+     * Gets all metrics, in the order they were registered.
+     */
+    public static List<Metric> all() {
+        return List.copyOf(metrics);
+    }
+
+    /**
+     * Sets all metrics back to zero.
+     */
+    public static void reset() {
+        for (Metric metric : metrics) {
+            metric.reset();
+        }
+    }
+
+    /**
+     * Gets a report of the metrics that have recorded anything, one per line.
+     */
+    public static String report() {
+        StringBuilder report = new StringBuilder();
+        for (Metric metric : metrics) {
+            if (metric.getCount() > 0) {
+                report.append(metric).append(System.lineSeparator());
+            }
+        }
+        return report.toString();
+    }
+
+    private static Metric register(String name, String unit) {
+        Metric metric = new Metric(name, unit);
+        metrics.add(metric);
+        return metric;
+    }
+}
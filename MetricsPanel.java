@@ -0,0 +1,71 @@
+import java.util.function.Function;
+import javafx.animation.Animation;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
+import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.collections.FXCollections;
+import javafx.geometry.Insets;
+import javafx.scene.control.Button;
+import javafx.scene.control.Label;
+import javafx.scene.control.TableColumn;
+import javafx.scene.control.TableView;
+import javafx.scene.layout.Priority;
+import javafx.scene.layout.VBox;
+import javafx.util.Duration;
+
+/**
+ * A panel with the {@link Metrics} of the editor, brought up to date
+ * twice a second while it is shown.
+ */
+public final class MetricsPanel extends VBox {
+    private final TableView<Metrics.Metric> table = new TableView<>(FXCollections.observableList(Metrics.all()));
+    private final Timeline refresher = new Timeline(new KeyFrame(Duration.millis(500), event -> this.table.refresh()));
+
+    public MetricsPanel() {
+        this.table.setColumnResizePolicy(TableView.CONSTRAINED_RESIZE_POLICY_FLEX_LAST_COLUMN);
+        this.table.getColumns().add(column("Path", 130, Metrics.Metric::getName));
+        this.table.getColumns().add(column("Calls", 60, Metrics.Metric::getCount));
+        this.table.getColumns().add(column("Mean (ms)", 70,
+            metric -> String.format("%.3f", metric.getMeanNanos() / 1e6)));
+        this.table.getColumns().add(column("Max (ms)", 70,
+            metric -> String.format("%.3f", metric.getMaxNanos() / 1e6)));
+        this.table.getColumns().add(column("Per second", 110,
+            metric -> String.format("%.0f %s", metric.getThroughput(), metric.getUnit())));
+        for (TableColumn<Metrics.Metric, ?> column : this.table.getColumns()) {
+            column.setSortable(false);
+        }
+        VBox.setVgrow(this.table, Priority.ALWAYS);
+
+        Label title = new Label("Metrics");
+        title.setStyle("-fx-font-weight: bold;");
+        Button resetButton = new Button("Reset");
+        resetButton.setOnAction(event -> {
+            Metrics.reset();
+            this.table.refresh();
+        });
+
+        getChildren().addAll(title, this.table, resetButton);
+        setSpacing(5);
+        setPadding(new Insets(10));
+        setPrefWidth(460);
+
+        this.refresher.setCycleCount(Animation.INDEFINITE);
+        // Only refresh while the panel is part of the window
+        sceneProperty().addListener((obs, oldScene, newScene) -> {
+            if (newScene != null) {
+                this.table.refresh();
+                this.refresher.play();
+            } else {
+                this.refresher.stop();
+            }
+        });
+    }
+
+    private static <T> TableColumn<Metrics.Metric, T> column(String name, double width,
+                                                          Function<Metrics.Metric, T> value) {
+        TableColumn<Metrics.Metric, T> column = new TableColumn<>(name);
+        column.setPrefWidth(width);
+        column.setCellValueFactory(cellData -> new ReadOnlyObjectWrapper<>(value.apply(cellData.getValue())));
+        return column;
+    }
+}
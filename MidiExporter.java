@@ -0,0 +1,312 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Exports jobs to a Type-1 Standard MIDI File, one track per job.
+ *
+ * The file is streamed to a FileChannel through one small buffer: each
+ * track is written as its events are generated, and its length is
+ * patched into the track header afterwards. Memory use does not grow
+ * with the number of jobs.
+ */
+public class MidiExporter {
+    // With 500 ticks per quarter note at 120 bpm, one tick is one millisecond
+    public static final int TICKS_PER_QUARTER = 500;
+    private static final int MICROSECONDS_PER_QUARTER = 500_000;
+    private static final int MAX_TRACKS = 0xFFFF;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // Delta times are at most four bytes of seven bits
+    private static final int MAX_DELTA = 0x0FFF_FFFF;
+
+    private final int channel;
+
+    /**
+     * Constructs an exporter that plays the notes on MIDI channel 1.
+     */
+    public MidiExporter() {
+        this(0);
+    }
+
+    /**
+     * Constructs an exporter.
+     *
+     * @param channel the MIDI channel of the notes, 0...15
+     */
+    public MidiExporter(int channel) {
+        if (channel < 0 || channel > 15) {
+            throw new IllegalArgumentException("Channel must be 0...15");
+        }
+        this.channel = channel;
+    }
+
+    /**
+     * Exports a job to a MIDI file.
+     *
+     * @param job the job to export
+     * @param path the file to write
+     */
+    public void export(Job job, Path path) throws IOException {
+        export(List.of(job), path);
+    }
+
+    /**
+     * Exports jobs to a MIDI file, each job on its own track after a
+     * tempo track.
+     *
+     * @param jobs the jobs to export
+     * @param path the file to write
+     */
+    public void export(List<Job> jobs, Path path) throws IOException {
+        exportSnapshots(jobs.stream().map(Job::snapshot).toList(), path);
+    }
+
+    /**
+     * Exports job snapshots to a MIDI file, each job on its own track
+     * after a tempo track.
+     *
+     * @param jobs the snapshots to export
+     * @param path the file to write
+     * @throws IllegalArgumentException if a note or pause is too long for
+     *         a MIDI file, about 74 hours
+     */
+    public void exportSnapshots(List<JobSnapshot> jobs, Path path) throws IOException {
+        if (jobs.size() + 1 > MAX_TRACKS) {
+            throw new IllegalArgumentException("At most " + (MAX_TRACKS - 1) + " jobs fit in one MIDI file");
+        }
+
+        EditorEvents.MidiExport event = new EditorEvents.MidiExport();
+        event.begin();
+        long start = System.nanoTime();
+        int notes = 0;
+        Path temp = temp(path);
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            MidiStream stream = new MidiStream(out);
+            stream.writeHeader(jobs.size() + 1);
+
+            stream.beginTrack();
+            stream.writeTempo(MICROSECONDS_PER_QUARTER);
+            stream.endTrack();
+
+            for (JobSnapshot job : jobs) {
+                notes += writeJobTrack(stream, job);
+            }
+            stream.flush();
+            event.bytes = out.size();
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        Metrics.MIDI_EXPORT.record(System.nanoTime() - start, notes);
+        event.jobs = jobs.size();
+        event.notes = notes;
+        event.commit();
+    }
+
+    /**
+     * Exports a planned session to a MIDI file, with one track for each
+     * channel after a tempo track. Each note is played on the channel
+     * the plan gives it, so the tracks overlap where their notes do.
+     *
+     * @param plan the session to export
+     * @param path the file to write
+     */
+    public void exportPlan(SessionPlanner.Plan plan, Path path) throws IOException {
+        EditorEvents.MidiExport event = new EditorEvents.MidiExport();
+        event.begin();
+        long start = System.nanoTime();
+        Path temp = temp(path);
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            MidiStream stream = new MidiStream(out);
+            stream.writeHeader(plan.getChannels() + 1);
+
+            stream.beginTrack();
+            stream.writeTempo(MICROSECONDS_PER_QUARTER);
+            stream.endTrack();
+
+            // The notes of a channel never overlap, so each track is one
+            // pass over the plan
+            for (int slot = 0; slot < plan.getChannels(); slot++) {
+                int channel = SessionPlanner.midiChannel(slot);
+                stream.beginTrack();
+                stream.writeTrackName("Channel " + (channel + 1));
+                long time = 0;
+                for (int i = 0; i < plan.size(); i++) {
+                    if (plan.getChannel(i) == channel) {
+                        int note = plan.getNote(i);
+                        stream.writeNoteOn(delta(plan.getStartTime(i), time), channel, note, plan.getVelocity(i));
+                        stream.writeNoteOff(delta(plan.getReleaseTime(i), plan.getStartTime(i)), channel, note);
+                        time = plan.getReleaseTime(i);
+                    }
+                }
+                stream.endTrack(delta(plan.getTotalTime(), time));
+            }
+            stream.flush();
+            event.bytes = out.size();
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        Metrics.MIDI_EXPORT.record(System.nanoTime() - start, plan.size());
+        event.jobs = plan.getJobs().size();
+        event.notes = plan.size();
+        event.commit();
+    }
+
+    /**
+     * Gets the file an export is written to before it replaces the file
+     * asked for, so a failed export leaves that file as it was.
+     */
+    private static Path temp(Path path) {
+        return path.resolveSibling(path.getFileName() + ".tmp");
+    }
+
+    private static int delta(long time, long previousTime) {
+        long delta = time - previousTime;
+        if (delta > MAX_DELTA) {
+            throw new IllegalArgumentException("A pause of " + SessionPlanner.formatTime(delta)
+                + " is too long for a MIDI file");
+        }
+        return (int) delta;
+    }
+
+    /**
+     * Writes the track of a job.
+     *
+     * @return the number of notes written
+     */
+    private int writeJobTrack(MidiStream stream, JobSnapshot job) throws IOException {
+        NoteSchedule schedule = job.getSchedule();
+        stream.beginTrack();
+        stream.writeTrackName(job.getName());
+        int time = 0;
+        for (int row = 0; row < schedule.size(); row++) {
+            int note = schedule.getNote(row);
+            stream.writeNoteOn(delta(schedule.getStartTime(row), time), this.channel, note, schedule.getVelocity(row));
+            stream.writeNoteOff(delta(schedule.getReleaseTime(row), schedule.getStartTime(row)), this.channel, note);
+            time = schedule.getReleaseTime(row);
+        }
+        // End the track when the last note has decayed
+        stream.endTrack(delta(schedule.getTotalTime(), time));
+        return schedule.size();
+    }
+
+    /**
+     * Writes MIDI file chunks and events to a channel.
+     */
+    static class MidiStream {
+        private final FileChannel out;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private long trackStart;
+
+        MidiStream(FileChannel out) {
+            this.out = out;
+        }
+
+        void writeHeader(int trackCount) throws IOException {
+            ensure(14);
+            this.buffer.put("MThd".getBytes(StandardCharsets.US_ASCII));
+            this.buffer.putInt(6);
+            this.buffer.putShort((short) 1);  // format 1, simultaneous tracks
+            this.buffer.putShort((short) trackCount);
+            this.buffer.putShort((short) TICKS_PER_QUARTER);
+        }
+
+        void beginTrack() throws IOException {
+            flush();
+            this.trackStart = this.out.position();
+            this.buffer.put("MTrk".getBytes(StandardCharsets.US_ASCII));
+            this.buffer.putInt(0);  // patched in endTrack()
+        }
+
+        void endTrack() throws IOException {
+            endTrack(0);
+        }
+
+        void endTrack(int delta) throws IOException {
+            ensure(8);
+            writeVariableLength(delta);
+            this.buffer.put((byte) 0xFF).put((byte) 0x2F).put((byte) 0);
+            flush();
+            long length = this.out.position() - this.trackStart - 8;
+            ByteBuffer header = ByteBuffer.allocate(4).putInt(0, (int) length);
+            this.out.write(header, this.trackStart + 4);
+        }
+
+        void writeTempo(int microsecondsPerQuarter) throws IOException {
+            ensure(7);
+            this.buffer.put((byte) 0).put((byte) 0xFF).put((byte) 0x51).put((byte) 3);
+            this.buffer.put((byte) (microsecondsPerQuarter >> 16));
+            this.buffer.put((byte) (microsecondsPerQuarter >> 8));
+            this.buffer.put((byte) microsecondsPerQuarter);
+        }
+
+        void writeTrackName(String name) throws IOException {
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            ensure(7 + bytes.length);
+            this.buffer.put((byte) 0).put((byte) 0xFF).put((byte) 0x03);
+            writeVariableLength(bytes.length);
+            if (bytes.length > this.buffer.remaining()) {
+                flush();
+                this.out.write(ByteBuffer.wrap(bytes));
+            } else {
+                this.buffer.put(bytes);
+            }
+        }
+
+        void writeNoteOn(int delta, int channel, int note, int velocity) throws IOException {
+            ensure(7);
+            writeVariableLength(delta);
+            this.buffer.put((byte) (0x90 | channel)).put((byte) note).put((byte) velocity);
+        }
+
+        void writeNoteOff(int delta, int channel, int note) throws IOException {
+            ensure(7);
+            writeVariableLength(delta);
+            this.buffer.put((byte) (0x80 | channel)).put((byte) note).put((byte) 64);
+        }
+
+        void flush() throws IOException {
+            this.buffer.flip();
+            while (this.buffer.hasRemaining()) {
+                this.out.write(this.buffer);
+            }
+            this.buffer.clear();
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (this.buffer.remaining() < Math.min(bytes, BUFFER_SIZE)) {
+                flush();
+            }
+        }
+
+        private void writeVariableLength(int value) {
+            if (value < 0) {
+                throw new IllegalArgumentException("Delta time must not be negative");
+            }
+            if (value > MAX_DELTA) {
+                throw new IllegalArgumentException("Delta time must fit in four bytes");
+            }
+            int shift = 21;
+            while (shift > 0 && (value >>> shift) == 0) {
+                shift -= 7;
+            }
+            for (; shift > 0; shift -= 7) {
+                this.buffer.put((byte) (0x80 | ((value >>> shift) & 0x7F)));
+            }
+            this.buffer.put((byte) (value & 0x7F));
+        }
+    }
+}
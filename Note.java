@@ -1,61 +1,126 @@
 import javafx.beans.property.IntegerProperty;
+import javafx.beans.property.ObjectProperty;
 import javafx.beans.property.SimpleIntegerProperty;
-import javafx.collections.FXCollections;
-import javafx.collections.ObservableList;
+import javafx.beans.property.SimpleObjectProperty;
 import java.util.List;
-import java.util.stream.Collectors;
 
+/**
+ * A note of a job, as a row of the notes table.
+ *
+ * The values are plain fields. Their properties are only created when
+ * something asks for them, such as a control bound to a note that is
+ * being edited; until then a note costs a few words.
+ */
 public class Note {
-    private final IntegerProperty note;
-    private ObservableList<IntegerProperty> velocities;
-    private final IntegerProperty startTime;
-    private final IntegerProperty endTime;
+    private int note;
+    private VelocityProfile velocities;
+    private int startTime;
+    private int endTime;
+
+    private IntegerProperty noteProperty;
+    private ObjectProperty<VelocityProfile> velocitiesProperty;
+    private IntegerProperty startTimeProperty;
+    private IntegerProperty endTimeProperty;
 
     public Note(int note, List<Integer> velocities, int startTime, int endTime) {
-        this.note = new SimpleIntegerProperty(note);
-        this.velocities = FXCollections.observableArrayList(
-            velocities.stream().map(SimpleIntegerProperty::new).collect(Collectors.toList())
-        );
-        this.startTime = new SimpleIntegerProperty(startTime);
-        this.endTime = new SimpleIntegerProperty(endTime);
+        this(note, VelocityProfile.of(velocities), startTime, endTime);
+    }
+
+    /**
+     * Constructs a note that shares a velocity profile with other notes.
+     */
+    public Note(int note, VelocityProfile velocities, int startTime, int endTime) {
+        this.note = note;
+        this.velocities = velocities;
+        this.startTime = startTime;
+        this.endTime = endTime;
     }
 
     public IntegerProperty noteProperty() {
-        return this.note;
+        if (this.noteProperty == null) {
+            this.noteProperty = new SimpleIntegerProperty(this, "note", this.note);
+        }
+        return this.noteProperty;
+    }
+
+    public int getNote() {
+        return this.noteProperty != null ? this.noteProperty.get() : this.note;
+    }
+
+    /**
+     * Gets the velocity profile property. Profiles are immutable, so the
+     * note changes velocities by replacing its profile.
+     */
+    public ObjectProperty<VelocityProfile> velocitiesProperty() {
+        if (this.velocitiesProperty == null) {
+            this.velocitiesProperty = new SimpleObjectProperty<>(this, "velocities", this.velocities);
+        }
+        return this.velocitiesProperty;
+    }
+
+    public VelocityProfile getVelocityProfile() {
+        return this.velocitiesProperty != null ? this.velocitiesProperty.get() : this.velocities;
     }
 
-    public ObservableList<IntegerProperty> getVelocities() {
-        return this.velocities;
+    public void setVelocityProfile(VelocityProfile velocities) {
+        if (this.velocitiesProperty != null) {
+            this.velocitiesProperty.set(velocities);
+        } else {
+            this.velocities = velocities;
+        }
     }
 
     public void setVelocities(List<Integer> velocities) {
-        this.velocities.setAll(velocities.stream().map(SimpleIntegerProperty::new).collect(Collectors.toList()));
+        setVelocityProfile(VelocityProfile.of(velocities));
     }
 
     public IntegerProperty startTimeProperty() {
-        return this.startTime;
+        if (this.startTimeProperty == null) {
+            this.startTimeProperty = new SimpleIntegerProperty(this, "startTime", this.startTime);
+        }
+        return this.startTimeProperty;
+    }
+
+    public int getStartTime() {
+        return this.startTimeProperty != null ? this.startTimeProperty.get() : this.startTime;
+    }
+
+    public void setStartTime(int startTime) {
+        if (this.startTimeProperty != null) {
+            this.startTimeProperty.set(startTime);
+        } else {
+            this.startTime = startTime;
+        }
     }
 
     public IntegerProperty endTimeProperty() {
-        return this.endTime;
+        if (this.endTimeProperty == null) {
+            this.endTimeProperty = new SimpleIntegerProperty(this, "endTime", this.endTime);
+        }
+        return this.endTimeProperty;
+    }
+
+    public int getEndTime() {
+        return this.endTimeProperty != null ? this.endTimeProperty.get() : this.endTime;
+    }
+
+    public void setEndTime(int endTime) {
+        if (this.endTimeProperty != null) {
+            this.endTimeProperty.set(endTime);
+        } else {
+            this.endTime = endTime;
+        }
     }
 
     public String getVelocityString() {
-        return velocities.stream()
-                         .map(IntegerProperty::get)
-                         .map(String::valueOf)
-                         .collect(Collectors.joining(", "));
+        return getVelocityProfile().toString();
     }
 
     public List<Integer> getVelocity() {
-        return velocities.stream()
-                         .map(IntegerProperty::get)
-                         .collect(Collectors.toList());
+        return getVelocityProfile().asList();
     }
 
     public void setVelocity(List<Integer> velocity) {
-        this.velocities.setAll(
-            velocity.stream().map(SimpleIntegerProperty::new).collect(Collectors.toList())
-        );
+        setVelocityProfile(VelocityProfile.of(velocity));
     }
 }
@@ -0,0 +1,206 @@
+import java.util.Arrays;
+
+/**
+ * The timeline of a sampling job, worked out once from the job's
+ * range, interval, velocities and timings.
+ *
+ * Every note is played once per velocity layer. Each of those rows
+ * is stored as parallel primitive arrays, so the schedule costs five
+ * int arrays regardless of how many notes and layers the job has.
+ */
+public class NoteSchedule {
+
+    /**
+     * Constructs the schedule of a job as it is now.
+     *
+     * @param job the job to schedule
+     */
+    public NoteSchedule(Job job) {
+        this(job.snapshot());
+    }
+
+    /**
+     * Constructs the schedule of a job snapshot.
+     *
+     * @param job the snapshot to schedule
+     */
+    public NoteSchedule(JobSnapshot job) {
+        this(job.getFromNote(), job.getToNote(), job.getInterval(), job.getVelocities(),
+             job.getNoteDuration(), job.getNoteDecay(), job.getNoteGap());
+    }
+
+    NoteSchedule(int fromNote, int toNote, Job.Interval interval, VelocityProfile velocities,
+                 int noteDuration, int noteDecay, int noteGap) {
+        EditorEvents.Schedule event = new EditorEvents.Schedule();
+        event.begin();
+        long start = System.nanoTime();
+        int step = interval.getValue();
+        this.noteCount = fromNote <= toNote ? (toNote - fromNote) / step + 1 : 0;
+        this.layerCount = velocities.size();
+        this.noteDuration = noteDuration;
+        this.noteDecay = noteDecay;
+        this.noteGap = noteGap;
+
+        int rows = this.noteCount * this.layerCount;
+        this.notes = new int[rows];
+        this.velocities = new int[rows];
+        this.startTimes = new int[rows];
+        this.releaseTimes = new int[rows];
+        this.endTimes = new int[rows];
+
+        int[] layers = new int[this.layerCount];
+        for (int i = 0; i < layers.length; i++) {
+            layers[i] = velocities.get(i);
+        }
+
+        int row = 0;
+        int time = 0;
+        for (int n = 0; n < this.noteCount; n++) {
+            int note = fromNote + n * step;
+            for (int layer = 0; layer < layers.length; layer++) {
+                this.notes[row] = note;
+                this.velocities[row] = layers[layer];
+                this.startTimes[row] = time;
+                this.releaseTimes[row] = time + noteDuration;
+                this.endTimes[row] = time + noteDuration + noteDecay;
+                time = this.endTimes[row] + noteGap;
+                row++;
+            }
+        }
+        this.totalTime = time;
+
+        Metrics.SCHEDULE.record(System.nanoTime() - start, rows);
+        event.notes = this.noteCount;
+        event.layers = this.layerCount;
+        event.rows = rows;
+        event.commit();
+    }
+
+    /**
+     * Gets the number of rows, that is notes times velocity layers.
+     */
+    public int size() {
+        return this.notes.length;
+    }
+
+    /**
+     * Gets the number of distinct notes in the schedule.
+     */
+    public int getNoteCount() {
+        return this.noteCount;
+    }
+
+    /**
+     * Gets the number of velocity layers played for each note.
+     */
+    public int getLayerCount() {
+        return this.layerCount;
+    }
+
+    /**
+     * Gets the note number of a row.
+     */
+    public int getNote(int row) {
+        return this.notes[row];
+    }
+
+    /**
+     * Gets the velocity of a row.
+     */
+    public int getVelocity(int row) {
+        return this.velocities[row];
+    }
+
+    /**
+     * Gets the time the note of a row is pressed.
+     *
+     * @return the start time in milliseconds
+     */
+    public int getStartTime(int row) {
+        return this.startTimes[row];
+    }
+
+    /**
+     * Gets the time the note of a row is released, after its duration.
+     *
+     * @return the release time in milliseconds
+     */
+    public int getReleaseTime(int row) {
+        return this.releaseTimes[row];
+    }
+
+    /**
+     * Gets the time the note of a row has decayed.
+     *
+     * @return the end time in milliseconds
+     */
+    public int getEndTime(int row) {
+        return this.endTimes[row];
+    }
+
+    /**
+     * Gets the first row of a note, by its index in the range.
+     */
+    public int getFirstRow(int noteIndex) {
+        return noteIndex * this.layerCount;
+    }
+
+    /**
+     * Gets the length of the whole run, including the gap after the last note.
+     *
+     * @return the total time in milliseconds
+     */
+    public int getTotalTime() {
+        return this.totalTime;
+    }
+
+    /**
+     * Finds the first row that differs from another schedule, so views
+     * can redraw from there on. A row only one of the schedules has
+     * differs.
+     *
+     * @return the row, or -1 if the schedules are the same
+     */
+    public int mismatch(NoteSchedule other) {
+        int row = Arrays.mismatch(this.startTimes, other.startTimes);
+        row = earlier(row, Arrays.mismatch(this.releaseTimes, other.releaseTimes));
+        row = earlier(row, Arrays.mismatch(this.endTimes, other.endTimes));
+        row = earlier(row, Arrays.mismatch(this.notes, other.notes));
+        return earlier(row, Arrays.mismatch(this.velocities, other.velocities));
+    }
+
+    private static int earlier(int row, int other) {
+        if (row < 0) {
+            return other;
+        }
+        return other < 0 ? row : Math.min(row, other);
+    }
+
+    public int getNoteDuration() {
+        return this.noteDuration;
+    }
+
+    public int getNoteDecay() {
+        return this.noteDecay;
+    }
+
+    public int getNoteGap() {
+        return this.noteGap;
+    }
+
+    //
+    // Private fields
+    //
+
+    private final int noteCount;
+    private final int layerCount;
+    private final int noteDuration;  // milliseconds
+    private final int noteDecay;  // milliseconds
+    private final int noteGap;  // milliseconds
+    private final int totalTime;  // milliseconds
+    private final int[] notes;
+    private final int[] velocities;
+    private final int[] startTimes;
+    private final int[] releaseTimes;
+    private final int[] endTimes;
+}
@@ -0,0 +1,373 @@
+import java.util.AbstractList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javafx.collections.ObservableListBase;
+
+/**
+ * A read-only list of the notes of a job, for the notes table.
+ *
+ * Rows are not generated up front: {@code get(i)} works out row i from
+ * the job's range, interval, velocities and timings, which are the same
+ * as in the job's {@link NoteSchedule}. Each row's {@link Note} is only
+ * created when something asks for it and is then kept in a small pool,
+ * so the list costs memory for the rows on screen rather than for all
+ * of them.
+ *
+ * Either there is one row per note, with all of its velocities, or the
+ * velocity layers are expanded to one row per note and velocity.
+ *
+ * Velocities edited through {@link #setVelocities} are kept apart from
+ * the job and survive refreshes until another job is shown.
+ *
+ * Every change to a row is reported as an update of that row, so the
+ * table can read the notes' plain values rather than observe each of
+ * them.
+ */
+public class NotesListModel extends ObservableListBase<Note> {
+    private static final int POOL_SIZE = 256;
+
+    private final Map<Integer, VelocityProfile> edits = new HashMap<>();
+    private final Map<Integer, Note> pool = new LinkedHashMap<>(POOL_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Note> eldest) {
+            return size() > POOL_SIZE;
+        }
+    };
+    private Layout layout = Layout.EMPTY;
+    private Job job;
+    private boolean expanded;
+
+    /**
+     * Shows the notes of a job. Showing the job that is already shown
+     * only refreshes it.
+     */
+    public void setJob(Job job) {
+        if (job != this.job) {
+            EditorEvents.NotesTableRefresh event = new EditorEvents.NotesTableRefresh();
+            event.begin();
+            long start = System.nanoTime();
+            this.job = job;
+            this.edits.clear();
+            this.pool.clear();
+            replace(Layout.of(job, this.expanded));
+            recordRefresh(event, start);
+        } else {
+            refresh();
+        }
+    }
+
+    /**
+     * Gets the job whose notes are shown.
+     */
+    public Job getJob() {
+        return this.job;
+    }
+
+    /**
+     * Sets whether each velocity layer of a note gets its own row.
+     */
+    public void setExpanded(boolean expanded) {
+        if (expanded != this.expanded) {
+            EditorEvents.NotesTableRefresh event = new EditorEvents.NotesTableRefresh();
+            event.begin();
+            long start = System.nanoTime();
+            this.expanded = expanded;
+            this.edits.clear();
+            this.pool.clear();
+            replace(Layout.of(this.job, expanded));
+            recordRefresh(event, start);
+        }
+    }
+
+    public boolean isExpanded() {
+        return this.expanded;
+    }
+
+    /**
+     * Updates the rows after the job has changed. Rows are matched by
+     * note (and layer), so only the rows that came or went are reported
+     * as added or removed; the others are updated in place.
+     */
+    public void refresh() {
+        EditorEvents.NotesTableRefresh event = new EditorEvents.NotesTableRefresh();
+        event.begin();
+        long start = System.nanoTime();
+        Layout previous = this.layout;
+        Layout next = Layout.of(this.job, this.expanded);
+        this.layout = next;
+
+        // Bring the pooled notes up to date, dropping rows that are gone
+        Iterator<Map.Entry<Integer, Note>> it = this.pool.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Integer, Note> entry = it.next();
+            int row = next.rowOf(entry.getKey());
+            if (row < 0) {
+                it.remove();
+            } else {
+                fill(entry.getValue(), row);
+            }
+        }
+
+        boolean sameLayers = previous.velocities.equals(next.velocities);
+        beginChange();
+        int i = 0;
+        int j = 0;
+        while (i < previous.size() || j < next.size()) {
+            int oldKey = i < previous.size() ? previous.key(i) : Integer.MAX_VALUE;
+            int newKey = j < next.size() ? next.key(j) : Integer.MAX_VALUE;
+            if (oldKey == newKey) {
+                if (!previous.sameRow(i, next, j, sameLayers)) {
+                    nextUpdate(j);
+                }
+                i++;
+                j++;
+            } else if (oldKey < newKey) {
+                int from = i;
+                while (i < previous.size() && previous.key(i) < newKey) {
+                    i++;
+                }
+                nextRemove(j, previous.rows(from, i));
+            } else {
+                int from = j;
+                while (j < next.size() && next.key(j) < oldKey) {
+                    j++;
+                }
+                nextAdd(from, j);
+            }
+        }
+        endChange();
+        recordRefresh(event, start);
+    }
+
+    /**
+     * Sets the velocities of a single row, as edited in the table. Only
+     * that row gets a new profile; the others keep sharing the job's.
+     */
+    public void setVelocities(int row, List<Integer> velocities) {
+        setEditedVelocities(getKey(row), VelocityProfile.of(velocities));
+    }
+
+    /**
+     * Gets the key of a row, which identifies it across refreshes: the
+     * note number, then the velocity layer.
+     */
+    public int getKey(int row) {
+        return this.layout.key(row);
+    }
+
+    /**
+     * Gets the velocities edited for a row, by key.
+     *
+     * @return the velocities, or null if the row has the job's
+     */
+    public VelocityProfile getEditedVelocities(int key) {
+        return this.edits.get(key);
+    }
+
+    /**
+     * Sets the velocities of a row by key, as when an edit is undone.
+     *
+     * @param key the key of the row
+     * @param velocities the velocities, or null for the job's
+     */
+    public void setEditedVelocities(int key, VelocityProfile velocities) {
+        if (velocities != null) {
+            this.edits.put(key, velocities);
+        } else {
+            this.edits.remove(key);
+        }
+        int row = this.layout.rowOf(key);
+        if (row < 0) {
+            return;
+        }
+        Note note = this.pool.get(key);
+        if (note != null) {
+            note.setVelocityProfile(velocitiesOf(row));
+        }
+        beginChange();
+        nextUpdate(row);
+        endChange();
+    }
+
+    @Override
+    public Note get(int row) {
+        if (row < 0 || row >= this.layout.size()) {
+            throw new IndexOutOfBoundsException("Row " + row + " of " + this.layout.size());
+        }
+        int key = this.layout.key(row);
+        Note note = this.pool.get(key);
+        if (note == null) {
+            note = new Note(this.layout.note(row), velocitiesOf(row),
+                            this.layout.startTime(row), this.layout.endTime(row));
+            this.pool.put(key, note);
+        }
+        return note;
+    }
+
+    @Override
+    public int size() {
+        return this.layout.size();
+    }
+
+    private void replace(Layout next) {
+        Layout previous = this.layout;
+        this.layout = next;
+        beginChange();
+        if (previous.size() > 0) {
+            nextRemove(0, previous.rows(0, previous.size()));
+        }
+        if (next.size() > 0) {
+            nextAdd(0, next.size());
+        }
+        endChange();
+    }
+
+    private void recordRefresh(EditorEvents.NotesTableRefresh event, long start) {
+        Metrics.NOTES_TABLE.record(System.nanoTime() - start, this.layout.size());
+        event.job = this.job != null ? this.job.getName() : null;
+        event.rows = this.layout.size();
+        event.expanded = this.expanded;
+        event.commit();
+    }
+
+    private void fill(Note note, int row) {
+        if (note.getStartTime() != this.layout.startTime(row)) {
+            note.setStartTime(this.layout.startTime(row));
+        }
+        if (note.getEndTime() != this.layout.endTime(row)) {
+            note.setEndTime(this.layout.endTime(row));
+        }
+        VelocityProfile velocities = velocitiesOf(row);
+        if (note.getVelocityProfile() != velocities) {
+            note.setVelocityProfile(velocities);
+        }
+    }
+
+    private VelocityProfile velocitiesOf(int row) {
+        VelocityProfile edited = this.edits.get(this.layout.key(row));
+        return edited != null ? edited : this.layout.velocities(row);
+    }
+
+    /**
+     * Works out the rows of a job arithmetically, the same way as
+     * {@link NoteSchedule} but without storing them.
+     *
+     * Every row has a key that orders the rows and identifies them
+     * across layouts: the note number, then the velocity layer.
+     */
+    private static class Layout {
+        static final Layout EMPTY = new Layout(0, 1, 0, VelocityProfile.EMPTY, 0, 0, 0, false);
+
+        final int fromNote;
+        final int step;
+        final int noteCount;
+        final VelocityProfile velocities;
+        final int noteDuration;
+        final int noteDecay;
+        final int noteGap;
+        final boolean expanded;
+
+        Layout(int fromNote, int step, int noteCount, VelocityProfile velocities,
+               int noteDuration, int noteDecay, int noteGap, boolean expanded) {
+            this.fromNote = fromNote;
+            this.step = step;
+            this.noteCount = noteCount;
+            this.velocities = velocities;
+            this.noteDuration = noteDuration;
+            this.noteDecay = noteDecay;
+            this.noteGap = noteGap;
+            this.expanded = expanded;
+        }
+
+        static Layout of(Job job, boolean expanded) {
+            if (job == null) {
+                return EMPTY;
+            }
+            int step = job.getInterval().getValue();
+            int from = job.getFromNote();
+            int to = job.getToNote();
+            return new Layout(from, step, from <= to ? (to - from) / step + 1 : 0,
+                              job.getVelocityProfile(),
+                              job.getNoteDuration(), job.getNoteDecay(), job.getNoteGap(), expanded);
+        }
+
+        int size() {
+            return this.expanded ? this.noteCount * this.velocities.size() : this.noteCount;
+        }
+
+        int layers() {
+            return this.expanded ? this.velocities.size() : 1;
+        }
+
+        int note(int row) {
+            return this.fromNote + row / layers() * this.step;
+        }
+
+        int key(int row) {
+            return this.expanded ? note(row) << 16 | row % layers() : note(row) << 16;
+        }
+
+        int rowOf(int key) {
+            int note = key >>> 16;
+            int layer = key & 0xFFFF;
+            int offset = note - this.fromNote;
+            if (offset < 0 || offset % this.step != 0 || offset / this.step >= this.noteCount
+                    || layer >= layers() || (!this.expanded && layer != 0)) {
+                return -1;
+            }
+            return offset / this.step * layers() + layer;
+        }
+
+        int slot() {
+            return this.noteDuration + this.noteDecay + this.noteGap;
+        }
+
+        int startTime(int row) {
+            // Each note plays all of its velocity layers one after another
+            int layerRows = this.expanded ? row : row * this.velocities.size();
+            return layerRows * slot();
+        }
+
+        int endTime(int row) {
+            if (this.velocities.isEmpty()) {
+                return startTime(row);
+            }
+            int lastLayer = this.expanded ? 0 : this.velocities.size() - 1;
+            return startTime(row) + lastLayer * slot() + this.noteDuration + this.noteDecay;
+        }
+
+        VelocityProfile velocities(int row) {
+            return this.expanded ? this.velocities.layer(row % layers()) : this.velocities;
+        }
+
+        boolean sameRow(int row, Layout other, int otherRow, boolean sameLayers) {
+            if (startTime(row) != other.startTime(otherRow) || endTime(row) != other.endTime(otherRow)) {
+                return false;
+            }
+            if (sameLayers) {
+                return true;
+            }
+            // Rows with the same key are the same layer of the same note
+            return this.expanded
+                && this.velocities.get(row % layers()) == other.velocities.get(otherRow % other.layers());
+        }
+
+        List<Note> rows(int from, int to) {
+            return new AbstractList<Note>() {
+                @Override
+                public Note get(int index) {
+                    int row = from + index;
+                    return new Note(note(row), velocities(row), startTime(row), endTime(row));
+                }
+
+                @Override
+                public int size() {
+                    return to - from;
+                }
+            };
+        }
+    }
+}
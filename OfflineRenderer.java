@@ -0,0 +1,314 @@
+import com.sun.media.sound.AudioSynthesizer;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.MidiUnavailableException;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+
+/**
+ * Renders jobs to audio offline, one WAV file per note and velocity.
+ *
+ * The JDK's software synthesizer is driven through
+ * {@link AudioSynthesizer#openStream}: audio is produced as fast as it
+ * is read rather than in real time. The notes are scheduled with
+ * timestamps on the job's timeline, and the output is cut at the note
+ * boundaries: each file holds a note's duration and decay, and the gap
+ * after it is read and dropped.
+ *
+ * Files are written through a FileChannel from one reused direct
+ * buffer. With a {@link RenderCache}, notes that were rendered before
+ * are copied from the cache and only the others are rendered.
+ *
+ * Next to every WAV file a {@link PeakPyramid} sidecar is written for
+ * the waveform view: for rendered notes it is built from the audio on
+ * its way to the file, for notes from the cache from the copied file.
+ *
+ * The synthesizer lives in a non-exported JDK package, so the editor
+ * runs with
+ * {@code --add-exports java.desktop/com.sun.media.sound=ALL-UNNAMED}.
+ *
+ * A renderer creates a new synthesizer for every render, so one
+ * renderer may be used from several threads.
+ */
+public class OfflineRenderer {
+    public static final float DEFAULT_SAMPLE_RATE = 44100f;
+    private static final int CHANNELS = 2;
+    private static final int BYTES_PER_FRAME = CHANNELS * 2;  // 16-bit samples
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final AudioFormat format;
+    private final int program;
+    private final RenderCache cache;
+
+    /**
+     * Constructs a renderer at 44.1 kHz with the first program
+     * (usually a piano).
+     */
+    public OfflineRenderer() {
+        this(DEFAULT_SAMPLE_RATE, 0);
+    }
+
+    /**
+     * Constructs a renderer.
+     *
+     * @param sampleRate the sample rate in Hz
+     * @param program the General MIDI program, 0...127
+     */
+    public OfflineRenderer(float sampleRate, int program) {
+        this(sampleRate, program, null);
+    }
+
+    /**
+     * Constructs a renderer that looks every note up in a cache first
+     * and only renders the notes that are not there.
+     *
+     * @param sampleRate the sample rate in Hz
+     * @param program the General MIDI program, 0...127
+     * @param cache the cache of rendered notes, or null
+     */
+    public OfflineRenderer(float sampleRate, int program, RenderCache cache) {
+        if (sampleRate <= 0) {
+            throw new IllegalArgumentException("Sample rate must be positive");
+        }
+        if (program < 0 || program > 127) {
+            throw new IllegalArgumentException("Program must be 0...127");
+        }
+        this.format = new AudioFormat(sampleRate, 16, CHANNELS, true, false);
+        this.program = program;
+        this.cache = cache;
+    }
+
+    public float getSampleRate() {
+        return this.format.getSampleRate();
+    }
+
+    public int getProgram() {
+        return this.program;
+    }
+
+    /**
+     * Gets the cache of rendered notes, or null.
+     */
+    public RenderCache getCache() {
+        return this.cache;
+    }
+
+    /**
+     * Renders every note and velocity of a job.
+     *
+     * @param job the job to render
+     * @param directory the directory for the WAV files
+     * @return the files written, in schedule order
+     */
+    public List<Path> render(Job job, Path directory) throws IOException, MidiUnavailableException {
+        return render(job.snapshot(), directory);
+    }
+
+    /**
+     * Renders every note and velocity of a job as it was when the
+     * snapshot was taken.
+     *
+     * @param job the snapshot to render
+     * @param directory the directory for the WAV files
+     * @return the files written, in schedule order
+     * @throws IllegalArgumentException if two notes would be written to
+     *         the same file, see {@link #checkFileNames}
+     */
+    public List<Path> render(JobSnapshot job, Path directory) throws IOException, MidiUnavailableException {
+        checkFileNames(List.of(job));
+        NoteSchedule schedule = job.getSchedule();
+        int[] rows = new int[schedule.size()];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = i;
+        }
+        return render(job.getName(), schedule, rows, directory);
+    }
+
+    /**
+     * Renders some rows of a schedule. The rows are played one after
+     * another, each with its duration, decay and gap, whatever their
+     * times in the schedule; rows found in the cache are skipped.
+     *
+     * @param name the job name, for the file names
+     * @param schedule the schedule to render from
+     * @param rows the rows to render
+     * @param directory the directory for the WAV files
+     * @return the files written, in the order of the rows
+     */
+    List<Path> render(String name, NoteSchedule schedule, int[] rows, Path directory)
+            throws IOException, MidiUnavailableException {
+        EditorEvents.Render event = new EditorEvents.Render();
+        event.begin();
+        long start = System.nanoTime();
+        Files.createDirectories(directory);
+        Path[] files = new Path[rows.length];
+        String[] keys = new String[rows.length];
+        int[] missed = new int[rows.length];
+        int missCount = 0;
+        for (int i = 0; i < rows.length; i++) {
+            int row = rows[i];
+            files[i] = directory.resolve(fileName(name, schedule.getNote(row), schedule.getVelocity(row)));
+            // A new render is processed from scratch
+            Files.deleteIfExists(SamplePostProcessor.untrimmed(files[i]));
+            if (this.cache != null) {
+                keys[i] = RenderCache.key(schedule.getNote(row), schedule.getVelocity(row),
+                    schedule.getNoteDuration(), schedule.getNoteDecay(), this.program, getSampleRate());
+                if (this.cache.copyTo(keys[i], files[i])) {
+                    PeakPyramid.build(files[i]).save(files[i]);
+                    continue;
+                }
+            }
+            missed[missCount++] = i;
+        }
+
+        if (missCount > 0) {
+            renderMissed(name, schedule, rows, Arrays.copyOf(missed, missCount), files, keys);
+        }
+
+        Metrics.RENDER.record(System.nanoTime() - start, rows.length);
+        event.job = name;
+        event.notes = rows.length;
+        event.cached = rows.length - missCount;
+        event.commit();
+        return Arrays.asList(files);
+    }
+
+    /**
+     * Renders the rows that were not in the cache, and caches them.
+     *
+     * @param missed indexes into rows, files and keys
+     */
+    private void renderMissed(String name, NoteSchedule schedule, int[] rows, int[] missed,
+                              Path[] files, String[] keys) throws IOException, MidiUnavailableException {
+        AudioSynthesizer synthesizer = (AudioSynthesizer) MidiSystem.getSynthesizer();
+        try (AudioInputStream audio = synthesizer.openStream(this.format, null)) {
+            Receiver receiver = synthesizer.getReceiver();
+            receiver.send(new ShortMessage(ShortMessage.PROGRAM_CHANGE, 0, this.program, 0), 0);
+
+            byte[] chunk = new byte[BUFFER_SIZE];
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            long time = 0;  // milliseconds on the rendered timeline
+            for (int i : missed) {
+                int row = rows[i];
+                int note = schedule.getNote(row);
+                int velocity = schedule.getVelocity(row);
+                long release = time + schedule.getNoteDuration();
+                long end = release + schedule.getNoteDecay();
+                long next = end + schedule.getNoteGap();
+                receiver.send(new ShortMessage(ShortMessage.NOTE_ON, 0, note, velocity), time * 1000);
+                receiver.send(new ShortMessage(ShortMessage.NOTE_OFF, 0, note, 0), release * 1000);
+
+                Path file = files[i];
+                long frames = toFrames(end) - toFrames(time);
+                PeakPyramid.Builder peaks = new PeakPyramid.Builder(getSampleRate(), CHANNELS);
+                try (FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                    WavFile.writeHeader(buffer, getSampleRate(), CHANNELS, frames * BYTES_PER_FRAME);
+                    copy(audio, frames * BYTES_PER_FRAME, chunk, buffer, out, peaks);
+                }
+                // After the file is closed, so the sidecar has its final time
+                peaks.build().save(file);
+                copy(audio, (toFrames(next) - toFrames(end)) * BYTES_PER_FRAME, chunk, buffer, null, null);
+                if (this.cache != null) {
+                    this.cache.put(keys[i], file);
+                }
+                time = next;
+            }
+        } catch (InvalidMidiDataException e) {
+            throw new IllegalArgumentException("Invalid note in " + name, e);
+        } finally {
+            synthesizer.close();
+        }
+    }
+
+    /**
+     * Gets the file name of a rendered note: the job name followed by the
+     * note number and the velocity.
+     */
+    public static String fileName(String jobName, int note, int velocity) {
+        return String.format("%s_%03d_v%03d.wav", safeName(jobName), note, velocity);
+    }
+
+    /**
+     * Checks that no two notes of the jobs are written to the same file.
+     * That happens when a job plays a velocity twice, or when two job
+     * names differ only in characters that file names cannot hold or in
+     * case, which some file systems ignore.
+     *
+     * @throws IllegalArgumentException if two notes share a file
+     */
+    public static void checkFileNames(List<JobSnapshot> jobs) {
+        Map<String, String> names = new HashMap<>();
+        for (JobSnapshot job : jobs) {
+            String other = names.putIfAbsent(safeName(job.getName()).toLowerCase(Locale.ROOT), job.getName());
+            if (other != null) {
+                throw new IllegalArgumentException("Jobs \"" + other + "\" and \"" + job.getName()
+                    + "\" would write the same files");
+            }
+            boolean[] seen = new boolean[128];
+            for (int velocity : job.getVelocities().asList()) {
+                if (seen[velocity]) {
+                    throw new IllegalArgumentException("Velocity " + velocity + " is played more than once in "
+                        + job.getName() + ", so its files would be written twice");
+                }
+                seen[velocity] = true;
+            }
+        }
+    }
+
+    private static String safeName(String jobName) {
+        return jobName.replaceAll("[^A-Za-z0-9._ -]", "_");
+    }
+
+    private long toFrames(long millis) {
+        return Math.round(millis * (double) this.format.getSampleRate() / 1000);
+    }
+
+    /**
+     * Reads bytes from the synthesizer and writes them to a file and
+     * its peaks, or drops them when there is no file.
+     */
+    private static void copy(AudioInputStream audio, long bytes, byte[] chunk, ByteBuffer buffer,
+                             FileChannel out, PeakPyramid.Builder peaks) throws IOException {
+        long remaining = bytes;
+        while (remaining > 0) {
+            int read = audio.read(chunk, 0, (int) Math.min(chunk.length, remaining));
+            if (read < 0) {
+                throw new IOException("Synthesizer stream ended early");
+            }
+            remaining -= read;
+            if (out != null) {
+                if (buffer.remaining() < read) {
+                    drain(buffer, out);
+                }
+                buffer.put(chunk, 0, read);
+                peaks.add(chunk, 0, read);
+            }
+        }
+        if (out != null) {
+            drain(buffer, out);
+        }
+    }
+
+    private static void drain(ByteBuffer buffer, FileChannel out) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,371 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * The lowest and highest sample values of a WAV file at several
+ * resolutions, so its waveform can be drawn at any zoom without reading
+ * the audio.
+ *
+ * Level 0 holds a (min, max) pair for every {@value #BASE_BLOCK} frames,
+ * across all channels; each level above holds one pair for every two
+ * pairs of the level below, up to a level of a single pair. All levels
+ * together take about twice the size of level 0, a sixty-fourth of the
+ * 16-bit stereo audio. A waveform is drawn from the level whose blocks
+ * are just narrower than a pixel, so it costs a few pairs per pixel
+ * however long the sample is.
+ *
+ * A pyramid is built in one pass over the audio, as it is rendered or
+ * read, and saved next to the WAV file in a sidecar file with the same
+ * name and {@value #SUFFIX} added. The sidecar records the size and
+ * modification time of the WAV file; when they no longer match it is
+ * built again.
+ *
+ * <pre>
+ * sidecar  magic "MJPK", version u16, channels u16, sample rate f32,
+ *          frames i64, WAV size i64, WAV modified (ms) i64,
+ *          level count i32, then for every level its pair count i32
+ *          and the pairs, min i16 and max i16
+ * </pre>
+ */
+public final class PeakPyramid {
+    public static final String SUFFIX = ".peaks";
+    public static final int BASE_BLOCK = 64;
+    private static final int MAGIC = 0x4D4A504B;  // "MJPK"
+    private static final short VERSION = 1;
+    private static final int HEADER_SIZE = 40;
+    // Enough for 2^63 frames; a sidecar claiming more is damaged
+    private static final int MAX_LEVELS = 64;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final float sampleRate;
+    private final int channels;
+    private final long frames;
+    // Interleaved min and max by level
+    private final short[][] levels;
+
+    private PeakPyramid(float sampleRate, int channels, long frames, short[][] levels) {
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        this.frames = frames;
+        this.levels = levels;
+    }
+
+    /**
+     * Reads the sidecar of a WAV file.
+     *
+     * When this returns null the pyramid is to be built and saved again,
+     * see {@link #build(Path)} and {@link #save(Path)}.
+     *
+     * @return the pyramid, or null if there is no sidecar, it does not
+     *         match the WAV file or it is damaged
+     */
+    public static PeakPyramid read(Path wav) throws IOException {
+        Path sidecar = sidecar(wav);
+        ByteBuffer buffer;
+        try (FileChannel in = FileChannel.open(sidecar, StandardOpenOption.READ)) {
+            if (in.size() < HEADER_SIZE || in.size() > Integer.MAX_VALUE) {
+                return null;
+            }
+            buffer = ByteBuffer.allocate((int) in.size());
+            while (buffer.hasRemaining() && in.read(buffer) >= 0) {
+                // Read it all
+            }
+            buffer.flip();
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        if (buffer.getInt() != MAGIC || buffer.getShort() != VERSION) {
+            return null;
+        }
+        int channels = buffer.getShort();
+        float sampleRate = buffer.getFloat();
+        long frames = buffer.getLong();
+        if (buffer.getLong() != Files.size(wav) || buffer.getLong() != Files.getLastModifiedTime(wav).toMillis()) {
+            return null;
+        }
+        int levelCount = buffer.getInt();
+        if (channels < 1 || !(sampleRate > 0) || frames < 0 || levelCount < 1 || levelCount > MAX_LEVELS) {
+            return null;
+        }
+        short[][] levels = new short[levelCount][];
+        for (int i = 0; i < levels.length; i++) {
+            if (buffer.remaining() < 4) {
+                return null;
+            }
+            int pairs = buffer.getInt();
+            if (pairs < 0 || buffer.remaining() < pairs * 4L) {
+                return null;
+            }
+            levels[i] = new short[pairs * 2];
+            buffer.asShortBuffer().get(levels[i]);
+            buffer.position(buffer.position() + pairs * 4);
+        }
+        return new PeakPyramid(sampleRate, channels, frames, levels);
+    }
+
+    /**
+     * Builds the pyramid of a 16-bit PCM WAV file, reading it once.
+     *
+     * @param wav the WAV file
+     */
+    public static PeakPyramid build(Path wav) throws IOException {
+        long start = System.nanoTime();
+        try (FileChannel in = FileChannel.open(wav, StandardOpenOption.READ)) {
+            WavFile.Format format = WavFile.readHeader(in, wav);
+            Builder builder = new Builder(format.sampleRate, format.channels);
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            long remaining = format.dataSize;
+            while (remaining > 0) {
+                buffer.clear().limit((int) Math.min(BUFFER_SIZE, remaining));
+                int read = in.read(buffer);
+                if (read < 0) {
+                    break;
+                }
+                builder.add(buffer.array(), 0, read);
+                remaining -= read;
+            }
+            PeakPyramid pyramid = builder.build();
+            Metrics.PEAK_PYRAMID.record(System.nanoTime() - start, pyramid.getFrames());
+            return pyramid;
+        }
+    }
+
+    /**
+     * Writes the sidecar of a WAV file, stamped with the file's size and
+     * modification time. The sidecar is replaced atomically.
+     *
+     * @param wav the WAV file this pyramid was built from
+     */
+    public void save(Path wav) throws IOException {
+        int size = HEADER_SIZE;
+        for (short[] level : this.levels) {
+            size += 4 + level.length * 2;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(MAGIC).putShort(VERSION).putShort((short) this.channels).putFloat(this.sampleRate)
+              .putLong(this.frames).putLong(Files.size(wav))
+              .putLong(Files.getLastModifiedTime(wav).toMillis()).putInt(this.levels.length);
+        for (short[] level : this.levels) {
+            buffer.putInt(level.length / 2);
+            buffer.asShortBuffer().put(level);
+            buffer.position(buffer.position() + level.length * 2);
+        }
+        buffer.flip();
+
+        Path sidecar = sidecar(wav);
+        Path temp = sidecar.resolveSibling(sidecar.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+        }
+        Files.move(temp, sidecar, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Gets the sidecar file of a WAV file.
+     */
+    public static Path sidecar(Path wav) {
+        return wav.resolveSibling(wav.getFileName() + SUFFIX);
+    }
+
+    public float getSampleRate() {
+        return this.sampleRate;
+    }
+
+    public int getChannels() {
+        return this.channels;
+    }
+
+    /**
+     * Gets the length of the audio, in frames.
+     */
+    public long getFrames() {
+        return this.frames;
+    }
+
+    /**
+     * Gets the length of the audio, in milliseconds.
+     */
+    public double getDuration() {
+        return this.frames * 1000.0 / this.sampleRate;
+    }
+
+    public int getLevelCount() {
+        return this.levels.length;
+    }
+
+    /**
+     * Gets the number of frames each pair of a level stands for.
+     */
+    public static long getBlockSize(int level) {
+        return (long) BASE_BLOCK << level;
+    }
+
+    /**
+     * Gets the number of pairs in a level.
+     */
+    public int getPairCount(int level) {
+        return this.levels[level].length / 2;
+    }
+
+    /**
+     * Gets the lowest and highest sample values of columns of equal
+     * length, as for the pixels of a waveform. Each column is read from
+     * the coarsest level whose blocks are no longer than the column.
+     *
+     * @param firstFrame the frame at the start of the first column
+     * @param framesPerColumn the frames each column stands for
+     * @param columns the number of columns
+     * @param mins receives the lowest value of each column
+     * @param maxs receives the highest value of each column
+     * @return the number of columns filled; the columns after the end
+     *         of the audio are not
+     */
+    public int peaks(double firstFrame, double framesPerColumn, int columns, short[] mins, short[] maxs) {
+        int level = 0;
+        while (level + 1 < this.levels.length && getBlockSize(level + 1) <= framesPerColumn) {
+            level++;
+        }
+        short[] pairs = this.levels[level];
+        long count = pairs.length / 2;
+        double blockSize = getBlockSize(level);
+        int column = 0;
+        for (; column < columns; column++) {
+            double from = Math.max(0, firstFrame + column * framesPerColumn);
+            double to = firstFrame + (column + 1) * framesPerColumn;
+            long first = (long) (from / blockSize);
+            if (first >= count || from >= this.frames) {
+                break;
+            }
+            long last = Math.min(count - 1, Math.max(first, (long) Math.ceil(to / blockSize) - 1));
+            int low = Short.MAX_VALUE;
+            int high = Short.MIN_VALUE;
+            for (int i = (int) first * 2; i <= last * 2; i += 2) {
+                low = Math.min(low, pairs[i]);
+                high = Math.max(high, pairs[i + 1]);
+            }
+            mins[column] = (short) low;
+            maxs[column] = (short) high;
+        }
+        return column;
+    }
+
+    /**
+     * Builds a pyramid from 16-bit little-endian audio as it streams
+     * past, keeping only the pairs of level 0.
+     */
+    public static final class Builder {
+        private final float sampleRate;
+        private final int channels;
+        private final int samplesPerBlock;
+        private short[] pairs = new short[1024];
+        private int pairCount;
+        private long samples;
+        private int inBlock;
+        private int low = Short.MAX_VALUE;
+        private int high = Short.MIN_VALUE;
+        // The low byte of a sample split between two calls, or -1
+        private int carry = -1;
+
+        /**
+         * Constructs a builder.
+         *
+         * @param sampleRate the sample rate in Hz
+         * @param channels the number of interleaved channels
+         */
+        public Builder(float sampleRate, int channels) {
+            if (sampleRate <= 0) {
+                throw new IllegalArgumentException("Sample rate must be positive");
+            }
+            if (channels < 1) {
+                throw new IllegalArgumentException("Channels must be one or more");
+            }
+            this.sampleRate = sampleRate;
+            this.channels = channels;
+            this.samplesPerBlock = BASE_BLOCK * channels;
+        }
+
+        /**
+         * Adds audio bytes. Samples and frames may be split across calls.
+         *
+         * @param data the bytes, 16-bit little-endian samples
+         * @param offset the first byte to add
+         * @param length the number of bytes to add
+         */
+        public void add(byte[] data, int offset, int length) {
+            int end = offset + length;
+            int i = offset;
+            if (this.carry >= 0 && i < end) {
+                sample((short) ((data[i++] << 8) | this.carry));
+                this.carry = -1;
+            }
+            for (; i + 1 < end; i += 2) {
+                sample((short) ((data[i + 1] << 8) | (data[i] & 0xFF)));
+            }
+            if (i < end) {
+                this.carry = data[i] & 0xFF;
+            }
+        }
+
+        /**
+         * Builds the pyramid from the audio added so far.
+         */
+        public PeakPyramid build() {
+            short[] level = Arrays.copyOf(this.pairs, this.pairCount * 2);
+            if (this.inBlock > 0) {
+                level = Arrays.copyOf(level, level.length + 2);
+                level[level.length - 2] = (short) this.low;
+                level[level.length - 1] = (short) this.high;
+            }
+            short[][] levels = new short[1][];
+            levels[0] = level;
+            while (level.length > 2) {
+                short[] below = level;
+                level = new short[(below.length / 2 + 1) / 2 * 2];
+                for (int i = 0; i < level.length; i += 2) {
+                    int j = i * 2;
+                    if (j + 2 < below.length) {
+                        level[i] = (short) Math.min(below[j], below[j + 2]);
+                        level[i + 1] = (short) Math.max(below[j + 1], below[j + 3]);
+                    } else {
+                        level[i] = below[j];
+                        level[i + 1] = below[j + 1];
+                    }
+                }
+                levels = Arrays.copyOf(levels, levels.length + 1);
+                levels[levels.length - 1] = level;
+            }
+            return new PeakPyramid(this.sampleRate, this.channels, this.samples / this.channels, levels);
+        }
+
+        private void sample(short value) {
+            if (value < this.low) {
+                this.low = value;
+            }
+            if (value > this.high) {
+                this.high = value;
+            }
+            this.samples++;
+            if (++this.inBlock == this.samplesPerBlock) {
+                if (this.pairCount * 2 == this.pairs.length) {
+                    this.pairs = Arrays.copyOf(this.pairs, this.pairs.length * 2);
+                }
+                this.pairs[this.pairCount * 2] = (short) this.low;
+                this.pairs[this.pairCount * 2 + 1] = (short) this.high;
+                this.pairCount++;
+                this.inBlock = 0;
+                this.low = Short.MAX_VALUE;
+                this.high = Short.MIN_VALUE;
+            }
+        }
+    }
+}
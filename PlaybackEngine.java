@@ -0,0 +1,195 @@
+import java.util.concurrent.CompletableFuture;
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+
+/**
+ * Plays jobs in real time to a MIDI receiver, such as the JDK's software
+ * synthesizer.
+ *
+ * Every job plays on its own platform thread, so several jobs can play
+ * at once on different channels. Not virtual threads: the scheduler
+ * spins before each event, which would hold a carrier thread that other
+ * playbacks need, and make them late. Each note-on is sent at the start of a
+ * note, the note-off after its duration, and the next note waits out the
+ * decay and the gap, all following the job's {@link NoteSchedule}.
+ * Events are timed by a {@link DeadlineScheduler} against the time the
+ * playback started, so lateness does not accumulate, and the lateness
+ * of every event is reported.
+ *
+ * The receiver is shared by all playing jobs and must accept messages
+ * from several threads; the JDK's receivers do.
+ */
+public class PlaybackEngine {
+    // Lead time so the first note is not late because the thread just started
+    private static final long START_DELAY_NANOS = 5_000_000;
+
+    private final Receiver receiver;
+    private final DeadlineScheduler scheduler;
+
+    public PlaybackEngine(Receiver receiver) {
+        this(receiver, new DeadlineScheduler());
+    }
+
+    public PlaybackEngine(Receiver receiver, DeadlineScheduler scheduler) {
+        this.receiver = receiver;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Receives the lateness of each event as it is sent.
+     */
+    public interface Listener {
+        /**
+         * Called on the playback thread after an event has been sent.
+         *
+         * @param row the schedule row of the note
+         * @param noteOn true for the note-on, false for the note-off
+         * @param latenessNanos how late the event was sent
+         */
+        void eventSent(int row, boolean noteOn, long latenessNanos);
+    }
+
+    /**
+     * Starts playing a job.
+     *
+     * @param job the job to play
+     * @param channel the MIDI channel, 0...15
+     * @return the running playback
+     */
+    public Playback play(Job job, int channel) {
+        return play(job, channel, null);
+    }
+
+    /**
+     * Starts playing a job.
+     *
+     * @param job the job to play
+     * @param channel the MIDI channel, 0...15
+     * @param listener receives the lateness of every event, or null
+     * @return the running playback
+     */
+    public Playback play(Job job, int channel, Listener listener) {
+        if (channel < 0 || channel > 15) {
+            throw new IllegalArgumentException("Channel must be 0...15");
+        }
+        JobSnapshot snapshot = job.snapshot();
+        Playback playback = new Playback(snapshot.getName(), snapshot.getSchedule(), channel, listener);
+        playback.thread = Thread.ofPlatform()
+            .daemon()
+            .name("playback-" + snapshot.getName())
+            .unstarted(playback::run);
+        playback.thread.start();
+        return playback;
+    }
+
+    /**
+     * A job that is playing.
+     */
+    public class Playback {
+        private final String name;
+        private final NoteSchedule schedule;
+        private final int channel;
+        private final Listener listener;
+        private final JitterStats jitter = new JitterStats();
+        private final CompletableFuture<JitterStats> completion = new CompletableFuture<>();
+        private Thread thread;
+
+        private Playback(String name, NoteSchedule schedule, int channel, Listener listener) {
+            this.name = name;
+            this.schedule = schedule;
+            this.channel = channel;
+            this.listener = listener;
+        }
+
+        /**
+         * Stops playing. The sounding note, if any, is released.
+         */
+        public void stop() {
+            this.thread.interrupt();
+        }
+
+        /**
+         * Gets the timing accuracy so far.
+         */
+        public JitterStats getJitter() {
+            return this.jitter;
+        }
+
+        /**
+         * Gets a future that completes with the timing accuracy when the
+         * playback finishes or is stopped.
+         */
+        public CompletableFuture<JitterStats> completion() {
+            return this.completion;
+        }
+
+        public boolean isDone() {
+            return this.completion.isDone();
+        }
+
+        private void run() {
+            EditorEvents.Playback event = new EditorEvents.Playback();
+            event.begin();
+            int sounding = -1;
+            Exception failure = null;
+            try {
+                long origin = System.nanoTime() + START_DELAY_NANOS;
+                for (int row = 0; row < this.schedule.size(); row++) {
+                    int note = this.schedule.getNote(row);
+                    long lateness = scheduler.awaitDeadline(origin + millisToNanos(this.schedule.getStartTime(row)));
+                    send(ShortMessage.NOTE_ON, note, this.schedule.getVelocity(row));
+                    sounding = note;
+                    sent(row, true, lateness);
+
+                    lateness = scheduler.awaitDeadline(origin + millisToNanos(this.schedule.getReleaseTime(row)));
+                    send(ShortMessage.NOTE_OFF, note, 0);
+                    sounding = -1;
+                    sent(row, false, lateness);
+                }
+                // Let the last note decay and wait out its gap
+                scheduler.awaitDeadline(origin + millisToNanos(this.schedule.getTotalTime()));
+            } catch (InterruptedException e) {
+                // Stopped
+            } catch (InvalidMidiDataException | RuntimeException e) {
+                failure = e;
+            }
+
+            if (sounding >= 0) {
+                try {
+                    send(ShortMessage.NOTE_OFF, sounding, 0);
+                } catch (InvalidMidiDataException | RuntimeException e) {
+                    if (failure == null) {
+                        failure = e;
+                    }
+                }
+            }
+            event.job = this.name;
+            event.events = this.jitter.getCount();
+            event.meanLateness = (long) this.jitter.getMeanNanos();
+            event.maxLateness = this.jitter.getMaxNanos();
+            event.commit();
+            if (failure != null) {
+                this.completion.completeExceptionally(failure);
+            } else {
+                this.completion.complete(this.jitter);
+            }
+        }
+
+        private void send(int command, int note, int velocity) throws InvalidMidiDataException {
+            receiver.send(new ShortMessage(command, this.channel, note, velocity), -1);
+        }
+
+        private void sent(int row, boolean noteOn, long latenessNanos) {
+            this.jitter.record(latenessNanos);
+            Metrics.PLAYBACK_LATENESS.record(latenessNanos, 1);
+            if (this.listener != null) {
+                this.listener.eventSent(row, noteOn, latenessNanos);
+            }
+        }
+    }
+
+    private static long millisToNanos(int millis) {
+        return millis * 1_000_000L;
+    }
+}
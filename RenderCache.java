@@ -0,0 +1,184 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An on-disk cache of rendered notes, so unchanged notes are never
+ * rendered again.
+ *
+ * A rendered note depends only on its note number, velocity, duration
+ * and decay and on the synthesizer program and sample rate; the gap and
+ * the rest of the job do not matter. Those values are hashed into a key
+ * and the WAV file is stored under it. The cache keeps an in-memory index
+ * of the keys in least recently used order and deletes the oldest files
+ * when the total size goes over its limit. Last-modified times record the
+ * use of each file, so the order survives restarts.
+ *
+ * The cache may be used from several threads.
+ */
+public class RenderCache {
+    // Bump when the rendering changes so old files are no longer used
+    private static final int FORMAT_VERSION = 1;
+    private static final String SUFFIX = ".wav";
+
+    private final Path directory;
+    private final long maxBytes;
+    private final Map<String, Long> index = new LinkedHashMap<>(16, 0.75f, true);
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private long totalBytes;
+
+    /**
+     * Opens a cache directory, creating it if needed.
+     *
+     * @param directory the directory holding the cached files
+     * @param maxBytes the size the cached files may take up
+     */
+    public RenderCache(Path directory, long maxBytes) throws IOException {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("Cache size must be positive");
+        }
+        this.directory = Files.createDirectories(directory);
+        this.maxBytes = maxBytes;
+
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            stream.forEach(files::add);
+        }
+        Map<Path, FileTime> times = new LinkedHashMap<>();
+        for (Path file : files) {
+            times.put(file, Files.getLastModifiedTime(file));
+        }
+        files.sort(Comparator.comparing(times::get));
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            long size = Files.size(file);
+            this.index.put(name.substring(0, name.length() - SUFFIX.length()), size);
+            this.totalBytes += size;
+        }
+        synchronized (this) {
+            evict();
+        }
+    }
+
+    /**
+     * Gets the key of a rendered note.
+     */
+    public static String key(int note, int velocity, int noteDuration, int noteDecay, int program, float sampleRate) {
+        ByteBuffer values = ByteBuffer.allocate(28);
+        values.putInt(FORMAT_VERSION).putInt(note).putInt(velocity).putInt(noteDuration)
+              .putInt(noteDecay).putInt(program).putFloat(sampleRate);
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(values.array());
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Copies a cached note to a file, if it is in the cache.
+     *
+     * @param key the key of the note
+     * @param target the file to write
+     * @return true on a hit, false on a miss
+     */
+    public boolean copyTo(String key, Path target) throws IOException {
+        Path file = this.directory.resolve(key + SUFFIX);
+        synchronized (this) {
+            if (this.index.get(key) == null) {
+                this.misses.incrementAndGet();
+                return false;
+            }
+        }
+        try {
+            Files.copy(file, target, StandardCopyOption.REPLACE_EXISTING);
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (NoSuchFileException e) {
+            // Evicted or deleted in the meantime
+            synchronized (this) {
+                Long size = this.index.remove(key);
+                if (size != null) {
+                    this.totalBytes -= size;
+                }
+            }
+            this.misses.incrementAndGet();
+            return false;
+        }
+        this.hits.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Adds a rendered note to the cache.
+     *
+     * @param key the key of the note
+     * @param rendered the rendered file, which is copied
+     */
+    public void put(String key, Path rendered) throws IOException {
+        Path temp = Files.createTempFile(this.directory, key, ".tmp");
+        try {
+            Files.copy(rendered, temp, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(temp, this.directory.resolve(key + SUFFIX),
+                       StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        long size = Files.size(rendered);
+        synchronized (this) {
+            Long previous = this.index.put(key, size);
+            this.totalBytes += size - (previous != null ? previous : 0);
+            evict();
+        }
+    }
+
+    /**
+     * Gets the number of lookups that found the note.
+     */
+    public long getHits() {
+        return this.hits.get();
+    }
+
+    /**
+     * Gets the number of lookups that did not find the note.
+     */
+    public long getMisses() {
+        return this.misses.get();
+    }
+
+    /**
+     * Gets the total size of the cached files.
+     */
+    public synchronized long getTotalBytes() {
+        return this.totalBytes;
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Long>> it = this.index.entrySet().iterator();
+        while (this.totalBytes > this.maxBytes && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            try {
+                Files.deleteIfExists(this.directory.resolve(eldest.getKey() + SUFFIX));
+            } catch (IOException e) {
+                // Leave it on disk, it no longer counts
+            }
+            this.totalBytes -= eldest.getValue();
+            it.remove();
+        }
+    }
+}
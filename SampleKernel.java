@@ -0,0 +1,113 @@
+/**
+ * The loops of {@link SamplePostProcessor} that run over every sample:
+ * conversion, peak, sum of squares, the search for the end of the sound
+ * and the gain on the way back to 16 bits.
+ *
+ * {@link #get()} picks {@link VectorSampleKernel}, built on the
+ * incubating Vector API, when the JVM was started with
+ * {@code --add-modules jdk.incubator.vector}, and the plain loops of
+ * {@link Scalar} otherwise. Setting the system property
+ * {@value #VECTOR_PROPERTY} to false forces the plain loops. Both give
+ * the same samples; sums may differ in the last digits, as they are
+ * added in another order.
+ */
+interface SampleKernel {
+    String VECTOR_PROPERTY = "musicaljobeditor.vector";
+
+    /**
+     * Gets the fastest kernel this JVM can run.
+     */
+    static SampleKernel get() {
+        boolean allowed = !"false".equalsIgnoreCase(System.getProperty(VECTOR_PROPERTY));
+        if (allowed && ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            return new VectorSampleKernel();
+        }
+        return new Scalar();
+    }
+
+    /**
+     * Gets a short name of the kernel, for reports.
+     */
+    String getName();
+
+    /**
+     * Converts 16-bit samples to floats of -1...1.
+     */
+    void toFloat(short[] samples, float[] out, int length);
+
+    /**
+     * Gets the largest absolute value of samples [0, length).
+     */
+    float peak(float[] samples, int length);
+
+    /**
+     * Gets the sum of the squares of samples [from, to).
+     */
+    double sumOfSquares(float[] samples, int from, int to);
+
+    /**
+     * Gets the index of the last of samples [0, length) whose absolute
+     * value is above a level, or -1 if there is none.
+     */
+    int lastAbove(float[] samples, int length, float level);
+
+    /**
+     * Multiplies samples by a gain and converts them back to 16 bits,
+     * clipping at full scale. With a gain of one the samples come back
+     * as they were before {@link #toFloat}.
+     */
+    void toShort(float[] samples, float gain, short[] out, int length);
+
+    /**
+     * The kernel for JVMs without the Vector API, one sample at a time.
+     */
+    final class Scalar implements SampleKernel {
+        @Override
+        public String getName() {
+            return "scalar";
+        }
+
+        @Override
+        public void toFloat(short[] samples, float[] out, int length) {
+            for (int i = 0; i < length; i++) {
+                out[i] = samples[i] * (1f / 32768);
+            }
+        }
+
+        @Override
+        public float peak(float[] samples, int length) {
+            float peak = 0;
+            for (int i = 0; i < length; i++) {
+                peak = Math.max(peak, Math.abs(samples[i]));
+            }
+            return peak;
+        }
+
+        @Override
+        public double sumOfSquares(float[] samples, int from, int to) {
+            double sum = 0;
+            for (int i = from; i < to; i++) {
+                sum += samples[i] * samples[i];
+            }
+            return sum;
+        }
+
+        @Override
+        public int lastAbove(float[] samples, int length, float level) {
+            for (int i = length - 1; i >= 0; i--) {
+                if (Math.abs(samples[i]) > level) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public void toShort(float[] samples, float gain, short[] out, int length) {
+            float scale = gain * 32768;
+            for (int i = 0; i < length; i++) {
+                out[i] = (short) Math.max(-32768f, Math.min(32767f, samples[i] * scale));
+            }
+        }
+    }
+}
@@ -0,0 +1,555 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Trims, measures and normalizes rendered samples, in place.
+ *
+ * The first time a sample is processed, the file as rendered is kept
+ * next to it with {@value #UNTRIMMED_SUFFIX} added, and every run starts
+ * from that copy. Processing a sample again, say with another silence
+ * threshold, therefore does not trim and fade it a second time. The
+ * renderer removes the copy when it writes the sample anew.
+ *
+ * Each sample is cut after the last point where it is louder than its
+ * job's silence threshold, and faded out over the last
+ * {@value #FADE_MILLIS} ms so the cut does not click. Then its peak and
+ * RMS level are measured, along with its integrated loudness as in
+ * ITU-R BS.1770-4: K-weighted, in 400 ms blocks overlapping by 75 %,
+ * gated at -70 LUFS and 10 LU below the mean. Samples shorter than one
+ * block have no loudness.
+ *
+ * Normalizing applies one gain to every sample of the job, so the
+ * loudest peak of any velocity layer reaches the target and the layers
+ * keep their levels relative to each other. The values reported are
+ * those of the files as written.
+ *
+ * The samples of a job are processed in parallel, one per task on a
+ * fork/join pool, and the loops over their samples run on the Vector
+ * API where it is available (see {@link SampleKernel}). The K-weighting
+ * filters stay one sample at a time, as each output depends on the one
+ * before. Files are replaced atomically, and their {@link PeakPyramid}
+ * sidecars are built on the way.
+ */
+public class SamplePostProcessor {
+    public static final double DEFAULT_TARGET_PEAK = -1;  // dBFS
+    public static final String UNTRIMMED_SUFFIX = ".untrimmed";
+    private static final int FADE_MILLIS = 5;
+    private static final double ABSOLUTE_GATE = -70;  // LUFS
+    private static final double RELATIVE_GATE = -10;  // LU
+
+    private final int parallelism;
+    private final double targetPeak;
+    private final SampleKernel kernel;
+
+    /**
+     * Constructs a post-processor that uses every core and normalizes
+     * to a peak of -1 dBFS.
+     */
+    public SamplePostProcessor() {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_TARGET_PEAK);
+    }
+
+    /**
+     * Constructs a post-processor.
+     *
+     * @param parallelism the number of samples processed at once
+     * @param targetPeak the peak to normalize to, in dBFS, at most 0
+     */
+    public SamplePostProcessor(int parallelism, double targetPeak) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be one or more");
+        }
+        if (!(targetPeak <= 0)) {
+            throw new IllegalArgumentException("Target peak must be 0 dBFS or less");
+        }
+        this.parallelism = parallelism;
+        this.targetPeak = targetPeak;
+        this.kernel = SampleKernel.get();
+    }
+
+    /**
+     * Gets how the loops over the samples run, "scalar" or the width
+     * of the vectors.
+     */
+    public String getKernelName() {
+        return this.kernel.getName();
+    }
+
+    /**
+     * Processes the samples of a job as the renderer names them, with
+     * the job's silence threshold, and writes the results next to them
+     * as CSV (see {@link #reportFileName}).
+     *
+     * @param job the job the samples were rendered from
+     * @param directory the directory the job was rendered to
+     * @param normalize whether to normalize the samples
+     * @return the results, in schedule order
+     */
+    public List<Result> process(JobSnapshot job, Path directory, boolean normalize) throws IOException {
+        NoteSchedule schedule = job.getSchedule();
+        List<Path> files = new ArrayList<>(schedule.size());
+        for (int row = 0; row < schedule.size(); row++) {
+            files.add(directory.resolve(OfflineRenderer.fileName(job.getName(), schedule.getNote(row),
+                schedule.getVelocity(row))));
+        }
+        List<Result> results = process(files, job.getSilenceThreshold(), normalize);
+        writeCsv(results, directory.resolve(reportFileName(job.getName())));
+        return results;
+    }
+
+    /**
+     * Processes samples. A sample that fails does not stop the others;
+     * its result carries the error, and with normalizing the gain is
+     * worked out from the others.
+     *
+     * @param files the WAV files, 16-bit PCM
+     * @param silenceThreshold the level below which the end of a sample
+     *                         is trimmed, in dBFS
+     * @param normalize whether to bring the loudest peak to the target
+     * @return the results, in the order of the files
+     */
+    public List<Result> process(List<Path> files, int silenceThreshold, boolean normalize) {
+        float level = (float) Math.pow(10, silenceThreshold / 20.0);
+        ForkJoinPool pool = new ForkJoinPool(this.parallelism);
+        try {
+            List<Callable<Result>> tasks = new ArrayList<>(files.size());
+            for (Path file : files) {
+                tasks.add(() -> analyze(file, level, !normalize));
+            }
+            List<Result> results = collect(pool.invokeAll(tasks), files);
+            if (!normalize) {
+                return results;
+            }
+
+            double loudestPeak = Double.NEGATIVE_INFINITY;
+            for (Result result : results) {
+                if (result.error == null) {
+                    loudestPeak = Math.max(loudestPeak, result.peak);
+                }
+            }
+            double gain = Double.isInfinite(loudestPeak) ? 0 : this.targetPeak - loudestPeak;
+            tasks.clear();
+            for (Result result : results) {
+                tasks.add(() -> result.error != null ? result : normalize(result, gain));
+            }
+            return collect(pool.invokeAll(tasks), files);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Gets the name of the CSV file the results of a job are written to.
+     */
+    public static String reportFileName(String jobName) {
+        return jobName.replaceAll("[^A-Za-z0-9._ -]", "_") + "_analysis.csv";
+    }
+
+    /**
+     * Gets the file that keeps a sample as it was rendered, before it
+     * was first processed.
+     */
+    public static Path untrimmed(Path wav) {
+        return wav.resolveSibling(wav.getFileName() + UNTRIMMED_SUFFIX);
+    }
+
+    /**
+     * Writes results as CSV, one sample per line.
+     *
+     * @param results the results
+     * @param path the file to write
+     */
+    public static void writeCsv(List<Result> results, Path path) throws IOException {
+        try (BufferedWriter out = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            out.write("file,frames_before,frames,peak_dbfs,rms_dbfs,loudness_lufs,gain_db,error");
+            out.newLine();
+            for (Result result : results) {
+                out.write(String.format(Locale.ROOT, "%s,%d,%d,%.2f,%.2f,%.2f,%.2f,%s",
+                    csv(result.file.getFileName().toString()), result.framesBefore, result.frames, result.peak,
+                    result.rms, result.loudness, result.gain,
+                    result.error != null ? csv(String.valueOf(result.error.getMessage())) : ""));
+                out.newLine();
+            }
+        }
+    }
+
+    /**
+     * Trims and measures a sample as it was rendered, and writes it
+     * back if it is not to be normalized.
+     */
+    private Result analyze(Path file, float level, boolean write) {
+        long start = System.nanoTime();
+        try {
+            Audio audio = read(keepRender(file));
+            int last = this.kernel.lastAbove(audio.samples, audio.samples.length, level);
+            int frames = last < 0 ? 0 : last / audio.channels + 1;
+            fadeOut(audio, frames);
+            int length = frames * audio.channels;
+
+            float peak = this.kernel.peak(audio.samples, length);
+            double rms = length > 0 ? Math.sqrt(this.kernel.sumOfSquares(audio.samples, 0, length) / length) : 0;
+            double loudness = loudness(audio, frames);
+            if (write) {
+                write(file, audio, frames, 1);
+            }
+            Metrics.POST_PROCESS.record(System.nanoTime() - start, audio.frames());
+            return new Result(file, audio.frames(), frames, decibels(peak), decibels(rms), loudness, 0, null);
+        } catch (IOException | RuntimeException e) {
+            return new Result(file, 0, 0, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY,
+                Double.NEGATIVE_INFINITY, 0, e);
+        }
+    }
+
+    /**
+     * Writes a sample trimmed and with a gain, from the measures taken
+     * before.
+     */
+    private Result normalize(Result measured, double gain) {
+        long start = System.nanoTime();
+        try {
+            Audio audio = read(untrimmed(measured.file));
+            fadeOut(audio, measured.frames);
+            write(measured.file, audio, measured.frames, (float) Math.pow(10, gain / 20));
+            Metrics.POST_PROCESS.record(System.nanoTime() - start, measured.frames);
+            return new Result(measured.file, measured.framesBefore, measured.frames, measured.peak + gain,
+                measured.rms + gain, measured.loudness + gain, gain, null);
+        } catch (IOException | RuntimeException e) {
+            return new Result(measured.file, measured.framesBefore, measured.frames, measured.peak, measured.rms,
+                measured.loudness, 0, e);
+        }
+    }
+
+    /**
+     * Keeps a sample as rendered if it has not been processed before.
+     *
+     * @return the file that keeps it
+     */
+    private static Path keepRender(Path file) throws IOException {
+        Path kept = untrimmed(file);
+        if (!Files.exists(file)) {
+            throw new NoSuchFileException(file.toString());
+        }
+        if (!Files.exists(kept)) {
+            Path temp = kept.resolveSibling(kept.getFileName() + ".tmp");
+            Files.copy(file, temp, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(temp, kept, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        return kept;
+    }
+
+    private Audio read(Path file) throws IOException {
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            WavFile.Format format = WavFile.readHeader(in, file);
+            if (format.dataSize > Integer.MAX_VALUE) {
+                throw new IOException("Sample is too long: " + file);
+            }
+            int length = (int) format.dataSize / 2 / format.channels * format.channels;
+            ByteBuffer data = ByteBuffer.allocate(length * 2).order(ByteOrder.LITTLE_ENDIAN);
+            while (data.hasRemaining()) {
+                if (in.read(data) < 0) {
+                    throw new IOException("WAV file is truncated: " + file);
+                }
+            }
+            short[] samples = new short[length];
+            data.flip().asShortBuffer().get(samples);
+            Audio audio = new Audio(format.sampleRate, format.channels, new float[length]);
+            this.kernel.toFloat(samples, audio.samples, length);
+            return audio;
+        }
+    }
+
+    /**
+     * Writes the first frames of a sample with a gain, and its sidecar.
+     */
+    private void write(Path file, Audio audio, int frames, float gain) throws IOException {
+        int length = frames * audio.channels;
+        short[] samples = new short[length];
+        this.kernel.toShort(audio.samples, gain, samples, length);
+        ByteBuffer buffer = ByteBuffer.allocate(WavFile.HEADER_SIZE + length * 2).order(ByteOrder.LITTLE_ENDIAN);
+        WavFile.writeHeader(buffer, audio.sampleRate, audio.channels, length * 2L);
+        buffer.asShortBuffer().put(samples);
+        buffer.clear();
+        PeakPyramid.Builder peaks = new PeakPyramid.Builder(audio.sampleRate, audio.channels);
+        peaks.add(buffer.array(), WavFile.HEADER_SIZE, length * 2);
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        peaks.build().save(file);
+    }
+
+    /**
+     * Fades the last {@value #FADE_MILLIS} ms before a frame out to
+     * silence.
+     */
+    private static void fadeOut(Audio audio, int frames) {
+        int fade = Math.min(frames, Math.round(audio.sampleRate * FADE_MILLIS / 1000));
+        for (int i = 0; i < fade; i++) {
+            float gain = (float) (fade - i) / (fade + 1);
+            int frame = frames - fade + i;
+            for (int c = 0; c < audio.channels; c++) {
+                audio.samples[frame * audio.channels + c] *= gain;
+            }
+        }
+    }
+
+    /**
+     * Gets the integrated loudness of the first frames of a sample, as in
+     * ITU-R BS.1770-4, with every channel weighted the same.
+     *
+     * @return the loudness in LUFS, or negative infinity if the sample
+     *         is shorter than a block or silent
+     */
+    private double loudness(Audio audio, int frames) {
+        int step = (int) Math.round(audio.sampleRate * 0.1);  // 100 ms, a quarter block
+        int steps = frames / step;
+        if (steps < 4) {
+            return Double.NEGATIVE_INFINITY;
+        }
+        double[] sums = new double[steps];
+        float[] weighted = new float[frames];
+        KWeighting filter = new KWeighting(audio.sampleRate);
+        for (int c = 0; c < audio.channels; c++) {
+            filter.apply(audio.samples, c, audio.channels, frames, weighted);
+            for (int i = 0; i < steps; i++) {
+                sums[i] += this.kernel.sumOfSquares(weighted, i * step, (i + 1) * step);
+            }
+        }
+
+        double[] powers = new double[steps - 3];
+        for (int i = 0; i < powers.length; i++) {
+            powers[i] = (sums[i] + sums[i + 1] + sums[i + 2] + sums[i + 3]) / (4.0 * step);
+        }
+        double absoluteGate = power(ABSOLUTE_GATE);
+        double relativeGate = gatedMean(powers, absoluteGate) * Math.pow(10, RELATIVE_GATE / 10);
+        double mean = gatedMean(powers, Math.max(absoluteGate, relativeGate));
+        return mean > 0 ? -0.691 + 10 * Math.log10(mean) : Double.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * Gets the mean of the block powers above a gate, or 0 if none is.
+     */
+    private static double gatedMean(double[] powers, double gate) {
+        double sum = 0;
+        int count = 0;
+        for (double power : powers) {
+            if (power > gate) {
+                sum += power;
+                count++;
+            }
+        }
+        return count > 0 ? sum / count : 0;
+    }
+
+    /**
+     * Gets the mean square of a block with a loudness, in LUFS.
+     */
+    private static double power(double loudness) {
+        return Math.pow(10, (loudness + 0.691) / 10);
+    }
+
+    private static double decibels(double value) {
+        return 20 * Math.log10(value);
+    }
+
+    private static String csv(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    private static List<Result> collect(List<Future<Result>> futures, List<Path> files) {
+        List<Result> results = new ArrayList<>(futures.size());
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                results.add(futures.get(i).get());
+            } catch (InterruptedException | ExecutionException e) {
+                // Tasks catch their errors, so this only happens on interrupt
+                results.add(new Result(files.get(i), 0, 0, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY,
+                    Double.NEGATIVE_INFINITY, 0, e));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * A sample read into memory, interleaved, -1...1.
+     */
+    private static final class Audio {
+        final float sampleRate;
+        final int channels;
+        final float[] samples;
+
+        Audio(float sampleRate, int channels, float[] samples) {
+            this.sampleRate = sampleRate;
+            this.channels = channels;
+            this.samples = samples;
+        }
+
+        int frames() {
+            return this.samples.length / this.channels;
+        }
+    }
+
+    /**
+     * The two filters of the K-weighting of BS.1770: a high shelf for the
+     * head, and a high-pass. The coefficients are worked out for the
+     * sample rate from the analogue prototypes the 48 kHz ones in the
+     * standard come from.
+     */
+    private static final class KWeighting {
+        private final double b0, b1, b2, a1, a2;  // shelf
+        private final double c1, c2;  // high-pass; its b are 1, -2, 1
+
+        KWeighting(float sampleRate) {
+            double k = Math.tan(Math.PI * 1681.974450955533 / sampleRate);
+            double q = 0.7071752369554196;
+            double vh = Math.pow(10, 3.999843853973347 / 20);
+            double vb = Math.pow(vh, 0.4996667741545416);
+            double a0 = 1 + k / q + k * k;
+            this.b0 = (vh + vb * k / q + k * k) / a0;
+            this.b1 = 2 * (k * k - vh) / a0;
+            this.b2 = (vh - vb * k / q + k * k) / a0;
+            this.a1 = 2 * (k * k - 1) / a0;
+            this.a2 = (1 - k / q + k * k) / a0;
+
+            k = Math.tan(Math.PI * 38.13547087602444 / sampleRate);
+            q = 0.5003270373238773;
+            a0 = 1 + k / q + k * k;
+            this.c1 = 2 * (k * k - 1) / a0;
+            this.c2 = (1 - k / q + k * k) / a0;
+        }
+
+        /**
+         * Filters one channel of interleaved samples.
+         *
+         * @param out receives the filtered samples of the channel
+         */
+        void apply(float[] samples, int channel, int channels, int frames, float[] out) {
+            double s1 = 0, s2 = 0;  // shelf state
+            double h1 = 0, h2 = 0;  // high-pass state
+            for (int i = 0; i < frames; i++) {
+                double x = samples[i * channels + channel];
+                double y = this.b0 * x + s1;
+                s1 = this.b1 * x - this.a1 * y + s2;
+                s2 = this.b2 * x - this.a2 * y;
+                double z = y + h1;
+                h1 = -2 * y - this.c1 * z + h2;
+                h2 = y - this.c2 * z;
+                out[i] = (float) z;
+            }
+        }
+    }
+
+    /**
+     * The outcome for one sample. Levels are of the sample as written,
+     * in dB; silence is negative infinity.
+     */
+    public static class Result {
+        private final Path file;
+        private final long framesBefore;
+        private final int frames;
+        private final double peak;
+        private final double rms;
+        private final double loudness;
+        private final double gain;
+        private final Exception error;
+
+        Result(Path file, long framesBefore, int frames, double peak, double rms, double loudness, double gain,
+               Exception error) {
+            this.file = file;
+            this.framesBefore = framesBefore;
+            this.frames = frames;
+            this.peak = peak;
+            this.rms = rms;
+            this.loudness = loudness;
+            this.gain = gain;
+            this.error = error;
+        }
+
+        public Path getFile() {
+            return this.file;
+        }
+
+        /**
+         * Gets the length of the sample before trimming, in frames.
+         */
+        public long getFramesBefore() {
+            return this.framesBefore;
+        }
+
+        /**
+         * Gets the length of the sample after trimming, in frames.
+         */
+        public int getFrames() {
+            return this.frames;
+        }
+
+        /**
+         * Gets the peak level in dBFS.
+         */
+        public double getPeak() {
+            return this.peak;
+        }
+
+        /**
+         * Gets the RMS level in dBFS.
+         */
+        public double getRms() {
+            return this.rms;
+        }
+
+        /**
+         * Gets the integrated loudness in LUFS.
+         */
+        public double getLoudness() {
+            return this.loudness;
+        }
+
+        /**
+         * Gets the gain applied by normalizing, in dB.
+         */
+        public double getGain() {
+            return this.gain;
+        }
+
+        /**
+         * Gets the error that made the sample fail, or null.
+         */
+        public Exception getError() {
+            return this.error;
+        }
+
+        @Override
+        public String toString() {
+            if (this.error != null) {
+                return this.file.getFileName() + ": failed (" + this.error.getMessage() + ")";
+            }
+            return String.format("%s: %d -> %d frames, peak %.1f dBFS, RMS %.1f dBFS, %.1f LUFS, gain %+.1f dB",
+                this.file.getFileName(), this.framesBefore, this.frames, this.peak, this.rms, this.loudness,
+                this.gain);
+        }
+    }
+}
@@ -0,0 +1,262 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Plans a sampling session of several jobs across MIDI channels, so
+ * that the tail of one note no longer holds up the next.
+ *
+ * Played on their own, the notes of a job follow one another: each is
+ * pressed, held for the note duration, left to decay and followed by
+ * the gap. The planner keeps the presses in the same order and one at
+ * a time, but lets the next note start as soon as the previous one is
+ * released, on a channel whose last note has decayed and had its gap.
+ * With one channel this is the plain schedule; with more, the decays
+ * and gaps of up to that many notes overlap.
+ *
+ * The channels are picked in turn by which becomes free first, so each
+ * channel (and the output it is recorded from) only ever sounds one
+ * note at a time. Channel 10 (9 counting from zero) is left out, as
+ * General MIDI plays drums on it, so at most 15 channels are used.
+ */
+public class SessionPlanner {
+    public static final int DEFAULT_CHANNELS = 4;
+    public static final int MAX_CHANNELS = 15;
+    private static final int DRUM_CHANNEL = 9;
+
+    private final int channels;
+
+    /**
+     * Constructs a planner.
+     *
+     * @param channels the number of MIDI channels, and so of notes
+     *                 that may sound at once, 1...15
+     */
+    public SessionPlanner(int channels) {
+        if (channels < 1 || channels > MAX_CHANNELS) {
+            throw new IllegalArgumentException("Channels must be 1..." + MAX_CHANNELS);
+        }
+        this.channels = channels;
+    }
+
+    public int getChannels() {
+        return this.channels;
+    }
+
+    /**
+     * Plans a session of jobs as they are now.
+     *
+     * @param jobs the jobs, played in this order
+     */
+    public Plan plan(List<Job> jobs) {
+        return planSnapshots(jobs.stream().map(Job::snapshot).toList());
+    }
+
+    /**
+     * Plans a session of job snapshots.
+     *
+     * @param jobs the snapshots, played in this order
+     */
+    public Plan planSnapshots(List<JobSnapshot> jobs) {
+        NoteSchedule[] schedules = new NoteSchedule[jobs.size()];
+        int rowCount = 0;
+        for (int i = 0; i < schedules.length; i++) {
+            schedules[i] = jobs.get(i).getSchedule();
+            rowCount = Math.addExact(rowCount, schedules[i].size());
+        }
+
+        Plan plan = new Plan(jobs, schedules, rowCount, this.channels);
+        long[] freeTimes = new long[this.channels];
+        long releaseTime = 0;
+        int index = 0;
+        for (int job = 0; job < schedules.length; job++) {
+            NoteSchedule schedule = schedules[job];
+            plan.sequentialTime += schedule.getTotalTime();
+            for (int row = 0; row < schedule.size(); row++) {
+                int channel = 0;
+                for (int c = 1; c < freeTimes.length; c++) {
+                    if (freeTimes[c] < freeTimes[channel]) {
+                        channel = c;
+                    }
+                }
+                long start = Math.max(releaseTime, freeTimes[channel]);
+                releaseTime = start + schedule.getNoteDuration();
+                freeTimes[channel] = releaseTime + schedule.getNoteDecay() + schedule.getNoteGap();
+                plan.totalTime = Math.max(plan.totalTime, freeTimes[channel]);
+
+                plan.jobIndexes[index] = job;
+                plan.rows[index] = row;
+                plan.channelNumbers[index] = (byte) midiChannel(channel);
+                plan.startTimes[index] = start;
+                index++;
+            }
+        }
+        return plan;
+    }
+
+    /**
+     * Gets the MIDI channel of one of the channels a session is planned
+     * for, skipping the drum channel.
+     *
+     * @param slot the channel of the plan, 0...MAX_CHANNELS - 1
+     * @return the MIDI channel, 0...15 but never 9
+     */
+    public static int midiChannel(int slot) {
+        return slot < DRUM_CHANNEL ? slot : slot + 1;
+    }
+
+    /**
+     * Formats a length of time as days, hours, minutes and seconds.
+     *
+     * @param millis the time in milliseconds
+     */
+    public static String formatTime(long millis) {
+        long seconds = millis / 1000;
+        long days = seconds / 86_400;
+        String time = String.format("%d:%02d:%02d", seconds / 3600 % 24, seconds / 60 % 60, seconds % 60);
+        return days > 0 ? days + " d " + time : time;
+    }
+
+    /**
+     * The notes of a planned session in the order they are pressed,
+     * each with its channel and times. Times are in milliseconds from
+     * the start of the session.
+     */
+    public static final class Plan {
+        private final List<JobSnapshot> jobs;
+        private final NoteSchedule[] schedules;
+        private final int channels;
+        private final int[] jobIndexes;
+        private final int[] rows;
+        private final byte[] channelNumbers;
+        private final long[] startTimes;
+        private long sequentialTime;
+        private long totalTime;
+
+        private Plan(List<JobSnapshot> jobs, NoteSchedule[] schedules, int rowCount, int channels) {
+            this.jobs = List.copyOf(jobs);
+            this.schedules = schedules;
+            this.channels = channels;
+            this.jobIndexes = new int[rowCount];
+            this.rows = new int[rowCount];
+            this.channelNumbers = new byte[rowCount];
+            this.startTimes = new long[rowCount];
+        }
+
+        /**
+         * Gets the number of notes played, counting every velocity layer.
+         */
+        public int size() {
+            return this.rows.length;
+        }
+
+        public List<JobSnapshot> getJobs() {
+            return this.jobs;
+        }
+
+        /**
+         * Gets the number of channels the session was planned for.
+         */
+        public int getChannels() {
+            return this.channels;
+        }
+
+        /**
+         * Gets the job a note belongs to.
+         */
+        public JobSnapshot getJob(int index) {
+            return this.jobs.get(this.jobIndexes[index]);
+        }
+
+        public int getNote(int index) {
+            return schedule(index).getNote(this.rows[index]);
+        }
+
+        public int getVelocity(int index) {
+            return schedule(index).getVelocity(this.rows[index]);
+        }
+
+        /**
+         * Gets the MIDI channel a note is played on, 0...15 but never
+         * the drum channel 9, see {@link SessionPlanner#midiChannel}.
+         */
+        public int getChannel(int index) {
+            return this.channelNumbers[index];
+        }
+
+        public long getStartTime(int index) {
+            return this.startTimes[index];
+        }
+
+        public long getReleaseTime(int index) {
+            return this.startTimes[index] + schedule(index).getNoteDuration();
+        }
+
+        /**
+         * Gets the time a note has decayed.
+         */
+        public long getEndTime(int index) {
+            return getReleaseTime(index) + schedule(index).getNoteDecay();
+        }
+
+        /**
+         * Gets the length of the session with the jobs played one note
+         * after another, as each job's own schedule has them.
+         */
+        public long getSequentialTime() {
+            return this.sequentialTime;
+        }
+
+        /**
+         * Gets the length of the planned session, including the gap
+         * after the last note of each channel.
+         */
+        public long getTotalTime() {
+            return this.totalTime;
+        }
+
+        /**
+         * Writes the plan as CSV, one note per line in the order they
+         * are pressed.
+         *
+         * @param path the file to write
+         */
+        public void writeCsv(Path path) throws IOException {
+            try (BufferedWriter out = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+                out.write("job,note,velocity,channel,start,release,end");
+                out.newLine();
+                for (int i = 0; i < size(); i++) {
+                    out.write(quote(getJob(i).getName()));
+                    out.write(',' + Integer.toString(getNote(i)));
+                    out.write(',' + Integer.toString(getVelocity(i)));
+                    out.write(',' + Integer.toString(getChannel(i) + 1));
+                    out.write(',' + Long.toString(getStartTime(i)));
+                    out.write(',' + Long.toString(getReleaseTime(i)));
+                    out.write(',' + Long.toString(getEndTime(i)));
+                    out.newLine();
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d jobs, %d notes, %d channels: %s instead of %s", this.jobs.size(), size(),
+                this.channels, formatTime(this.totalTime), formatTime(this.sequentialTime));
+        }
+
+        private NoteSchedule schedule(int index) {
+            return this.schedules[this.jobIndexes[index]];
+        }
+
+        private static String quote(String value) {
+            if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0
+                    && value.indexOf('\r') < 0) {
+                return value;
+            }
+            return '"' + value.replace("\"", "\"\"") + '"';
+        }
+    }
+}
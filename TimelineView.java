@@ -0,0 +1,525 @@
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javafx.application.Platform;
+import javafx.geometry.Orientation;
+import javafx.geometry.VPos;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.control.ScrollBar;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.scene.input.ScrollEvent;
+import javafx.scene.layout.Region;
+import javafx.scene.paint.Color;
+
+/**
+ * A zoomable, scrollable view of every note and velocity layer of a
+ * job over its whole run time.
+ *
+ * Time runs from left to right and notes from low to high up the view.
+ * Each row of the schedule is a bar in its note's lane, red while the
+ * note is held and green while it decays, stronger for louder layers.
+ * Drag or scroll to pan; scroll with Ctrl held to zoom.
+ *
+ * The view is put together from tiles, {@value #TILE_WIDTH} pixels wide,
+ * for each zoom level. Tiles are drawn into {@link WritableImage}s on
+ * worker threads and kept, so panning only copies images onto the
+ * canvas. When the schedule changes, only the tiles from the first row
+ * that differs on are drawn again, and the old ones are shown until the
+ * new ones are ready. Zoomed out so far that a row is narrower than a
+ * pixel, the rows of each column of pixels are drawn as one line across
+ * their notes, in the colour of the loudest.
+ *
+ * Must only be used from the JavaFX application thread.
+ */
+public final class TimelineView extends Region {
+    private static final int TILE_WIDTH = 256;
+    private static final int MAX_TILES = 160;
+    // Zoom levels are quarter powers of two of milliseconds per pixel
+    private static final int MIN_LEVEL = -8;  // 0.25 ms per pixel
+    private static final int MAX_LEVEL = 64;  // 65 s per pixel
+    static final int AXIS_HEIGHT = 16;
+    private static final int MIN_TICK_SPACING = 80;  // pixels
+
+    private static final int BACKGROUND = 0xFFF4F4F4;
+    private static final int HELD = 0xFFD03020;
+    private static final int DECAYING = 0xFF30A040;
+
+    private final Canvas canvas = new Canvas();
+    private final ScrollBar scrollBar = new ScrollBar();
+    private final ExecutorService workers;
+    private final Map<Long, Tile> tiles = new LinkedHashMap<>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Tile> eldest) {
+            return size() > MAX_TILES;
+        }
+    };
+    private NoteSchedule schedule;
+    private long version;
+    private int level;
+    private double offset;  // milliseconds at the left edge
+    private int tileHeight;
+    private boolean scrolling;
+    private boolean fitPending;
+    private double dragX;
+    private double dragOffset;
+    private long tilesDrawn;
+
+    /**
+     * Constructs an empty view.
+     */
+    public TimelineView() {
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        this.workers = Executors.newFixedThreadPool(threads, task -> {
+            Thread thread = new Thread(task, "timeline-tiles");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.scrollBar.setOrientation(Orientation.HORIZONTAL);
+        this.scrollBar.valueProperty().addListener((obs, oldVal, newVal) -> {
+            if (!this.scrolling) {
+                scrollTo(newVal.doubleValue());
+            }
+        });
+        getChildren().addAll(this.canvas, this.scrollBar);
+
+        this.canvas.setOnMousePressed(event -> {
+            this.dragX = event.getX();
+            this.dragOffset = this.offset;
+        });
+        this.canvas.setOnMouseDragged(event ->
+            scrollTo(this.dragOffset - (event.getX() - this.dragX) * millisPerPixel(this.level)));
+        this.canvas.setOnScroll(this::scrolled);
+    }
+
+    /**
+     * Shows a schedule, redrawing only what differs from the one shown.
+     * The first schedule shown, or the first after null, is zoomed to fit.
+     *
+     * @param schedule the schedule, or null to show nothing
+     */
+    public void setSchedule(NoteSchedule schedule) {
+        NoteSchedule previous = this.schedule;
+        this.schedule = schedule;
+        this.version++;
+        if (schedule == null || previous == null || lowNote(previous) != lowNote(schedule)
+                || highNote(previous) != highNote(schedule)) {
+            // The lanes have moved
+            this.tiles.clear();
+            if (previous == null) {
+                fit();
+                return;
+            }
+        } else {
+            int row = previous.mismatch(schedule);
+            if (row >= 0) {
+                double from = Double.MAX_VALUE;
+                if (row < previous.size()) {
+                    from = previous.getStartTime(row);
+                }
+                if (row < schedule.size()) {
+                    from = Math.min(from, schedule.getStartTime(row));
+                }
+                invalidate(from);
+            }
+        }
+        updateScrollBar();
+        paint();
+    }
+
+    public NoteSchedule getSchedule() {
+        return this.schedule;
+    }
+
+    /**
+     * Zooms so the whole run fits the view.
+     */
+    public void fit() {
+        double width = this.canvas.getWidth();
+        if (width <= 0) {
+            // Not laid out yet
+            this.fitPending = true;
+            return;
+        }
+        this.fitPending = false;
+        double total = this.schedule != null ? Math.max(1, this.schedule.getTotalTime()) : 1;
+        this.level = clampLevel((int) Math.ceil(4 * Math.log(total / width) / Math.log(2)));
+        this.offset = 0;
+        updateScrollBar();
+        paint();
+    }
+
+    /**
+     * Zooms in or out, keeping the time under a point of the view in place.
+     *
+     * @param steps the number of zoom levels, positive to zoom out
+     * @param x the point, in pixels from the left of the view
+     */
+    public void zoom(int steps, double x) {
+        double time = this.offset + x * millisPerPixel(this.level);
+        this.level = clampLevel(this.level + steps);
+        this.offset = time - x * millisPerPixel(this.level);
+        updateScrollBar();
+        paint();
+    }
+
+    /**
+     * Gets the number of milliseconds one pixel stands for.
+     */
+    public double getMillisPerPixel() {
+        return millisPerPixel(this.level);
+    }
+
+    /**
+     * Gets the number of tiles drawn so far.
+     */
+    public long getTilesDrawn() {
+        return this.tilesDrawn;
+    }
+
+    @Override
+    protected void layoutChildren() {
+        double width = getWidth();
+        double barHeight = this.scrollBar.prefHeight(width);
+        double height = Math.max(AXIS_HEIGHT + 1, getHeight() - barHeight);
+        this.canvas.setWidth(width);
+        this.canvas.setHeight(height);
+        this.canvas.relocate(0, 0);
+        this.scrollBar.resizeRelocate(0, height, width, barHeight);
+
+        int newTileHeight = (int) height - AXIS_HEIGHT;
+        if (newTileHeight != this.tileHeight) {
+            this.tileHeight = newTileHeight;
+            this.tiles.clear();
+        }
+        if (this.fitPending) {
+            fit();
+            return;
+        }
+        updateScrollBar();
+        paint();
+    }
+
+    @Override
+    protected double computePrefWidth(double height) {
+        return 500;
+    }
+
+    @Override
+    protected double computePrefHeight(double width) {
+        return 160;
+    }
+
+    private void scrolled(ScrollEvent event) {
+        if (event.isShortcutDown() || event.isControlDown()) {
+            if (event.getDeltaY() != 0) {
+                zoom(event.getDeltaY() > 0 ? -1 : 1, event.getX());
+            }
+        } else {
+            double delta = event.getDeltaX() != 0 ? event.getDeltaX() : event.getDeltaY();
+            scrollTo(this.offset - delta * millisPerPixel(this.level));
+        }
+        event.consume();
+    }
+
+    private void scrollTo(double time) {
+        this.offset = time;
+        updateScrollBar();
+        paint();
+    }
+
+    private void updateScrollBar() {
+        double visible = this.canvas.getWidth() * millisPerPixel(this.level);
+        double total = this.schedule != null ? this.schedule.getTotalTime() : 0;
+        double max = Math.max(0, total - visible);
+        this.offset = Math.max(0, Math.min(this.offset, max));
+
+        this.scrolling = true;
+        this.scrollBar.setMax(max);
+        this.scrollBar.setVisibleAmount(max > 0 ? max * visible / total : 0);
+        this.scrollBar.setUnitIncrement(TILE_WIDTH / 4.0 * millisPerPixel(this.level));
+        this.scrollBar.setBlockIncrement(visible);
+        this.scrollBar.setValue(this.offset);
+        this.scrolling = false;
+    }
+
+    /**
+     * Marks the tiles of every level at or after a time to be drawn again.
+     */
+    private void invalidate(double from) {
+        for (Tile tile : this.tiles.values()) {
+            double end = (tile.index + 1) * TILE_WIDTH * millisPerPixel(tile.level);
+            if (end > from) {
+                tile.neededVersion = this.version;
+            }
+        }
+    }
+
+    /**
+     * Copies the tiles onto the canvas, asking for any that are missing
+     * or out of date, and draws the time axis.
+     */
+    private void paint() {
+        GraphicsContext gc = this.canvas.getGraphicsContext2D();
+        double width = this.canvas.getWidth();
+        gc.setFill(Color.rgb(0xF4, 0xF4, 0xF4));
+        gc.fillRect(0, 0, width, this.canvas.getHeight());
+        if (this.schedule == null || this.tileHeight <= 0) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        int copied = 0;
+        double millisPerPixel = millisPerPixel(this.level);
+        double left = this.offset / millisPerPixel;
+        long first = (long) Math.floor(left / TILE_WIDTH);
+        long last = (long) Math.floor((left + width) / TILE_WIDTH);
+        long count = (long) Math.ceil(this.schedule.getTotalTime() / millisPerPixel / TILE_WIDTH);
+        for (long index = Math.max(0, first); index <= Math.min(last, count - 1); index++) {
+            Tile tile = tile(index);
+            request(tile);
+            if (tile.image != null) {
+                gc.drawImage(tile.image, index * TILE_WIDTH - left, AXIS_HEIGHT);
+                copied++;
+            }
+        }
+        // Draw the tiles next to the view ahead of panning
+        if (first > 0) {
+            request(tile(first - 1));
+        }
+        if (last + 1 < count) {
+            request(tile(last + 1));
+        }
+        paintAxis(gc, this.offset, millisPerPixel, width);
+        Metrics.TIMELINE_PAINT.record(System.nanoTime() - start, copied);
+    }
+
+    /**
+     * Draws a time axis {@value #AXIS_HEIGHT} pixels high along the top
+     * of a canvas, with ticks at round times.
+     *
+     * @param offset the time at the left edge, in milliseconds
+     */
+    static void paintAxis(GraphicsContext gc, double offset, double millisPerPixel, double width) {
+        double step = 1;
+        while (step / millisPerPixel < MIN_TICK_SPACING) {
+            double decade = step;
+            step = decade * 2;
+            if (step / millisPerPixel < MIN_TICK_SPACING) {
+                step = decade * 5;
+            }
+            if (step / millisPerPixel < MIN_TICK_SPACING) {
+                step = decade * 10;
+            }
+        }
+        int decimals = step >= 1000 ? 0 : step >= 100 ? 1 : step >= 10 ? 2 : 3;
+
+        gc.setStroke(Color.GRAY);
+        gc.setFill(Color.DIMGRAY);
+        gc.setLineWidth(1);
+        gc.setTextBaseline(VPos.TOP);
+        for (double time = Math.floor(offset / step) * step; time < offset + width * millisPerPixel;
+                time += step) {
+            double x = Math.floor((time - offset) / millisPerPixel) + 0.5;
+            gc.strokeLine(x, AXIS_HEIGHT - 5, x, AXIS_HEIGHT);
+            gc.fillText(String.format("%." + decimals + "f s", time / 1000), x + 3, 1);
+        }
+        gc.strokeLine(0, AXIS_HEIGHT - 0.5, width, AXIS_HEIGHT - 0.5);
+    }
+
+    private Tile tile(long index) {
+        long key = ((long) this.level << 32) | (index & 0xFFFFFFFFL);
+        Tile tile = this.tiles.get(key);
+        if (tile == null) {
+            tile = new Tile(key, this.level, index, this.version);
+            this.tiles.put(key, tile);
+        }
+        return tile;
+    }
+
+    /**
+     * Has a worker draw a tile, unless it is up to date or being drawn.
+     */
+    private void request(Tile tile) {
+        if (tile.drawnVersion >= tile.neededVersion || tile.requestedVersion >= tile.neededVersion) {
+            return;
+        }
+        tile.requestedVersion = this.version;
+        NoteSchedule drawn = this.schedule;
+        long drawnVersion = this.version;
+        int height = this.tileHeight;
+        this.workers.execute(() -> {
+            if (drawnVersion < tile.neededVersion) {
+                // Changed again since; it is asked for once more when shown
+                return;
+            }
+            EditorEvents.TimelineTile event = new EditorEvents.TimelineTile();
+            event.begin();
+            long start = System.nanoTime();
+            int[] pixels = new int[TILE_WIDTH * height];
+            int rows = drawTile(drawn, millisPerPixel(tile.level), tile.index * TILE_WIDTH * millisPerPixel(tile.level),
+                height, pixels);
+            // The image is not shown yet, so it can be written here
+            WritableImage image = new WritableImage(TILE_WIDTH, height);
+            image.getPixelWriter().setPixels(0, 0, TILE_WIDTH, height, PixelFormat.getIntArgbInstance(),
+                pixels, 0, TILE_WIDTH);
+            Metrics.TIMELINE_TILE.record(System.nanoTime() - start, rows);
+            event.millisPerPixel = millisPerPixel(tile.level);
+            event.index = tile.index;
+            event.rows = rows;
+            event.commit();
+            Platform.runLater(() -> tileDrawn(tile, drawnVersion, image));
+        });
+    }
+
+    private void tileDrawn(Tile tile, long drawnVersion, WritableImage image) {
+        if (this.tiles.get(tile.key) != tile || drawnVersion < tile.drawnVersion) {
+            return;
+        }
+        tile.image = image;
+        tile.drawnVersion = drawnVersion;
+        this.tilesDrawn++;
+        paint();
+    }
+
+    /**
+     * Draws the part of a schedule from a time on into the pixels of a
+     * tile, with the notes of the schedule spread over its height.
+     *
+     * @param schedule the schedule
+     * @param millisPerPixel the zoom
+     * @param start the time at the left of the tile, in milliseconds
+     * @param height the height of the tile
+     * @param pixels the pixels, ARGB by row, {@value #TILE_WIDTH} per row
+     * @return the number of rows drawn
+     */
+    static int drawTile(NoteSchedule schedule, double millisPerPixel, double start, int height, int[] pixels) {
+        Arrays.fill(pixels, BACKGROUND);
+        if (schedule.size() == 0) {
+            return 0;
+        }
+        int highNote = highNote(schedule);
+        double laneHeight = (double) height / (highNote - lowNote(schedule) + 1);
+        double end = start + TILE_WIDTH * millisPerPixel;
+
+        // Rows narrower than a pixel, by column
+        int[] top = new int[TILE_WIDTH];
+        int[] bottom = new int[TILE_WIDTH];
+        int[] loudest = new int[TILE_WIDTH];
+        Arrays.fill(top, Integer.MAX_VALUE);
+
+        int first = firstRowEndingAfter(schedule, start);
+        int row = first;
+        for (; row < schedule.size() && schedule.getStartTime(row) < end; row++) {
+            double laneTop = (highNote - schedule.getNote(row)) * laneHeight;
+            int y0 = (int) laneTop;
+            int y1 = Math.min(height, Math.max(y0 + 1, (int) (laneTop + laneHeight)));
+            int velocity = schedule.getVelocity(row);
+            double x0 = (schedule.getStartTime(row) - start) / millisPerPixel;
+            double x1 = (schedule.getReleaseTime(row) - start) / millisPerPixel;
+            double x2 = (schedule.getEndTime(row) - start) / millisPerPixel;
+            if (x2 - x0 < 1) {
+                int column = (int) Math.floor(x0);
+                if (column >= 0 && column < TILE_WIDTH) {
+                    top[column] = Math.min(top[column], y0);
+                    bottom[column] = Math.max(bottom[column], y1);
+                    loudest[column] = Math.max(loudest[column], velocity);
+                }
+            } else {
+                fill(pixels, x0, x1, y0, y1, shade(HELD, velocity));
+                fill(pixels, x1, x2, y0, y1, shade(DECAYING, velocity));
+            }
+        }
+
+        for (int column = 0; column < TILE_WIDTH; column++) {
+            if (top[column] < bottom[column]) {
+                fill(pixels, column, column + 1, top[column], bottom[column], shade(HELD, loudest[column]));
+            }
+        }
+        return row - first;
+    }
+
+    private static int firstRowEndingAfter(NoteSchedule schedule, double time) {
+        // End times only grow from row to row
+        int low = 0;
+        int high = schedule.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (schedule.getEndTime(middle) <= time) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private static void fill(int[] pixels, double from, double to, int top, int bottom, int color) {
+        int x0 = Math.max(0, (int) Math.floor(from));
+        int x1 = Math.min(TILE_WIDTH, (int) Math.ceil(to));
+        if (x0 >= x1) {
+            return;
+        }
+        for (int y = top; y < bottom; y++) {
+            Arrays.fill(pixels, y * TILE_WIDTH + x0, y * TILE_WIDTH + x1, color);
+        }
+    }
+
+    /**
+     * Blends a colour over the background, more strongly the louder the
+     * velocity.
+     */
+    private static int shade(int color, int velocity) {
+        double strength = 0.3 + 0.7 * velocity / 127;
+        int red = blend((color >> 16) & 0xFF, (BACKGROUND >> 16) & 0xFF, strength);
+        int green = blend((color >> 8) & 0xFF, (BACKGROUND >> 8) & 0xFF, strength);
+        int blue = blend(color & 0xFF, BACKGROUND & 0xFF, strength);
+        return 0xFF000000 | (red << 16) | (green << 8) | blue;
+    }
+
+    private static int blend(int value, int background, double strength) {
+        return (int) Math.round(background + (value - background) * strength);
+    }
+
+    // Notes only rise from row to row
+    private static int lowNote(NoteSchedule schedule) {
+        return schedule.size() > 0 ? schedule.getNote(0) : 0;
+    }
+
+    private static int highNote(NoteSchedule schedule) {
+        return schedule.size() > 0 ? schedule.getNote(schedule.size() - 1) : 0;
+    }
+
+    private static double millisPerPixel(int level) {
+        return Math.pow(2, level / 4.0);
+    }
+
+    private static int clampLevel(int level) {
+        return Math.max(MIN_LEVEL, Math.min(MAX_LEVEL, level));
+    }
+
+    /**
+     * A tile of one zoom level, with the version of the schedule it was
+     * last drawn from and the version it has to be drawn from at least.
+     */
+    private static class Tile {
+        final long key;
+        final int level;
+        final long index;
+        WritableImage image;
+        long drawnVersion = -1;
+        long requestedVersion = -1;
+        volatile long neededVersion;
+
+        Tile(long key, int level, long index, long neededVersion) {
+            this.key = key;
+            this.level = level;
+            this.index = index;
+            this.neededVersion = neededVersion;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The loops of {@link SamplePostProcessor} on the Vector API, as many
+ * samples at a time as the CPU's widest float vectors hold. The samples
+ * left over at the end are done one at a time.
+ *
+ * Only loaded when the jdk.incubator.vector module is present, see
+ * {@link SampleKernel#get()}.
+ */
+final class VectorSampleKernel implements SampleKernel {
+    private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+    // As many shorts as FLOATS has floats, in vectors half as wide
+    private static final VectorSpecies<Short> SHORTS = VectorSpecies.of(short.class,
+        VectorShape.forBitSize(FLOATS.vectorBitSize() / 2));
+    // Squares are summed in float lanes this many samples at a time, then
+    // added up in a double, so long samples keep their precision
+    private static final int SUM_BLOCK = 4096;
+
+    @Override
+    public String getName() {
+        return "vector " + FLOATS.vectorBitSize() + "-bit";
+    }
+
+    @Override
+    public void toFloat(short[] samples, float[] out, int length) {
+        int i = 0;
+        for (int bound = FLOATS.loopBound(length); i < bound; i += FLOATS.length()) {
+            ((FloatVector) ShortVector.fromArray(SHORTS, samples, i).convertShape(VectorOperators.S2F, FLOATS, 0))
+                .mul(1f / 32768).intoArray(out, i);
+        }
+        for (; i < length; i++) {
+            out[i] = samples[i] * (1f / 32768);
+        }
+    }
+
+    @Override
+    public float peak(float[] samples, int length) {
+        FloatVector peaks = FloatVector.zero(FLOATS);
+        int i = 0;
+        for (int bound = FLOATS.loopBound(length); i < bound; i += FLOATS.length()) {
+            peaks = peaks.max(FloatVector.fromArray(FLOATS, samples, i).abs());
+        }
+        float peak = peaks.reduceLanes(VectorOperators.MAX);
+        for (; i < length; i++) {
+            peak = Math.max(peak, Math.abs(samples[i]));
+        }
+        return peak;
+    }
+
+    @Override
+    public double sumOfSquares(float[] samples, int from, int to) {
+        double sum = 0;
+        int i = from;
+        while (to - i >= FLOATS.length()) {
+            int bound = i + FLOATS.loopBound(Math.min(SUM_BLOCK, to - i));
+            FloatVector squares = FloatVector.zero(FLOATS);
+            for (; i < bound; i += FLOATS.length()) {
+                FloatVector values = FloatVector.fromArray(FLOATS, samples, i);
+                squares = squares.add(values.mul(values));
+            }
+            sum += squares.reduceLanes(VectorOperators.ADD);
+        }
+        for (; i < to; i++) {
+            sum += samples[i] * samples[i];
+        }
+        return sum;
+    }
+
+    @Override
+    public int lastAbove(float[] samples, int length, float level) {
+        int i = length;
+        // The tail that does not fill a vector, from the end
+        while (i > FLOATS.loopBound(length)) {
+            i--;
+            if (Math.abs(samples[i]) > level) {
+                return i;
+            }
+        }
+        for (i -= FLOATS.length(); i >= 0; i -= FLOATS.length()) {
+            if (FloatVector.fromArray(FLOATS, samples, i).abs().compare(VectorOperators.GT, level).anyTrue()) {
+                for (int j = i + FLOATS.length() - 1; ; j--) {
+                    if (Math.abs(samples[j]) > level) {
+                        return j;
+                    }
+                }
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public void toShort(float[] samples, float gain, short[] out, int length) {
+        float scale = gain * 32768;
+        int i = 0;
+        for (int bound = FLOATS.loopBound(length); i < bound; i += FLOATS.length()) {
+            FloatVector values = FloatVector.fromArray(FLOATS, samples, i).mul(scale).max(-32768f).min(32767f);
+            ((ShortVector) values.convertShape(VectorOperators.F2S, SHORTS, 0)).intoArray(out, i);
+        }
+        for (; i < length; i++) {
+            out[i] = (short) Math.max(-32768f, Math.min(32767f, samples[i] * scale));
+        }
+    }
+}
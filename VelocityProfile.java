@@ -0,0 +1,157 @@
+import java.lang.ref.WeakReference;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.WeakHashMap;
+
+/**
+ * An immutable list of velocity layers, shared by every note that plays
+ * them.
+ *
+ * Profiles are interned: {@link #of} returns the same instance for the
+ * same velocities for as long as anything uses it, so all the notes of
+ * a job point at one profile, and so do the rows of an expanded job
+ * that play the same layer. The velocities are stored one byte each.
+ * A note whose velocities are edited gets a profile of its own, leaving
+ * the others untouched.
+ */
+public final class VelocityProfile {
+    /**
+     * The profile without any velocities.
+     */
+    public static final VelocityProfile EMPTY = new VelocityProfile(new byte[0]);
+
+    private static final Map<VelocityProfile, WeakReference<VelocityProfile>> INTERNED = new WeakHashMap<>();
+
+    private final byte[] velocities;
+    private final int hash;
+    private final List<Integer> list = new ProfileList();
+
+    private VelocityProfile(byte[] velocities) {
+        this.velocities = velocities;
+        this.hash = Arrays.hashCode(velocities);
+    }
+
+    /**
+     * Gets the profile of the given velocities.
+     *
+     * @param velocities the velocities, each 1...127
+     * @return the shared profile
+     */
+    public static VelocityProfile of(List<Integer> velocities) {
+        byte[] values = new byte[velocities.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = checked(velocities.get(i));
+        }
+        return intern(values);
+    }
+
+    /**
+     * Gets the profile of the given velocities.
+     *
+     * @param velocities the velocities, each 1...127
+     * @return the shared profile
+     */
+    public static VelocityProfile of(int... velocities) {
+        byte[] values = new byte[velocities.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = checked(velocities[i]);
+        }
+        return intern(values);
+    }
+
+    /**
+     * Gets the number of velocity layers.
+     */
+    public int size() {
+        return this.velocities.length;
+    }
+
+    public boolean isEmpty() {
+        return this.velocities.length == 0;
+    }
+
+    /**
+     * Gets the velocity of a layer.
+     */
+    public int get(int layer) {
+        return this.velocities[layer];
+    }
+
+    /**
+     * Gets the profile of a single layer of this one.
+     */
+    public VelocityProfile layer(int layer) {
+        return this.velocities.length == 1 ? this : of(get(layer));
+    }
+
+    /**
+     * Gets the velocities as an unmodifiable list, without copying them.
+     */
+    public List<Integer> asList() {
+        return this.list;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof VelocityProfile profile && Arrays.equals(this.velocities, profile.velocities);
+    }
+
+    @Override
+    public int hashCode() {
+        return this.hash;
+    }
+
+    /**
+     * Gets the velocities separated by commas, as shown in the notes table.
+     */
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < this.velocities.length; i++) {
+            if (i > 0) {
+                text.append(", ");
+            }
+            text.append(this.velocities[i]);
+        }
+        return text.toString();
+    }
+
+    private static byte checked(int velocity) {
+        if (velocity < 1 || velocity > 127) {
+            throw new IllegalArgumentException("Velocity must be 1...127");
+        }
+        return (byte) velocity;
+    }
+
+    private static VelocityProfile intern(byte[] values) {
+        if (values.length == 0) {
+            return EMPTY;
+        }
+        VelocityProfile candidate = new VelocityProfile(values);
+        synchronized (INTERNED) {
+            WeakReference<VelocityProfile> ref = INTERNED.get(candidate);
+            VelocityProfile interned = ref != null ? ref.get() : null;
+            if (interned == null) {
+                INTERNED.put(candidate, new WeakReference<>(candidate));
+                interned = candidate;
+            }
+            return interned;
+        }
+    }
+
+    private class ProfileList extends AbstractList<Integer> implements RandomAccess {
+        @Override
+        public Integer get(int index) {
+            // Integers up to 127 are cached, so this does not allocate
+            return Integer.valueOf(velocities[index]);
+        }
+
+        @Override
+        public int size() {
+            return velocities.length;
+        }
+    }
+}
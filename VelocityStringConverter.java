@@ -0,0 +1,20 @@
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import javafx.util.StringConverter;
+
+/**
+ * Converts the velocities of a note to and from the comma-separated
+ * text shown in the notes table.
+ */
+public class VelocityStringConverter extends StringConverter<List<Integer>> {
+    @Override
+    public String toString(List<Integer> velocities) {
+        return velocities.stream().map(Object::toString).collect(Collectors.joining(", "));
+    }
+
+    @Override
+    public List<Integer> fromString(String string) {
+        return Arrays.stream(string.split(",")).map(String::trim).map(Integer::parseInt).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,117 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+/**
+ * Reads and writes the headers of 16-bit PCM WAV files, the format the
+ * renderer writes.
+ */
+final class WavFile {
+    static final int HEADER_SIZE = 44;
+    private static final int RIFF = 0x46464952;  // "RIFF", little-endian
+    private static final int WAVE = 0x45564157;  // "WAVE"
+    private static final int FMT = 0x20746D66;  // "fmt "
+    private static final int DATA = 0x61746164;  // "data"
+    private static final int MAX_FORMAT_SIZE = 1024;
+
+    private WavFile() {
+    }
+
+    /**
+     * The format and size of the audio of a WAV file.
+     */
+    static final class Format {
+        final float sampleRate;
+        final int channels;
+        final long dataSize;
+
+        Format(float sampleRate, int channels, long dataSize) {
+            this.sampleRate = sampleRate;
+            this.channels = channels;
+            this.dataSize = dataSize;
+        }
+    }
+
+    /**
+     * Reads the header of a 16-bit PCM WAV file and leaves the channel
+     * at the start of the audio.
+     *
+     * @param in the file
+     * @param wav the path of the file, for errors
+     * @return the format, with the size of the audio cut to the end of
+     *         the file if the header claims more
+     */
+    static Format readHeader(FileChannel in, Path wav) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(MAX_FORMAT_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(in, buffer, 12, wav);
+        if (buffer.getInt(0) != RIFF || buffer.getInt(8) != WAVE) {
+            throw new IOException("Not a WAV file: " + wav);
+        }
+        float sampleRate = 0;
+        int channels = 0;
+        while (true) {
+            readFully(in, buffer, 8, wav);
+            int id = buffer.getInt(0);
+            long size = Integer.toUnsignedLong(buffer.getInt(4));
+            if (id == FMT) {
+                if (size < 16 || size >= MAX_FORMAT_SIZE) {
+                    throw new IOException("Invalid WAV format chunk: " + wav);
+                }
+                readFully(in, buffer, (int) (size + (size & 1)), wav);
+                if (buffer.getShort(0) != 1 || buffer.getShort(14) != 16 || buffer.getShort(2) < 1
+                        || buffer.getInt(4) <= 0) {
+                    throw new IOException("Not a 16-bit PCM WAV file: " + wav);
+                }
+                channels = buffer.getShort(2);
+                sampleRate = buffer.getInt(4);
+            } else if (id == DATA) {
+                if (channels == 0) {
+                    throw new IOException("WAV data before its format: " + wav);
+                }
+                return new Format(sampleRate, channels, Math.min(size, in.size() - in.position()));
+            } else {
+                in.position(in.position() + size + (size & 1));
+            }
+        }
+    }
+
+    /**
+     * Writes the header of a 16-bit PCM WAV file into a buffer, which is
+     * cleared first.
+     *
+     * @param buffer a little-endian buffer
+     * @param dataSize the size of the audio that follows, in bytes
+     */
+    static void writeHeader(ByteBuffer buffer, float sampleRate, int channels, long dataSize) throws IOException {
+        if (dataSize + HEADER_SIZE - 8 > 0xFFFFFFFFL) {
+            throw new IOException("Audio is too long for a WAV file");
+        }
+        int rate = (int) sampleRate;
+        int bytesPerFrame = channels * 2;
+        buffer.clear();
+        buffer.putInt(RIFF);
+        buffer.putInt((int) (dataSize + HEADER_SIZE - 8));
+        buffer.putInt(WAVE);
+        buffer.putInt(FMT);
+        buffer.putInt(16);
+        buffer.putShort((short) 1);  // PCM
+        buffer.putShort((short) channels);
+        buffer.putInt(rate);
+        buffer.putInt(rate * bytesPerFrame);
+        buffer.putShort((short) bytesPerFrame);
+        buffer.putShort((short) 16);
+        buffer.putInt(DATA);
+        buffer.putInt((int) dataSize);
+    }
+
+    private static void readFully(FileChannel in, ByteBuffer buffer, int length, Path wav) throws IOException {
+        buffer.clear().limit(length);
+        while (buffer.hasRemaining()) {
+            if (in.read(buffer) < 0) {
+                throw new IOException("WAV file is truncated: " + wav);
+            }
+        }
+    }
+}
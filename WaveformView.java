@@ -0,0 +1,383 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javafx.application.Platform;
+import javafx.geometry.Orientation;
+import javafx.geometry.VPos;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.control.ScrollBar;
+import javafx.scene.input.ScrollEvent;
+import javafx.scene.layout.Region;
+import javafx.scene.paint.Color;
+
+/**
+ * A zoomable, scrollable view of the waveforms of rendered samples,
+ * one lane per file on a common time axis.
+ *
+ * The waveforms are drawn from {@link PeakPyramid}s, read from their
+ * sidecar files (or built, the first time) on a worker thread and kept
+ * for the samples shown last, so the audio itself is never read to pan
+ * or zoom. Each lane is one polygon through the highest and lowest
+ * values of every column of pixels; the work grows with the width of
+ * the view, not with the length of the samples.
+ *
+ * Drag or scroll to pan; scroll with Ctrl held to zoom.
+ *
+ * Must only be used from the JavaFX application thread.
+ */
+public final class WaveformView extends Region {
+    private static final int MAX_PYRAMIDS = 512;
+    private static final int AXIS_HEIGHT = TimelineView.AXIS_HEIGHT;
+    private static final int LANE_GAP = 2;
+    private static final double ZOOM_STEP = Math.pow(2, 0.25);
+    private static final double MIN_MILLIS_PER_PIXEL = 0.01;
+
+    private static final Color BACKGROUND = Color.rgb(0xF4, 0xF4, 0xF4);
+    private static final Color LANE = Color.rgb(0xFF, 0xFF, 0xFF);
+    private static final Color WAVE = Color.rgb(0x30, 0x60, 0xA0);
+
+    private final Canvas canvas = new Canvas();
+    private final ScrollBar scrollBar = new ScrollBar();
+    private final ExecutorService loader;
+    private final Map<Path, PeakPyramid> pyramids = new LinkedHashMap<>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Path, PeakPyramid> eldest) {
+            return size() > MAX_PYRAMIDS;
+        }
+    };
+    private List<Lane> lanes = List.of();
+    // Ignores loads asked for by samples no longer shown
+    private volatile long version;
+    private double millisPerPixel = 1;
+    private double offset;  // milliseconds at the left edge
+    private double shownDuration;
+    private boolean scrolling;
+    private double dragX;
+    private double dragOffset;
+    private short[] mins = new short[0];
+    private short[] maxs = new short[0];
+    private double[] xs = new double[0];
+    private double[] ys = new double[0];
+
+    /**
+     * Constructs an empty view.
+     */
+    public WaveformView() {
+        this.loader = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "waveform-peaks");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.scrollBar.setOrientation(Orientation.HORIZONTAL);
+        this.scrollBar.valueProperty().addListener((obs, oldVal, newVal) -> {
+            if (!this.scrolling) {
+                scrollTo(newVal.doubleValue());
+            }
+        });
+        getChildren().addAll(this.canvas, this.scrollBar);
+
+        this.canvas.setOnMousePressed(event -> {
+            this.dragX = event.getX();
+            this.dragOffset = this.offset;
+        });
+        this.canvas.setOnMouseDragged(event ->
+            scrollTo(this.dragOffset - (event.getX() - this.dragX) * this.millisPerPixel));
+        this.canvas.setOnScroll(this::scrolled);
+    }
+
+    /**
+     * Shows the waveforms of WAV files, one lane each. The zoom is kept
+     * while the samples are as long as the ones shown before, and fitted
+     * to the longest sample otherwise.
+     *
+     * @param files the WAV files; files that do not exist are shown as
+     *              not rendered
+     */
+    public void setSamples(List<Path> files) {
+        this.version++;
+        List<Lane> lanes = new ArrayList<>(files.size());
+        for (Path file : files) {
+            Lane lane = new Lane(file);
+            lane.pyramid = this.pyramids.get(file);
+            lanes.add(lane);
+            if (lane.pyramid == null) {
+                load(lane);
+            }
+        }
+        this.lanes = lanes;
+        lanesChanged();
+    }
+
+    /**
+     * Forgets the waveforms read so far and reads those shown again, as
+     * after the files were rendered anew.
+     */
+    public void reload() {
+        this.pyramids.clear();
+        List<Path> files = new ArrayList<>(this.lanes.size());
+        for (Lane lane : this.lanes) {
+            files.add(lane.file);
+        }
+        setSamples(files);
+    }
+
+    /**
+     * Zooms so the longest sample fits the view.
+     */
+    public void fit() {
+        double width = this.canvas.getWidth();
+        if (width > 0 && this.shownDuration > 0) {
+            this.millisPerPixel = Math.max(MIN_MILLIS_PER_PIXEL, this.shownDuration / width);
+        }
+        this.offset = 0;
+        updateScrollBar();
+        paint();
+    }
+
+    /**
+     * Zooms in or out, keeping the time under a point of the view in place.
+     *
+     * @param steps the number of zoom steps, positive to zoom out
+     * @param x the point, in pixels from the left of the view
+     */
+    public void zoom(int steps, double x) {
+        double time = this.offset + x * this.millisPerPixel;
+        this.millisPerPixel = Math.max(MIN_MILLIS_PER_PIXEL, this.millisPerPixel * Math.pow(ZOOM_STEP, steps));
+        this.offset = time - x * this.millisPerPixel;
+        updateScrollBar();
+        paint();
+    }
+
+    @Override
+    protected void layoutChildren() {
+        double width = getWidth();
+        double barHeight = this.scrollBar.prefHeight(width);
+        double height = Math.max(AXIS_HEIGHT + 1, getHeight() - barHeight);
+        boolean wasEmpty = this.canvas.getWidth() <= 0;
+        this.canvas.setWidth(width);
+        this.canvas.setHeight(height);
+        this.canvas.relocate(0, 0);
+        this.scrollBar.resizeRelocate(0, height, width, barHeight);
+        if (wasEmpty) {
+            fit();
+            return;
+        }
+        updateScrollBar();
+        paint();
+    }
+
+    @Override
+    protected double computePrefWidth(double height) {
+        return 500;
+    }
+
+    @Override
+    protected double computePrefHeight(double width) {
+        return 160;
+    }
+
+    /**
+     * Reads the pyramid of a lane's file on the loader thread.
+     */
+    private void load(Lane lane) {
+        long requested = this.version;
+        this.loader.execute(() -> {
+            if (requested != this.version) {
+                // Browsed past already
+                return;
+            }
+            PeakPyramid pyramid = null;
+            String error = null;
+            try {
+                if (Files.exists(lane.file)) {
+                    pyramid = PeakPyramid.read(lane.file);
+                    if (pyramid == null) {
+                        pyramid = PeakPyramid.build(lane.file);
+                        try {
+                            pyramid.save(lane.file);
+                        } catch (IOException e) {
+                            // Still drawn; it is built again next time
+                            error = "Peaks not saved: " + e.getMessage();
+                        }
+                    }
+                } else {
+                    error = "Not rendered";
+                }
+            } catch (NoSuchFileException e) {
+                error = "Not rendered";
+            } catch (IOException | RuntimeException e) {
+                // A damaged file must not leave the lane loading
+                error = e.getMessage() != null ? e.getMessage() : e.toString();
+            }
+            PeakPyramid loaded = pyramid;
+            String message = error;
+            Platform.runLater(() -> loaded(lane, loaded, message));
+        });
+    }
+
+    private void loaded(Lane lane, PeakPyramid pyramid, String error) {
+        if (pyramid != null) {
+            this.pyramids.put(lane.file, pyramid);
+        }
+        lane.pyramid = pyramid;
+        lane.error = error;
+        if (this.lanes.contains(lane)) {
+            lanesChanged();
+        }
+    }
+
+    /**
+     * Fits the zoom if the longest sample shown has a new length, and
+     * repaints.
+     */
+    private void lanesChanged() {
+        double duration = 0;
+        for (Lane lane : this.lanes) {
+            if (lane.pyramid != null) {
+                duration = Math.max(duration, lane.pyramid.getDuration());
+            }
+        }
+        if (duration > 0 && Math.abs(duration - this.shownDuration) >= 1) {
+            this.shownDuration = duration;
+            fit();
+        } else {
+            updateScrollBar();
+            paint();
+        }
+    }
+
+    private void scrolled(ScrollEvent event) {
+        if (event.isShortcutDown() || event.isControlDown()) {
+            if (event.getDeltaY() != 0) {
+                zoom(event.getDeltaY() > 0 ? -1 : 1, event.getX());
+            }
+        } else {
+            double delta = event.getDeltaX() != 0 ? event.getDeltaX() : event.getDeltaY();
+            scrollTo(this.offset - delta * this.millisPerPixel);
+        }
+        event.consume();
+    }
+
+    private void scrollTo(double time) {
+        this.offset = time;
+        updateScrollBar();
+        paint();
+    }
+
+    private void updateScrollBar() {
+        double visible = this.canvas.getWidth() * this.millisPerPixel;
+        double max = Math.max(0, this.shownDuration - visible);
+        this.offset = Math.max(0, Math.min(this.offset, max));
+
+        this.scrolling = true;
+        this.scrollBar.setMax(max);
+        this.scrollBar.setVisibleAmount(max > 0 ? max * visible / this.shownDuration : 0);
+        this.scrollBar.setUnitIncrement(visible / 10);
+        this.scrollBar.setBlockIncrement(visible);
+        this.scrollBar.setValue(this.offset);
+        this.scrolling = false;
+    }
+
+    private void paint() {
+        GraphicsContext gc = this.canvas.getGraphicsContext2D();
+        double width = this.canvas.getWidth();
+        double height = this.canvas.getHeight();
+        gc.setFill(BACKGROUND);
+        gc.fillRect(0, 0, width, height);
+        if (this.lanes.isEmpty() || width <= 0) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        int columns = (int) Math.ceil(width);
+        if (this.mins.length < columns) {
+            this.mins = new short[columns];
+            this.maxs = new short[columns];
+            this.xs = new double[columns * 2];
+            this.ys = new double[columns * 2];
+        }
+        double laneHeight = (height - AXIS_HEIGHT) / this.lanes.size();
+        long drawn = 0;
+        gc.setTextBaseline(VPos.TOP);
+        for (int i = 0; i < this.lanes.size(); i++) {
+            Lane lane = this.lanes.get(i);
+            double top = AXIS_HEIGHT + i * laneHeight + LANE_GAP / 2.0;
+            double laneInner = Math.max(1, laneHeight - LANE_GAP);
+            gc.setFill(LANE);
+            gc.fillRect(0, top, width, laneInner);
+            if (lane.pyramid != null) {
+                drawn += paintWave(gc, lane.pyramid, columns, top, laneInner);
+            }
+            gc.setFill(Color.DIMGRAY);
+            String label = lane.file.getFileName().toString();
+            if (lane.error != null) {
+                label += ": " + lane.error;
+            } else if (lane.pyramid == null) {
+                label += ": loading...";
+            }
+            gc.fillText(label, 3, top + 1);
+        }
+        TimelineView.paintAxis(gc, this.offset, this.millisPerPixel, width);
+        Metrics.WAVEFORM_PAINT.record(System.nanoTime() - start, drawn);
+    }
+
+    /**
+     * Draws a waveform as one polygon, along the highest values from
+     * left to right and back along the lowest.
+     *
+     * @return the number of columns drawn
+     */
+    private int paintWave(GraphicsContext gc, PeakPyramid pyramid, int columns, double top, double height) {
+        double framesPerMilli = pyramid.getSampleRate() / 1000;
+        int count = pyramid.peaks(this.offset * framesPerMilli, this.millisPerPixel * framesPerMilli, columns,
+            this.mins, this.maxs);
+        if (count == 0) {
+            return 0;
+        }
+        double middle = top + height / 2;
+        double scale = height / 2 / 32768.0;
+        for (int column = 0; column < count; column++) {
+            double high = middle - this.maxs[column] * scale;
+            double low = middle - this.mins[column] * scale;
+            if (low - high < 1) {
+                // Keep quiet parts visible as a line
+                double centre = (low + high) / 2;
+                high = centre - 0.5;
+                low = centre + 0.5;
+            }
+            this.xs[column] = column;
+            this.ys[column] = high;
+            this.xs[count * 2 - 1 - column] = column;
+            this.ys[count * 2 - 1 - column] = low;
+        }
+        // The last column is as wide as the others
+        this.xs[count - 1] = count;
+        this.xs[count] = count;
+        gc.setFill(WAVE);
+        gc.fillPolygon(this.xs, this.ys, count * 2);
+        return count;
+    }
+
+    /**
+     * A file shown in the view, with its pyramid once read, and why it
+     * could not be read or its sidecar could not be saved.
+     */
+    private static class Lane {
+        final Path file;
+        PeakPyramid pyramid;
+        String error;
+
+        Lane(Path file) {
+            this.file = file;
+        }
+    }
+}
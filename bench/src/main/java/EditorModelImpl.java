@@ -0,0 +1,65 @@
+import java.util.List;
+import benchmarks.EditorModel;
+
+/**
+ * Gives the benchmarks access to the editor in the default package.
+ */
+public class EditorModelImpl implements EditorModel {
+    private final VelocityStringConverter converter = new VelocityStringConverter();
+
+    @Override
+    public Object newJob(String range, String interval, int velocityCount) {
+        String[] bounds = range.split("-");
+        Job job = new Job("Benchmark");
+        job.setFromNote(Integer.parseInt(bounds[0]));
+        job.setToNote(Integer.parseInt(bounds[1]));
+        job.setInterval(Job.Interval.valueOf(interval));
+        job.setSpecificVelocities(EditorModel.spreadVelocities(velocityCount));
+        return job;
+    }
+
+    @Override
+    public Object getNotes(Object job) {
+        return ((Job) job).getNotes();
+    }
+
+    @Override
+    public Object getSchedule(Object job) {
+        return ((Job) job).getSchedule();
+    }
+
+    @Override
+    public void setDistributedVelocities(Object job, int first, int last, int count) {
+        ((Job) job).setDistributedVelocities(first, last, count);
+    }
+
+    @Override
+    public Object newNote(int note, List<Integer> velocities, int startTime, int endTime) {
+        return new Note(note, velocities, startTime, endTime);
+    }
+
+    @Override
+    public String getVelocityString(Object note) {
+        return ((Note) note).getVelocityString();
+    }
+
+    @Override
+    public Object createNotesModel(Object job, int visibleRows) {
+        NotesListModel model = new NotesListModel();
+        model.setJob((Job) job);
+        for (int i = 0; i < Math.min(visibleRows, model.size()); i++) {
+            model.get(i);
+        }
+        return model;
+    }
+
+    @Override
+    public String velocitiesToString(List<Integer> velocities) {
+        return this.converter.toString(velocities);
+    }
+
+    @Override
+    public List<Integer> velocitiesFromString(String string) {
+        return this.converter.fromString(string);
+    }
+}
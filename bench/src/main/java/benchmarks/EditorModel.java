@@ -0,0 +1,65 @@
+package benchmarks;
+
+import java.util.List;
+
+/**
+ * The editor code under benchmark.
+ *
+ * The editor lives in the default package, which JMH benchmarks cannot
+ * use and named packages cannot import. The default-package
+ * {@code EditorModelImpl} implements this interface on its behalf; the
+ * calls through it are monomorphic and are inlined by the JIT.
+ */
+public interface EditorModel {
+
+    /**
+     * Creates a job over a note range with evenly spread velocity layers.
+     *
+     * @param range the note range, for example "40-120"
+     * @param interval the name of a Job.Interval constant
+     * @param velocityCount the number of velocity layers
+     */
+    Object newJob(String range, String interval, int velocityCount);
+
+    Object getNotes(Object job);
+
+    Object getSchedule(Object job);
+
+    void setDistributedVelocities(Object job, int first, int last, int count);
+
+    Object newNote(int note, List<Integer> velocities, int startTime, int endTime);
+
+    String getVelocityString(Object note);
+
+    /**
+     * Shows a job in a notes list model and reads the rows a table
+     * would show on screen.
+     */
+    Object createNotesModel(Object job, int visibleRows);
+
+    String velocitiesToString(List<Integer> velocities);
+
+    List<Integer> velocitiesFromString(String string);
+
+    /**
+     * Loads the implementation from the default package.
+     */
+    static EditorModel load() {
+        try {
+            return (EditorModel) Class.forName("EditorModelImpl").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("EditorModelImpl is missing from the class path", e);
+        }
+    }
+
+    /**
+     * Gets evenly spread velocities between 1 and 127.
+     */
+    static List<Integer> spreadVelocities(int count) {
+        Integer[] velocities = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            velocities[i] = count == 1 ? 90 : 1 + i * 126 / (count - 1);
+        }
+        return List.of(velocities);
+    }
+}
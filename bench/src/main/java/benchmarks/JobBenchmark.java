@@ -0,0 +1,49 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks note generation from a job.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JobBenchmark {
+
+    @Param({"40-52", "40-120", "0-127"})
+    public String range;
+
+    @Param({"ONE", "TWELVE"})
+    public String interval;
+
+    @Param({"1", "5", "16"})
+    public int velocityCount;
+
+    private EditorModel model;
+    private Object job;
+
+    @Setup
+    public void setUp() {
+        this.model = EditorModel.load();
+        this.job = this.model.newJob(this.range, this.interval, this.velocityCount);
+    }
+
+    @Benchmark
+    public Object getNotes() {
+        return this.model.getNotes(this.job);
+    }
+
+    @Benchmark
+    public Object getSchedule() {
+        return this.model.getSchedule(this.job);
+    }
+
+    @Benchmark
+    public Object createNotesModel() {
+        return this.model.createNotesModel(this.job, 40);
+    }
+}
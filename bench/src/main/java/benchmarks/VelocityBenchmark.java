@@ -0,0 +1,62 @@
+package benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks velocity handling: distributing layers over a job,
+ * building notes, and converting velocities to and from table text.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VelocityBenchmark {
+
+    @Param({"1", "5", "16"})
+    public int velocityCount;
+
+    private EditorModel model;
+    private Object job;
+    private Object note;
+    private List<Integer> velocities;
+    private String velocityText;
+
+    @Setup
+    public void setUp() {
+        this.model = EditorModel.load();
+        this.job = this.model.newJob("40-120", "ONE", 1);
+        this.velocities = EditorModel.spreadVelocities(this.velocityCount);
+        this.note = this.model.newNote(60, this.velocities, 0, 1500);
+        this.velocityText = this.model.velocitiesToString(this.velocities);
+    }
+
+    @Benchmark
+    public Object setDistributedVelocities() {
+        this.model.setDistributedVelocities(this.job, 1, 127, this.velocityCount);
+        return this.job;
+    }
+
+    @Benchmark
+    public Object newNote() {
+        return this.model.newNote(60, this.velocities, 0, 1500);
+    }
+
+    @Benchmark
+    public String getVelocityString() {
+        return this.model.getVelocityString(this.note);
+    }
+
+    @Benchmark
+    public String converterToString() {
+        return this.model.velocitiesToString(this.velocities);
+    }
+
+    @Benchmark
+    public List<Integer> converterFromString() {
+        return this.model.velocitiesFromString(this.velocityText);
+    }
+}
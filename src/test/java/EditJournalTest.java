@@ -0,0 +1,177 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Checks that an {@link EditJournal} replays what it recorded, stops at a
+ * damaged record and merges edits as documented.
+ */
+class EditJournalTest {
+    private static final UUID JOB = UUID.randomUUID();
+
+    @TempDir
+    Path directory;
+
+    private final List<String> applied = new ArrayList<>();
+
+    @Test
+    void replaysEditsUndosAndRedos() throws IOException {
+        Path file = this.directory.resolve("journal.bin");
+        try (EditJournal journal = EditJournal.open(file, this::apply)) {
+            journal.record(edit(EditJournal.Field.NAME, "Job1", "Bass"));
+            journal.seal();
+            journal.record(edit(EditJournal.Field.FROM_NOTE, 21, 36));
+            journal.seal();
+            journal.record(edit(EditJournal.Field.INTERVAL, Job.Interval.ONE, Job.Interval.SIX));
+            assertTrue(journal.undo());
+            assertTrue(journal.undo());
+            assertTrue(journal.redo());
+        }
+        assertEquals(List.of("INTERVAL=ONE", "FROM_NOTE=21", "FROM_NOTE=36"), this.applied);
+        this.applied.clear();
+
+        try (EditJournal journal = EditJournal.open(file, this::apply)) {
+            assertEquals(6, journal.getReplayedCount());
+            assertEquals(List.of("NAME=Bass", "FROM_NOTE=36", "INTERVAL=SIX", "INTERVAL=ONE", "FROM_NOTE=21",
+                "FROM_NOTE=36"), this.applied);
+            // The history is as it was before the journal was closed
+            assertTrue(journal.canRedo());
+            assertTrue(journal.redo());
+            assertTrue(journal.undo());
+            assertTrue(journal.undo());
+            assertTrue(journal.undo());
+            assertFalse(journal.undo());
+        }
+        assertEquals("NAME=Job1", this.applied.get(this.applied.size() - 1));
+    }
+
+    @Test
+    void dropsARecordCutShortAndAppendsAfterTheRest() throws IOException {
+        Path file = this.directory.resolve("journal.bin");
+        long firstEnd = writeTwoEdits(file);
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 3));
+
+        try (EditJournal journal = EditJournal.open(file, this::apply)) {
+            assertEquals(1, journal.getReplayedCount());
+            assertEquals(firstEnd, Files.size(file));
+            journal.record(edit(EditJournal.Field.NOTE_GAP, 100, 300));
+        }
+        this.applied.clear();
+
+        try (EditJournal journal = EditJournal.open(file, this::apply)) {
+            assertEquals(2, journal.getReplayedCount());
+            assertEquals(List.of("NOTE_DURATION=500", "NOTE_GAP=300"), this.applied);
+        }
+    }
+
+    @Test
+    void stopsAtARecordWithABadChecksum() throws IOException {
+        Path file = this.directory.resolve("journal.bin");
+        long firstEnd = writeTwoEdits(file);
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length - 1] ^= 0x01;
+        Files.write(file, bytes);
+
+        try (EditJournal journal = EditJournal.open(file, this::apply)) {
+            assertEquals(1, journal.getReplayedCount());
+            assertEquals(firstEnd, Files.size(file));
+        }
+        assertEquals(List.of("NOTE_DURATION=500"), this.applied);
+    }
+
+    @Test
+    void mergesEditsOfTheSameFieldUntilSealed() throws IOException {
+        Path file = this.directory.resolve("journal.bin");
+        try (EditJournal journal = EditJournal.open(file, this::apply)) {
+            journal.record(edit(EditJournal.Field.NOTE_DECAY, 100, 110));
+            journal.record(edit(EditJournal.Field.NOTE_DECAY, 110, 120));
+            journal.record(edit(EditJournal.Field.NOTE_DECAY, 120, 130));
+            assertTrue(journal.undo());
+            assertFalse(journal.canUndo());
+            assertEquals(List.of("NOTE_DECAY=100"), this.applied);
+
+            assertTrue(journal.redo());
+            journal.record(edit(EditJournal.Field.NOTE_DECAY, 130, 140));
+            journal.seal();
+            journal.record(edit(EditJournal.Field.NOTE_DECAY, 140, 150));
+            assertTrue(journal.undo());
+            assertTrue(journal.undo());
+            assertEquals("NOTE_DECAY=130", this.applied.get(this.applied.size() - 1));
+        }
+    }
+
+    @Test
+    void neverMergesVelocityEdits() throws IOException {
+        Path file = this.directory.resolve("journal.bin");
+        VelocityProfile first = VelocityProfile.of(100);
+        VelocityProfile second = VelocityProfile.of(40, 100);
+        VelocityProfile third = VelocityProfile.of(40, 80, 100);
+        try (EditJournal journal = EditJournal.open(file, this::apply)) {
+            journal.record(edit(EditJournal.Field.VELOCITIES, first, second));
+            journal.record(edit(EditJournal.Field.VELOCITIES, second, third));
+            assertTrue(journal.undo());
+            assertTrue(journal.undo());
+            assertFalse(journal.canUndo());
+        }
+        assertEquals(List.of("VELOCITIES=" + second, "VELOCITIES=" + first), this.applied);
+    }
+
+    @Test
+    void emptiesTheFileAtACheckpoint() throws IOException {
+        Path file = this.directory.resolve("journal.bin");
+        List<String> saves = new ArrayList<>();
+        try (EditJournal journal = EditJournal.open(file, this::apply)) {
+            journal.record(edit(EditJournal.Field.NOTE_DURATION, 1000, 500));
+            assertTrue(journal.isDirty());
+            journal.checkpoint(() -> saves.add("saved"));
+            assertFalse(journal.isDirty());
+            // The history outlives the checkpoint
+            assertTrue(journal.canUndo());
+        }
+        assertEquals(List.of("saved"), saves);
+        this.applied.clear();
+
+        try (EditJournal journal = EditJournal.open(file, this::apply)) {
+            assertEquals(0, journal.getReplayedCount());
+        }
+        assertEquals(List.of(), this.applied);
+    }
+
+    /**
+     * Writes two edits to a new journal.
+     *
+     * @return the end of the first record
+     */
+    private long writeTwoEdits(Path file) throws IOException {
+        try (EditJournal journal = EditJournal.open(file, this::apply)) {
+            journal.record(edit(EditJournal.Field.NOTE_DURATION, 1000, 500));
+            journal.seal();
+        }
+        long firstEnd = Files.size(file);
+        try (EditJournal journal = EditJournal.open(file, this::apply)) {
+            journal.record(edit(EditJournal.Field.NOTE_GAP, 100, 200));
+        }
+        this.applied.clear();
+        return firstEnd;
+    }
+
+    private void apply(UUID jobId, EditJournal.Field field, int key, Object value) {
+        assertEquals(JOB, jobId);
+        this.applied.add(field + "=" + value);
+    }
+
+    private static EditJournal.Edit edit(EditJournal.Field field, Object before, Object after) {
+        return new EditJournal.Edit(JOB, field, 0, before, after);
+    }
+}
@@ -0,0 +1,158 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that {@link JobImporter} reads both formats and reports the
+ * records it skips by line.
+ */
+class JobImporterTest {
+    private final List<Job> jobs = new ArrayList<>();
+
+    @Test
+    void readsCsvWithAnyColumnSpelling() throws IOException {
+        UUID id = UUID.randomUUID();
+        JobImporter.Result result = importText(JobImporter.Format.CSV,
+            "\uFEFFName,ID,From Note,to_note,Interval,Duration,Decay,Gap,Silence Threshold,Velocities,Comment\r\n"
+            + "Bass," + id + ",24,48,THREE,1500,600,100,-72,\"40 80 120\",\"a, b\"\r\n"
+            + "Pad,,,,,,,,,20-120/8,\n"
+            + "Lead,,60,72,12,,,,,100,\n");
+
+        assertEquals(3, result.getRecords());
+        assertEquals(3, result.getImported());
+        assertEquals(0, result.getErrorCount());
+
+        Job bass = this.jobs.get(0);
+        assertEquals("Bass", bass.getName());
+        assertEquals(id, bass.getId());
+        assertEquals(24, bass.getFromNote());
+        assertEquals(48, bass.getToNote());
+        assertEquals(Job.Interval.THREE, bass.getInterval());
+        assertEquals(1500, bass.getNoteDuration());
+        assertEquals(600, bass.getNoteDecay());
+        assertEquals(100, bass.getNoteGap());
+        assertEquals(-72, bass.getSilenceThreshold());
+        assertEquals(List.of(40, 80, 120), bass.getVelocities());
+
+        Job expected = new Job("Pad");
+        expected.setDistributedVelocities(20, 120, 8);
+        Job pad = this.jobs.get(1);
+        assertEquals(expected.getVelocities(), pad.getVelocities());
+        assertEquals(expected.getFromNote(), pad.getFromNote());
+        assertEquals(expected.getNoteDuration(), pad.getNoteDuration());
+
+        Job lead = this.jobs.get(2);
+        assertEquals(Job.Interval.TWELVE, lead.getInterval());
+        assertEquals(List.of(100), lead.getVelocities());
+    }
+
+    @Test
+    void readsJsonLines() throws IOException {
+        JobImporter.Result result = importText(JobImporter.Format.JSON_LINES,
+            "{\"name\": \"Strings \\u266A\", \"fromNote\": 36, \"toNote\": 84, \"interval\": 6,"
+            + " \"velocities\": [30, 90]}\n"
+            + "\n"
+            + "{\"name\": \"Keys\", \"velocities\": \"20-120/4\", \"extra\": true}\n");
+
+        assertEquals(2, result.getImported());
+        assertEquals(0, result.getErrorCount());
+        assertEquals("Strings \u266A", this.jobs.get(0).getName());
+        assertEquals(Job.Interval.SIX, this.jobs.get(0).getInterval());
+        assertEquals(List.of(30, 90), this.jobs.get(0).getVelocities());
+        Job expected = new Job("Keys");
+        expected.setDistributedVelocities(20, 120, 4);
+        assertEquals(expected.getVelocities(), this.jobs.get(1).getVelocities());
+    }
+
+    @Test
+    void skipsBadCsvRowsWithTheirLines() throws IOException {
+        JobImporter.Result result = importText(JobImporter.Format.CSV,
+            "name,from,to,duration,velocities\n"
+            + "Good,60,72,500,100\n"
+            + "Reversed,72,60,500,100\n"
+            + "\"Two\nlines\",60,200,500,100\n"
+            + "Zero,60,72,0,100\n"
+            + "Words,60,72,long,100\n"
+            + "Loud,60,72,500,128\n"
+            + "Also good,60,72,500,100\n");
+
+        assertEquals(7, result.getRecords());
+        assertEquals(2, result.getImported());
+        assertEquals(5, result.getErrorCount());
+        assertEquals(List.of(3L, 4L, 6L, 7L, 8L), lines(result));
+        assertEquals(List.of("Good", "Also good"), names());
+    }
+
+    @Test
+    void skipsBadJsonLinesWithTheirLines() throws IOException {
+        JobImporter.Result result = importText(JobImporter.Format.JSON_LINES,
+            "{\"name\": \"Good\"}\n"
+            + "{\"name\": \"Unfinished\"\n"
+            + "{\"name\": \"Bad interval\", \"interval\": 5}\n"
+            + "[1, 2]\n"
+            + "{\"name\": \"Also good\"}\n");
+
+        assertEquals(5, result.getRecords());
+        assertEquals(List.of(2L, 3L, 4L), lines(result));
+        assertEquals(List.of("Good", "Also good"), names());
+    }
+
+    @Test
+    void refusesMissingAndBlankNames() throws IOException {
+        JobImporter.Result csv = importText(JobImporter.Format.CSV,
+            "name,from\n"
+            + ",60\n"
+            + "\"   \",60\n");
+        assertEquals(List.of(2L, 3L), lines(csv));
+
+        JobImporter.Result json = importText(JobImporter.Format.JSON_LINES,
+            "{\"from\": 60}\n"
+            + "{\"name\": \"\"}\n"
+            + "{\"name\": \" \\t \"}\n");
+        assertEquals(List.of(1L, 2L, 3L), lines(json));
+        assertEquals(List.of(), this.jobs);
+        assertEquals("Name is missing", json.getErrors().get(0).getMessage());
+    }
+
+    @Test
+    void refusesCsvWithoutANameColumn() {
+        assertThrows(IOException.class, () -> importText(JobImporter.Format.CSV, "from,to\n60,72\n"));
+    }
+
+    @Test
+    void handsOnJobsInBatches() throws IOException {
+        StringBuilder text = new StringBuilder("name\n");
+        for (int i = 0; i < 25; i++) {
+            text.append("Job").append(i).append('\n');
+        }
+        List<Integer> sizes = new ArrayList<>();
+        new JobImporter(10).importJobs(channel(text.toString()), JobImporter.Format.CSV,
+            (batch, bytesRead) -> sizes.add(batch.size()));
+        assertEquals(List.of(10, 10, 5), sizes);
+    }
+
+    private JobImporter.Result importText(JobImporter.Format format, String text) throws IOException {
+        return new JobImporter().importJobs(channel(text), format, (batch, bytesRead) -> this.jobs.addAll(batch));
+    }
+
+    private static ReadableByteChannel channel(String text) {
+        return Channels.newChannel(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static List<Long> lines(JobImporter.Result result) {
+        return result.getErrors().stream().map(JobImporter.RowError::getLine).toList();
+    }
+
+    private List<String> names() {
+        return this.jobs.stream().map(Job::getName).toList();
+    }
+}
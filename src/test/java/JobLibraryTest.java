@@ -0,0 +1,147 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Checks that jobs come back from a {@link JobLibrary} as they were
+ * written, from both versions of the file, and that damaged files are
+ * refused when opened.
+ */
+class JobLibraryTest {
+    // Offsets in the file, see the format in JobLibrary
+    private static final int VERSION_OFFSET = 4;
+    private static final int FIRST_RECORD = 32;
+    private static final int RECORD_SIZE = 44;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void readsBackEveryField() throws IOException {
+        List<Job> jobs = sampleJobs();
+        Path file = this.directory.resolve("jobs.mjob");
+        JobLibrary.write(file, jobs);
+
+        JobLibrary library = JobLibrary.open(file);
+        assertEquals(jobs.size(), library.size());
+        for (int i = 0; i < jobs.size(); i++) {
+            assertSameJob(jobs.get(i), library.load(i));
+            assertEquals(jobs.get(i).getName(), library.getName(i));
+            assertEquals(jobs.get(i).getId(), library.getId(i));
+        }
+    }
+
+    @Test
+    void readsVersionOneWithTheDefaultThreshold() throws IOException {
+        List<Job> jobs = sampleJobs();
+        Path file = this.directory.resolve("jobs.mjob");
+        JobLibrary.write(file, jobs);
+        // Version 1 had a reserved byte in place of the threshold
+        byte[] bytes = Files.readAllBytes(file);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).putShort(VERSION_OFFSET, (short) 1);
+        for (int i = 0; i < jobs.size(); i++) {
+            buffer.put(FIRST_RECORD + i * RECORD_SIZE + 43, (byte) 0);
+        }
+        Files.write(file, bytes);
+
+        JobLibrary library = JobLibrary.open(file);
+        for (int i = 0; i < jobs.size(); i++) {
+            Job job = library.load(i);
+            assertEquals(Job.DEFAULT_SILENCE_THRESHOLD, job.getSilenceThreshold());
+            jobs.get(i).setSilenceThreshold(Job.DEFAULT_SILENCE_THRESHOLD);
+            assertSameJob(jobs.get(i), job);
+        }
+    }
+
+    @Test
+    void copiesRecordsOfAnOpenLibrary() throws IOException {
+        List<Job> jobs = sampleJobs();
+        Path first = this.directory.resolve("first.mjob");
+        JobLibrary.write(first, jobs);
+        JobLibrary library = JobLibrary.open(first);
+
+        Job added = new Job("Added", 300, 200, 100);
+        List<JobLibrary.Entry> entries = new ArrayList<>();
+        for (int i = 0; i < library.size(); i++) {
+            entries.add(JobLibrary.Entry.of(library, i));
+        }
+        entries.add(JobLibrary.Entry.of(added.snapshot()));
+        Path second = this.directory.resolve("second.mjob");
+        JobLibrary.writeEntries(second, entries);
+
+        JobLibrary copy = JobLibrary.open(second);
+        assertEquals(jobs.size() + 1, copy.size());
+        for (int i = 0; i < jobs.size(); i++) {
+            assertSameJob(jobs.get(i), copy.load(i));
+        }
+        assertSameJob(added, copy.load(jobs.size()));
+    }
+
+    @Test
+    void refusesRecordsPointingOutsideTheDataTable() throws IOException {
+        Path file = this.directory.resolve("jobs.mjob");
+        JobLibrary.write(file, sampleJobs());
+        byte[] bytes = Files.readAllBytes(file);
+        // The velocity offset of the second record
+        ByteBuffer.wrap(bytes).putInt(FIRST_RECORD + RECORD_SIZE + 20, Integer.MAX_VALUE - 10);
+        Files.write(file, bytes);
+
+        assertThrows(IOException.class, () -> JobLibrary.open(file));
+    }
+
+    @Test
+    void refusesUnknownIntervals() throws IOException {
+        Path file = this.directory.resolve("jobs.mjob");
+        JobLibrary.write(file, sampleJobs());
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[FIRST_RECORD + 42] = 5;
+        Files.write(file, bytes);
+
+        assertThrows(IOException.class, () -> JobLibrary.open(file));
+    }
+
+    @Test
+    void refusesTruncatedFiles() throws IOException {
+        Path file = this.directory.resolve("jobs.mjob");
+        JobLibrary.write(file, sampleJobs());
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 1));
+
+        assertThrows(IOException.class, () -> JobLibrary.open(file));
+    }
+
+    private static List<Job> sampleJobs() {
+        Job plain = new Job("Plain");
+        Job edited = new Job("Ünïcode ♪ name", 1500, 600, 100);
+        edited.setFromNote(21);
+        edited.setToNote(108);
+        edited.setInterval(Job.Interval.THREE);
+        edited.setSpecificVelocities(List.of(20, 64, 127));
+        edited.setSilenceThreshold(-72);
+        Job empty = new Job("No velocities");
+        empty.setSpecificVelocities(List.of());
+        return new ArrayList<>(List.of(plain, edited, empty));
+    }
+
+    private static void assertSameJob(Job expected, Job actual) {
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getName(), actual.getName());
+        assertEquals(expected.getFromNote(), actual.getFromNote());
+        assertEquals(expected.getToNote(), actual.getToNote());
+        assertEquals(expected.getInterval(), actual.getInterval());
+        assertEquals(expected.getNoteDuration(), actual.getNoteDuration());
+        assertEquals(expected.getNoteDecay(), actual.getNoteDecay());
+        assertEquals(expected.getNoteGap(), actual.getNoteGap());
+        assertEquals(expected.getVelocityProfile(), actual.getVelocityProfile());
+        assertEquals(expected.getSilenceThreshold(), actual.getSilenceThreshold());
+    }
+}
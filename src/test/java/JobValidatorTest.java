@@ -0,0 +1,142 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Checks that a {@link JobValidator} keeps the problems of jobs up to
+ * date as they change.
+ */
+class JobValidatorTest {
+    @TempDir
+    Path directory;
+
+    // Events are delivered on the thread that makes the change
+    private final JobRepository repository = new JobRepository(Runnable::run);
+    private JobValidator validator;
+
+    @AfterEach
+    void close() {
+        if (this.validator != null) {
+            this.validator.close();
+        }
+    }
+
+    @Test
+    void checksEveryJobAtTheStart() {
+        Job reversed = job("Reversed", 72, 60);
+        Job good = job("Good", 60, 72);
+        this.repository.add(reversed);
+        this.repository.add(good);
+        this.validator = new JobValidator(this.repository, Runnable::run);
+
+        await(() -> rules(reversed.getId()).equals(List.of(JobValidator.Rule.NOTE_RANGE)));
+        assertEquals(List.of(), this.validator.getProblems(good.getId()));
+        assertEquals(1, this.validator.getJobsWithProblems());
+    }
+
+    @Test
+    void rechecksSubmittedAndUpdatedJobs() {
+        Job job = job("Bass", 72, 60);
+        this.repository.add(job);
+        this.validator = new JobValidator(this.repository, Runnable::run);
+        await(() -> rules(job.getId()).equals(List.of(JobValidator.Rule.NOTE_RANGE)));
+
+        // Edited directly, as the editor does, then submitted
+        job.setFromNote(60);
+        job.setToNote(80);
+        this.validator.submit(job.getId());
+        await(() -> rules(job.getId()).isEmpty());
+
+        this.repository.update(job.getId(), changed -> changed.setSpecificVelocities(List.of(64, 64)));
+        await(() -> rules(job.getId()).equals(List.of(JobValidator.Rule.REPEATED_VELOCITY)));
+
+        // 60...80 misses the last note in octaves
+        this.repository.update(job.getId(), changed -> changed.setInterval(Job.Interval.TWELVE));
+        await(() -> rules(job.getId()).equals(List.of(JobValidator.Rule.LAST_NOTE_MISSED,
+            JobValidator.Rule.REPEATED_VELOCITY)));
+    }
+
+    @Test
+    void findsSharedNamesAsJobsAreRenamedAndRemoved() {
+        Job bass = job("Bass", 60, 72);
+        Job lead = job("Lead", 60, 72);
+        Job pad = job("Pad", 60, 72);
+        this.repository.add(bass);
+        this.repository.add(lead);
+        this.repository.add(pad);
+        this.validator = new JobValidator(this.repository, Runnable::run);
+
+        this.repository.update(lead.getId(), job -> job.setName("Bass"));
+        this.repository.update(pad.getId(), job -> job.setName("Bass"));
+        List<JobValidator.Rule> duplicate = List.of(JobValidator.Rule.DUPLICATE_NAME);
+        await(() -> rules(bass.getId()).equals(duplicate) && rules(lead.getId()).equals(duplicate)
+            && rules(pad.getId()).equals(duplicate));
+
+        this.repository.update(lead.getId(), job -> job.setName("Lead"));
+        await(() -> rules(lead.getId()).isEmpty());
+        assertEquals(duplicate, rules(bass.getId()));
+
+        this.repository.remove(pad.getId());
+        await(() -> rules(bass.getId()).isEmpty() && rules(pad.getId()).isEmpty());
+        assertEquals(0, this.validator.getJobsWithProblems());
+    }
+
+    @Test
+    void checksLibraryJobsWithoutCreatingThem() throws IOException {
+        Path file = this.directory.resolve("jobs.mjob");
+        JobLibrary.write(file, List.of(job("Same", 60, 72), job("Same", 60, 72), job("Reversed", 72, 60)));
+        JobLibrary library = JobLibrary.open(file);
+        this.repository.load(library);
+        this.validator = new JobValidator(this.repository, Runnable::run);
+
+        await(() -> this.validator.getJobsWithProblems() == 3);
+        assertEquals(List.of(JobValidator.Rule.DUPLICATE_NAME), rules(library.getId(0)));
+        assertEquals(List.of(JobValidator.Rule.DUPLICATE_NAME), rules(library.getId(1)));
+        assertEquals(List.of(JobValidator.Rule.NOTE_RANGE), rules(library.getId(2)));
+        int[] created = new int[1];
+        this.repository.forEach(job -> created[0]++, (records, index) -> { });
+        assertEquals(0, created[0]);
+
+        // Once created and fixed, the job is checked as any other
+        this.repository.update(library.getId(1), job -> job.setName("Other"));
+        await(() -> rules(library.getId(0)).isEmpty() && rules(library.getId(1)).isEmpty());
+    }
+
+    private static Job job(String name, int fromNote, int toNote) {
+        Job job = new Job(name);
+        job.setFromNote(fromNote);
+        job.setToNote(toNote);
+        return job;
+    }
+
+    private List<JobValidator.Rule> rules(UUID id) {
+        return this.validator.getProblems(id).stream().map(JobValidator.Problem::getRule).toList();
+    }
+
+    /**
+     * Waits for the validator to catch up, as it checks on its own thread.
+     */
+    private static void await(BooleanSupplier condition) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                fail("The validator did not catch up");
+            }
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                fail(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,115 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Checks the delta time encoding of {@link MidiExporter} and the files
+ * it writes.
+ */
+class MidiExporterTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void encodesDeltaTimesInAsFewBytesAsFit() throws IOException {
+        assertArrayEquals(bytes(0x00), deltaBytes(0));
+        assertArrayEquals(bytes(0x7F), deltaBytes(0x7F));
+        assertArrayEquals(bytes(0x81, 0x00), deltaBytes(0x80));
+        assertArrayEquals(bytes(0xFF, 0x7F), deltaBytes(0x3FFF));
+        assertArrayEquals(bytes(0x81, 0x80, 0x00), deltaBytes(0x4000));
+        assertArrayEquals(bytes(0xFF, 0xFF, 0x7F), deltaBytes(0x1F_FFFF));
+        assertArrayEquals(bytes(0x81, 0x80, 0x80, 0x00), deltaBytes(0x20_0000));
+        assertArrayEquals(bytes(0xFF, 0xFF, 0xFF, 0x7F), deltaBytes(0x0FFF_FFFF));
+    }
+
+    @Test
+    void refusesDeltaTimesThatDoNotFitInFourBytes() {
+        assertThrows(IllegalArgumentException.class, () -> deltaBytes(0x1000_0000));
+        assertThrows(IllegalArgumentException.class, () -> deltaBytes(-1));
+    }
+
+    @Test
+    void writesOneTrackPerJobAfterTheTempoTrack() throws Exception {
+        Job first = new Job("First", 100, 50, 20);
+        first.setFromNote(60);
+        first.setToNote(62);
+        Job second = new Job("Second");
+        Path file = this.directory.resolve("jobs.mid");
+        new MidiExporter().export(List.of(first, second), file);
+
+        Sequence sequence = MidiSystem.getSequence(file.toFile());
+        assertEquals(MidiExporter.TICKS_PER_QUARTER, sequence.getResolution());
+        assertEquals(3, sequence.getTracks().length);
+
+        NoteSchedule schedule = first.snapshot().getSchedule();
+        Track track = sequence.getTracks()[1];
+        int row = 0;
+        for (int i = 0; i < track.size(); i++) {
+            MidiEvent event = track.get(i);
+            if (event.getMessage() instanceof ShortMessage message && message.getCommand() == ShortMessage.NOTE_ON) {
+                assertEquals(schedule.getNote(row), message.getData1());
+                assertEquals(schedule.getVelocity(row), message.getData2());
+                assertEquals(schedule.getStartTime(row), event.getTick());
+                row++;
+            }
+        }
+        assertEquals(schedule.size(), row);
+        assertEquals(schedule.getTotalTime(), track.ticks());
+    }
+
+    @Test
+    void keepsTheOldFileWhenAnExportFails() throws IOException {
+        Path file = this.directory.resolve("jobs.mid");
+        new MidiExporter().export(new Job("Short"), file);
+        byte[] before = Files.readAllBytes(file);
+
+        Job tooLong = new Job("Long");
+        tooLong.setNoteDecay(Integer.MAX_VALUE / 3);
+        tooLong.setNoteGap(Integer.MAX_VALUE / 2);
+        assertThrows(IllegalArgumentException.class, () -> new MidiExporter().export(tooLong, file));
+
+        assertArrayEquals(before, Files.readAllBytes(file));
+        try (var files = Files.list(this.directory)) {
+            assertEquals(List.of(file), files.toList());
+        }
+    }
+
+    /**
+     * Gets the bytes of the delta time of a note on event.
+     */
+    private byte[] deltaBytes(int delta) throws IOException {
+        Path file = this.directory.resolve("stream.bin");
+        try (FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            MidiExporter.MidiStream stream = new MidiExporter.MidiStream(out);
+            stream.writeNoteOn(delta, 0, 60, 100);
+            stream.flush();
+        }
+        byte[] event = Files.readAllBytes(file);
+        // The note on itself is the last three bytes
+        return Arrays.copyOf(event, event.length - 3);
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte) values[i];
+        }
+        return bytes;
+    }
+}
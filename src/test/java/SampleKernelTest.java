@@ -0,0 +1,100 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that {@link VectorSampleKernel} gives what the plain loops of
+ * {@link SampleKernel.Scalar} give, for lengths that do and do not fill
+ * whole vectors.
+ */
+class SampleKernelTest {
+    private static final int[] LENGTHS = {0, 1, 3, 7, 8, 9, 15, 16, 17, 31, 33, 64, 1000, 4095, 4096, 4097, 10_007};
+
+    private final SampleKernel scalar = new SampleKernel.Scalar();
+    private final SampleKernel vector = new VectorSampleKernel();
+    private final Random random = new Random(1234);
+
+    @Test
+    void convertsToFloatsAlike() {
+        for (int length : LENGTHS) {
+            short[] samples = shorts(length);
+            assertArrayEquals(floats(this.scalar, samples), floats(this.vector, samples), "length " + length);
+        }
+    }
+
+    @Test
+    void findsTheSamePeak() {
+        for (int length : LENGTHS) {
+            float[] samples = floats(this.scalar, shorts(length));
+            assertEquals(this.scalar.peak(samples, length), this.vector.peak(samples, length), "length " + length);
+        }
+    }
+
+    @Test
+    void sumsSquaresToTheLastDigits() {
+        for (int length : LENGTHS) {
+            float[] samples = floats(this.scalar, shorts(length));
+            for (int from : new int[] {0, Math.min(length, 5)}) {
+                double expected = this.scalar.sumOfSquares(samples, from, length);
+                assertEquals(expected, this.vector.sumOfSquares(samples, from, length), expected * 1e-5 + 1e-9,
+                    "length " + length + " from " + from);
+            }
+        }
+    }
+
+    @Test
+    void findsTheSameLastSampleAboveALevel() {
+        for (int length : LENGTHS) {
+            // Quiet but for a few loud samples, so the search has to go a long way back
+            float[] samples = new float[length];
+            for (int i = 0; i < length; i++) {
+                samples[i] = (this.random.nextFloat() - 0.5f) * 0.001f;
+            }
+            for (int i = 0; i < length; i += 997) {
+                samples[i] = i % 2 == 0 ? 0.5f : -0.5f;
+            }
+            for (float level : new float[] {0f, 0.0004f, 0.25f, 0.5f, 1f}) {
+                assertEquals(this.scalar.lastAbove(samples, length, level), this.vector.lastAbove(samples, length, level),
+                    "length " + length + " level " + level);
+            }
+        }
+    }
+
+    @Test
+    void convertsBackToShortsAlike() {
+        for (int length : LENGTHS) {
+            short[] samples = shorts(length);
+            float[] floats = floats(this.scalar, samples);
+            for (float gain : new float[] {1f, 0.5f, 0.891f, 3f}) {
+                short[] expected = new short[length];
+                short[] actual = new short[length];
+                this.scalar.toShort(floats, gain, expected, length);
+                this.vector.toShort(floats, gain, actual, length);
+                assertArrayEquals(expected, actual, "length " + length + " gain " + gain);
+            }
+            short[] back = new short[length];
+            this.vector.toShort(floats, 1f, back, length);
+            assertArrayEquals(samples, back, "length " + length);
+        }
+    }
+
+    private short[] shorts(int length) {
+        short[] samples = new short[length];
+        for (int i = 0; i < length; i++) {
+            samples[i] = (short) this.random.nextInt(Short.MIN_VALUE, Short.MAX_VALUE + 1);
+        }
+        if (length > 1) {
+            samples[0] = Short.MIN_VALUE;
+            samples[length - 1] = Short.MAX_VALUE;
+        }
+        return samples;
+    }
+
+    private static float[] floats(SampleKernel kernel, short[] samples) {
+        float[] out = new float[samples.length];
+        kernel.toFloat(samples, out, samples.length);
+        return out;
+    }
+}
@@ -0,0 +1,109 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Checks how {@link SessionPlanner} spreads notes over channels.
+ */
+class SessionPlannerTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void skipsTheDrumChannel() {
+        List<Integer> channels = new ArrayList<>();
+        for (int slot = 0; slot < SessionPlanner.MAX_CHANNELS; slot++) {
+            channels.add(SessionPlanner.midiChannel(slot));
+        }
+        assertEquals(List.of(0, 1, 2, 3, 4, 5, 6, 7, 8, 10, 11, 12, 13, 14, 15), channels);
+    }
+
+    @Test
+    void refusesMoreChannelsThanMidiLeaves() {
+        assertEquals(15, SessionPlanner.MAX_CHANNELS);
+        assertEquals(15, new SessionPlanner(15).getChannels());
+        assertThrows(IllegalArgumentException.class, () -> new SessionPlanner(16));
+        assertThrows(IllegalArgumentException.class, () -> new SessionPlanner(0));
+    }
+
+    @Test
+    void usesEveryChannelButNineAndOneNoteAtATime() {
+        SessionPlanner.Plan plan = new SessionPlanner(SessionPlanner.MAX_CHANNELS).plan(longTailJobs());
+
+        Set<Integer> used = new TreeSet<>();
+        long[] channelFree = new long[16];
+        long lastRelease = 0;
+        for (int i = 0; i < plan.size(); i++) {
+            int channel = plan.getChannel(i);
+            assertNotEquals(9, channel);
+            used.add(channel);
+            // Pressed after the note before is released, on a channel that has gone quiet
+            assertTrue(plan.getStartTime(i) >= lastRelease);
+            assertTrue(plan.getStartTime(i) >= channelFree[channel]);
+            lastRelease = plan.getReleaseTime(i);
+            channelFree[channel] = plan.getEndTime(i) + plan.getJob(i).getNoteGap();
+            assertTrue(channelFree[channel] <= plan.getTotalTime());
+        }
+        assertEquals(Set.of(0, 1, 2, 3, 4, 5, 6, 7, 8, 10, 11, 12, 13, 14, 15), used);
+    }
+
+    @Test
+    void overlapsTheTails() {
+        List<Job> jobs = longTailJobs();
+        SessionPlanner.Plan single = new SessionPlanner(1).plan(jobs);
+        assertEquals(single.getSequentialTime(), single.getTotalTime());
+
+        // 2 s duration, 6 s decay and 1 s gap: a quarter of the time, give or take the last tail
+        SessionPlanner.Plan four = new SessionPlanner(4).plan(jobs);
+        assertEquals(single.getSequentialTime(), four.getSequentialTime());
+        assertTrue(four.getTotalTime() <= four.getSequentialTime() / 4 + 9000);
+    }
+
+    @Test
+    void exportsOneTrackPerChannel() throws Exception {
+        SessionPlanner.Plan plan = new SessionPlanner(SessionPlanner.MAX_CHANNELS).plan(longTailJobs());
+        Path file = this.directory.resolve("session.mid");
+        new MidiExporter().exportPlan(plan, file);
+
+        Sequence sequence = MidiSystem.getSequence(file.toFile());
+        assertEquals(SessionPlanner.MAX_CHANNELS + 1, sequence.getTracks().length);
+        int notes = 0;
+        for (int slot = 0; slot < SessionPlanner.MAX_CHANNELS; slot++) {
+            Track track = sequence.getTracks()[slot + 1];
+            for (int i = 0; i < track.size(); i++) {
+                MidiEvent event = track.get(i);
+                if (event.getMessage() instanceof ShortMessage message && message.getCommand() == ShortMessage.NOTE_ON) {
+                    assertEquals(SessionPlanner.midiChannel(slot), message.getChannel());
+                    notes++;
+                }
+            }
+        }
+        assertEquals(plan.size(), notes);
+    }
+
+    private static List<Job> longTailJobs() {
+        List<Job> jobs = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Job job = new Job("Job" + i, 2000, 6000, 1000);
+            job.setFromNote(48);
+            job.setToNote(72);
+            job.setSpecificVelocities(List.of(40, 100));
+            jobs.add(job);
+        }
+        return jobs;
+    }
+}